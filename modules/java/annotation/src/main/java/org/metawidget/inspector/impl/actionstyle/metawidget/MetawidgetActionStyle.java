@@ -70,4 +70,10 @@ public class MetawidgetActionStyle
 
 		return true;
 	}
+
+	@Override
+	protected boolean isInspectByClass() {
+
+		return ( getClass() == MetawidgetActionStyle.class );
+	}
 }
@@ -17,10 +17,12 @@
 package org.metawidget.inspectionresultprocessor.commons.jexl;
 
 import java.util.Collection;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.apache.commons.jexl2.Expression;
 import org.apache.commons.jexl2.JexlContext;
 import org.apache.commons.jexl2.JexlEngine;
 import org.apache.commons.jexl2.MapContext;
@@ -29,12 +31,17 @@ import org.metawidget.inspectionresultprocessor.impl.BaseInspectionResultProcess
 import org.metawidget.inspector.impl.propertystyle.PropertyStyle;
 import org.metawidget.util.ArrayUtils;
 import org.metawidget.util.CollectionUtils;
+import org.metawidget.util.XmlUtils;
 import org.metawidget.util.simple.StringUtils;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
 
 /**
  * Processes the inspection result and evaluates any expressions of the form <code>${...}</code>
  * using JEXL.
+ * <p>
+ * Parsed expressions are cached (see <code>JexlInspectionResultProcessorConfig.setExpressionCacheSize</code>),
+ * and <code>this</code> is only traversed to if the entity (or its traits) contain an expression.
  *
  * @author Richard Kennard
  */
@@ -52,6 +59,8 @@ public class JexlInspectionResultProcessor<M>
 
 	private static final Pattern					PATTERN_EXPRESSION	= Pattern.compile( "\\$\\{([^\\}]+)\\}" );
 
+	private static final String						EXPRESSION_START	= "${";
+
 	//
 	// Private members
 	//
@@ -62,6 +71,13 @@ public class JexlInspectionResultProcessor<M>
 
 	private JexlEngine								mJexlEngine;
 
+	/**
+	 * Least-recently-used cache of parsed expressions, keyed by their source text. Null if caching
+	 * is disabled.
+	 */
+
+	private final Map<String, Expression>			mExpressionCache;
+
 	//
 	// Constructors
 	//
@@ -84,6 +100,21 @@ public class JexlInspectionResultProcessor<M>
 		mInjectThis = config.getInjectThis();
 		mInject = config.getInject();
 		mJexlEngine = createEngine();
+
+		final int expressionCacheSize = config.getExpressionCacheSize();
+
+		if ( expressionCacheSize > 0 ) {
+			mExpressionCache = new LinkedHashMap<String, Expression>( 16, 0.75f, true ) {
+
+				@Override
+				protected boolean removeEldestEntry( Map.Entry<String, Expression> eldest ) {
+
+					return size() > expressionCacheSize;
+				}
+			};
+		} else {
+			mExpressionCache = null;
+		}
 	}
 
 	@Override
@@ -105,6 +136,13 @@ public class JexlInspectionResultProcessor<M>
 	@Override
 	protected void processEntity( Map<String, String> attributes, M metawidget, Object toInspect, String type, String... names ) {
 
+		// Nothing to evaluate? Then no need to traverse to 'this'
+
+		if ( !containsExpression( attributes ) ) {
+			super.processEntity( attributes, metawidget, toInspect, type, names );
+			return;
+		}
+
 		JexlContext context = LOCAL_CONTEXT.get();
 
 		try {
@@ -122,6 +160,13 @@ public class JexlInspectionResultProcessor<M>
 	@Override
 	protected void processTraits( Element entity, M metawidget, Object toInspect, String type, String... names ) {
 
+		// Nothing to evaluate? Then no need to traverse to 'this'
+
+		if ( !containsTraitExpression( entity ) ) {
+			super.processTraits( entity, metawidget, toInspect, type, names );
+			return;
+		}
+
 		JexlContext context = LOCAL_CONTEXT.get();
 
 		try {
@@ -146,6 +191,12 @@ public class JexlInspectionResultProcessor<M>
 			String key = entry.getKey();
 			String value = entry.getValue();
 
+			// (quick check before using the regular expression)
+
+			if ( value.indexOf( EXPRESSION_START ) == -1 ) {
+				continue;
+			}
+
 			// ...that contains an EL expression...
 
 			Matcher matcher = PATTERN_EXPRESSION.matcher( value );
@@ -158,7 +209,7 @@ public class JexlInspectionResultProcessor<M>
 				// ...evaluate it...
 
 				try {
-					Object valueObject = mJexlEngine.createExpression( expression ).evaluate( LOCAL_CONTEXT.get() );
+					Object valueObject = getExpression( expression ).evaluate( LOCAL_CONTEXT.get() );
 					String valueObjectAsString;
 
 					if ( valueObject == null ) {
@@ -209,6 +260,35 @@ public class JexlInspectionResultProcessor<M>
 		}
 	}
 
+	/**
+	 * Parse the given expression, or return it from the cache.
+	 */
+
+	protected Expression getExpression( String expression ) {
+
+		if ( mExpressionCache == null ) {
+			return mJexlEngine.createExpression( expression );
+		}
+
+		synchronized ( mExpressionCache ) {
+			Expression cachedExpression = mExpressionCache.get( expression );
+
+			if ( cachedExpression != null ) {
+				return cachedExpression;
+			}
+		}
+
+		// (parse outside the lock. Parsing twice concurrently is harmless)
+
+		Expression parsedExpression = mJexlEngine.createExpression( expression );
+
+		synchronized ( mExpressionCache ) {
+			mExpressionCache.put( expression, parsedExpression );
+		}
+
+		return parsedExpression;
+	}
+
 	/**
 	 * Prepare the JexlEngine.
 	 */
@@ -242,4 +322,41 @@ public class JexlInspectionResultProcessor<M>
 
 		return context;
 	}
+
+	//
+	// Private methods
+	//
+
+	private static boolean containsExpression( Map<String, String> attributes ) {
+
+		for ( String value : attributes.values() ) {
+			if ( value != null && value.indexOf( EXPRESSION_START ) != -1 ) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	private static boolean containsTraitExpression( Element entity ) {
+
+		Element trait = XmlUtils.getFirstChildElement( entity );
+
+		while ( trait != null ) {
+
+			NamedNodeMap attributes = trait.getAttributes();
+
+			for ( int loop = 0, length = attributes.getLength(); loop < length; loop++ ) {
+				String value = attributes.item( loop ).getNodeValue();
+
+				if ( value != null && value.indexOf( EXPRESSION_START ) != -1 ) {
+					return true;
+				}
+			}
+
+			trait = XmlUtils.getNextSiblingElement( trait );
+		}
+
+		return false;
+	}
 }
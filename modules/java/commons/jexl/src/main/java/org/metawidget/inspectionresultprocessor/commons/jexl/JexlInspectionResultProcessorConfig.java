@@ -45,6 +45,8 @@ public class JexlInspectionResultProcessorConfig {
 
 	private boolean					mNullInjectThis;
 
+	private int						mExpressionCacheSize	= 500;
+
 	//
 	// Public methods
 	//
@@ -107,6 +109,22 @@ public class JexlInspectionResultProcessorConfig {
 		return this;
 	}
 
+	/**
+	 * Sets the maximum number of parsed JEXL expressions to cache, keyed by their source text.
+	 * Defaults to 500. Set to 0 to disable caching.
+	 *
+	 * @return this, as part of a fluent interface
+	 */
+
+	public JexlInspectionResultProcessorConfig setExpressionCacheSize( int expressionCacheSize ) {
+
+		mExpressionCacheSize = expressionCacheSize;
+
+		// Fluent interface
+
+		return this;
+	}
+
 	@Override
 	public boolean equals( Object that ) {
 
@@ -130,6 +148,10 @@ public class JexlInspectionResultProcessorConfig {
 			return false;
 		}
 
+		if ( mExpressionCacheSize != ( (JexlInspectionResultProcessorConfig) that ).mExpressionCacheSize ) {
+			return false;
+		}
+
 		return true;
 	}
 
@@ -140,6 +162,7 @@ public class JexlInspectionResultProcessorConfig {
 		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mInjectThis );
 		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mNullInjectThis );
 		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mInject );
+		hashCode = 31 * hashCode + mExpressionCacheSize;
 
 		return hashCode;
 	}
@@ -167,4 +190,9 @@ public class JexlInspectionResultProcessorConfig {
 
 		return mInject;
 	}
-}
\ No newline at end of file
+
+	protected int getExpressionCacheSize() {
+
+		return mExpressionCacheSize;
+	}
+}
\ No newline at end of file
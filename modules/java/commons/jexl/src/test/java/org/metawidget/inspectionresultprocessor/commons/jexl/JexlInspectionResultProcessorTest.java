@@ -19,9 +19,14 @@ package org.metawidget.inspectionresultprocessor.commons.jexl;
 import static org.metawidget.inspector.InspectionResultConstants.*;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.Map;
 
 import junit.framework.TestCase;
 
+import org.apache.commons.jexl2.Expression;
+import org.apache.commons.jexl2.JexlEngine;
+import org.metawidget.inspector.impl.propertystyle.ValueAndDeclaredType;
 import org.metawidget.inspector.impl.propertystyle.javabean.JavaBeanPropertyStyle;
 import org.metawidget.inspector.impl.propertystyle.javabean.JavaBeanPropertyStyleConfig;
 import org.metawidget.util.CollectionUtils;
@@ -248,6 +253,138 @@ public class JexlInspectionResultProcessorTest
 		assertEquals( entity.getChildNodes().getLength(), 1 );
 	}
 
+	public void testExpressionCache() {
+
+		String xml = "<?xml version=\"1.0\"?>";
+		xml += "<inspection-result xmlns=\"http://www.metawidget.org/inspection-result\" version=\"1.0\">";
+		xml += "<entity type=\"Company\">";
+		xml += "<property name=\"employee\" lookup=\"${personController.all}\" />";
+		xml += "<property name=\"manager\" lookup=\"${personController.all}\" />";
+		xml += "<property name=\"company\" label=\"Company\" />";
+		xml += "</entity></inspection-result>";
+
+		final int[] createExpression = new int[1];
+		final int[] processTrait = new int[1];
+
+		JexlInspectionResultProcessor<Object> inspectionResultProcessor = new JexlInspectionResultProcessor<Object>( new JexlInspectionResultProcessorConfig().setInject( new PersonController() ) ) {
+
+			@Override
+			protected JexlEngine createEngine() {
+
+				return new JexlEngine() {
+
+					@Override
+					public Expression createExpression( String expression ) {
+
+						createExpression[0]++;
+						return super.createExpression( expression );
+					}
+				};
+			}
+
+			@Override
+			protected void processTrait( Map<String, String> attributes, Object metawidget ) {
+
+				processTrait[0]++;
+				super.processTrait( attributes, metawidget );
+			}
+		};
+
+		// Parsed only once
+
+		for ( int loop = 0; loop < 3; loop++ ) {
+			String result = inspectionResultProcessor.processInspectionResult( xml, null, null, "Company" );
+			Element entity = XmlUtils.getFirstChildElement( XmlUtils.documentFromString( result ).getDocumentElement() );
+			assertEquals( "Tom1, Dick1, Harry1", XmlUtils.getChildWithAttributeValue( entity, NAME, "employee" ).getAttribute( "lookup" ) );
+			assertEquals( "Tom1, Dick1, Harry1", XmlUtils.getChildWithAttributeValue( entity, NAME, "manager" ).getAttribute( "lookup" ) );
+			assertEquals( "Company", XmlUtils.getChildWithAttributeValue( entity, NAME, "company" ).getAttribute( LABEL ) );
+		}
+
+		assertEquals( 1, createExpression[0] );
+		assertEquals( 9, processTrait[0] );
+
+		// Cache disabled
+
+		createExpression[0] = 0;
+		inspectionResultProcessor = new JexlInspectionResultProcessor<Object>( new JexlInspectionResultProcessorConfig().setInject( new PersonController() ).setExpressionCacheSize( 0 ) ) {
+
+			@Override
+			protected JexlEngine createEngine() {
+
+				return new JexlEngine() {
+
+					@Override
+					public Expression createExpression( String expression ) {
+
+						createExpression[0]++;
+						return super.createExpression( expression );
+					}
+				};
+			}
+		};
+
+		inspectionResultProcessor.processInspectionResult( xml, null, null, "Company" );
+		assertEquals( 2, createExpression[0] );
+	}
+
+	public void testSubclassHooks() {
+
+		String xml = "<?xml version=\"1.0\"?>";
+		xml += "<inspection-result xmlns=\"http://www.metawidget.org/inspection-result\" version=\"1.0\">";
+		xml += "<entity type=\"" + ThisTest.class.getName() + "\">";
+		xml += "<property name=\"me\" />";
+		xml += "<property name=\"child\" />";
+		xml += "</entity></inspection-result>";
+
+		final List<String> hooks = CollectionUtils.newArrayList();
+		final int[] traverse = new int[1];
+
+		JexlInspectionResultProcessor<Object> inspectionResultProcessor = new JexlInspectionResultProcessor<Object>( new JexlInspectionResultProcessorConfig().setInjectThis( new JavaBeanPropertyStyle() {
+
+			@Override
+			public ValueAndDeclaredType traverse( Object toTraverse, String type, boolean onlyToParent, String... names ) {
+
+				traverse[0]++;
+				return super.traverse( toTraverse, type, onlyToParent, names );
+			}
+		} ) ) {
+
+			@Override
+			protected void processEntity( Map<String, String> attributes, Object metawidget, Object toInspect, String type, String... names ) {
+
+				hooks.add( "processEntity" );
+				super.processEntity( attributes, metawidget, toInspect, type, names );
+			}
+
+			@Override
+			protected void processTrait( Map<String, String> attributes, Object metawidget ) {
+
+				hooks.add( "processTrait " + attributes.get( NAME ) );
+				super.processTrait( attributes, metawidget );
+			}
+
+			@Override
+			protected void processAttributes( Map<String, String> attributes, Object metawidget ) {
+
+				attributes.put( "processed", TRUE );
+				super.processAttributes( attributes, metawidget );
+			}
+		};
+
+		// Subclass hooks should be called even if there are no expressions...
+
+		String result = inspectionResultProcessor.processInspectionResult( xml, null, new ThisTest(), ThisTest.class.getName() );
+		Element entity = XmlUtils.getFirstChildElement( XmlUtils.documentFromString( result ).getDocumentElement() );
+		assertEquals( TRUE, entity.getAttribute( "processed" ) );
+		assertEquals( TRUE, XmlUtils.getChildWithAttributeValue( entity, NAME, "me" ).getAttribute( "processed" ) );
+		assertEquals( TRUE, XmlUtils.getChildWithAttributeValue( entity, NAME, "child" ).getAttribute( "processed" ) );
+		assertEquals( CollectionUtils.newArrayList( "processEntity", "processTrait me", "processTrait child" ), hooks );
+
+		// ...but 'this' should not be traversed to
+
+		assertEquals( 0, traverse[0] );
+	}
+
 	//
 	// Inner class
 	//
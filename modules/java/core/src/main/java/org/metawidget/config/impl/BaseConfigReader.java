@@ -18,6 +18,9 @@ package org.metawidget.config.impl;
 
 import java.io.FileInputStream;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Array;
 import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
@@ -30,6 +33,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.ResourceBundle;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import javax.xml.parsers.SAXParserFactory;
@@ -88,10 +92,28 @@ public class BaseConfigReader
 	private final ResourceResolver										mResourceResolver;
 
 	/**
-	 * Cache of resource content based on resource name
+	 * Cache of resource content based on resource name.
+	 * <p>
+	 * All caches are concurrent, so that <code>configure</code> calls for already-cached resources
+	 * take no lock. Reading a new resource only locks its own location (see
+	 * <code>mLocationLocks</code>), so different resources can be read in parallel.
+	 */
+
+	/* package private */final ConcurrentMap<String, CachingContentHandler>						mResourceCache				= CollectionUtils.newConcurrentHashMap();
+
+	/**
+	 * Pre-compiled snapshots of resources (see <code>readSnapshot</code>), based on resource name.
+	 * Consulted instead of parsing the resource.
 	 */
 
-	/* package private */final Map<String, CachingContentHandler>		mResourceCache				= CollectionUtils.newHashMap();
+	/* package private */final ConcurrentMap<String, CachingContentHandler>						mSnapshotCache				= CollectionUtils.newConcurrentHashMap();
+
+	/**
+	 * Locks held while a location is first read, so that concurrent <code>configure</code> calls
+	 * for the same location wait for (and then replay) the first, rather than reading it twice.
+	 */
+
+	/* package private */final ConcurrentMap<String, Object>										mLocationLocks				= CollectionUtils.newConcurrentHashMap();
 
 	/**
 	 * Cache of objects that are immutable, indexed by a unique location (ie. the resource name) and
@@ -100,7 +122,7 @@ public class BaseConfigReader
 	 * child <code>Inspector</code>s and their various <code>xxxConfig</code>s.
 	 */
 
-	/* package private */final Map<String, Map<Integer, Immutable>>		mImmutableByLocationCache	= CollectionUtils.newHashMap();
+	/* package private */final ConcurrentMap<String, Map<Integer, Immutable>>					mImmutableByLocationCache	= CollectionUtils.newConcurrentHashMap();
 
 	/**
 	 * Cache of objects that are immutable, indexed by their Class (and within that their Config).
@@ -108,9 +130,13 @@ public class BaseConfigReader
 	 * applicable. For example, it can cache the same <code>Inspector</code> between different XMLs
 	 * from different <code>InputStream</code>s, and the same <code>PropertyStyle</code> across
 	 * multiple different <code>Inspector</code>s.
+	 * <p>
+	 * Classes are weakly referenced, so as not to prevent them being garbage collected.
 	 */
 
-	/* package private */final Map<Class<?>, Map<Object, Immutable>>	mImmutableByClassCache		= CollectionUtils.newWeakHashMap();
+	/* package private */final ConcurrentMap<WeakClassKey, ConcurrentMap<Object, Immutable>>	mImmutableByClassCache		= CollectionUtils.newConcurrentHashMap();
+
+	/* package private */final ReferenceQueue<Class<?>>											mImmutableByClassQueue		= new ReferenceQueue<Class<?>>();
 
 	/**
 	 * Cache of objects that are immutable, indexed by their id. This is a less automatic cache than
@@ -119,7 +145,7 @@ public class BaseConfigReader
 	 * need only specify, say, a PropertyStyle with nested Config options once.
 	 */
 
-	/* package private */final Map<String, Immutable>					mImmutableByIdCache			= CollectionUtils.newHashMap();
+	/* package private */final ConcurrentMap<String, Immutable>								mImmutableByIdCache			= CollectionUtils.newConcurrentHashMap();
 
 	/**
 	 * Patterns do not cache well, because <code>java.util.regex.Pattern</code> does not override
@@ -127,7 +153,7 @@ public class BaseConfigReader
 	 * same instance.
 	 */
 
-	/* package private */final Map<String, Pattern>						mPatternCache				= CollectionUtils.newHashMap();
+	/* package private */final ConcurrentMap<String, Pattern>									mPatternCache				= CollectionUtils.newConcurrentHashMap();
 
 	//
 	// Constructor
@@ -186,45 +212,74 @@ public class BaseConfigReader
 
 		locationKey += ArrayUtils.toString( names, StringUtils.SEPARATOR_FORWARD_SLASH, true, false );
 
-		synchronized ( mImmutableByLocationCache ) {
+		try {
 
-			Map<Integer, Immutable> immutableByLocationCache = mImmutableByLocationCache.get( locationKey );
+			// Replay the existing cache (without locking)...
 
-			if ( immutableByLocationCache == null ) {
-				immutableByLocationCache = CollectionUtils.newHashMap();
+			CachingContentHandler cachingContentHandler = mResourceCache.get( locationKey );
+
+			if ( cachingContentHandler != null ) {
+				configHandler.setImmutableForThisLocationCache( mImmutableByLocationCache.get( locationKey ) );
+				cachingContentHandler.replay( configHandler );
+
+				return configHandler.getConfigured();
 			}
 
-			configHandler.setImmutableForThisLocationCache( immutableByLocationCache );
+			// ...or cache a new one (locking only this location)
 
-			try {
+			Object locationLock = mLocationLocks.get( locationKey );
+
+			if ( locationLock == null ) {
+				locationLock = new Object();
+				Object existingLock = mLocationLocks.putIfAbsent( locationKey, locationLock );
 
-				// Replay the existing cache...
+				if ( existingLock != null ) {
+					locationLock = existingLock;
+				}
+			}
 
-				CachingContentHandler cachingContentHandler = mResourceCache.get( locationKey );
+			synchronized ( locationLock ) {
+
+				// Another thread may have cached it while we waited
+
+				cachingContentHandler = mResourceCache.get( locationKey );
 
 				if ( cachingContentHandler != null ) {
+					configHandler.setImmutableForThisLocationCache( mImmutableByLocationCache.get( locationKey ) );
 					cachingContentHandler.replay( configHandler );
+
+					return configHandler.getConfigured();
 				}
 
-				// ...or cache a new one
+				LOG.debug( "Reading resource from {0}", locationKey );
+				Map<Integer, Immutable> immutableByLocationCache = CollectionUtils.newHashMap();
+				configHandler.setImmutableForThisLocationCache( immutableByLocationCache );
+				cachingContentHandler = new CachingContentHandler( configHandler );
+				configHandler.setCachingContentHandler( cachingContentHandler );
 
-				else {
+				CachingContentHandler snapshot = null;
 
-					LOG.debug( "Reading resource from {0}", locationKey );
-					cachingContentHandler = new CachingContentHandler( configHandler );
-					configHandler.setCachingContentHandler( cachingContentHandler );
+				if ( resource != null ) {
+					snapshot = mSnapshotCache.get( resource );
+				}
+
+				if ( snapshot != null ) {
+					snapshot.replay( cachingContentHandler );
+				} else {
 					mFactory.newSAXParser().parse( mResourceResolver.openResource( resource ), cachingContentHandler );
+				}
 
-					// Only cache if successful
+				// Only cache if successful. Cache by location before caching the resource, as
+				// replays look them up in the opposite order
 
-					mResourceCache.put( locationKey, cachingContentHandler );
-					mImmutableByLocationCache.put( locationKey, immutableByLocationCache );
-				}
+				mImmutableByLocationCache.put( locationKey, immutableByLocationCache );
+				mResourceCache.put( locationKey, cachingContentHandler );
+				mLocationLocks.remove( locationKey );
 
 				return configHandler.getConfigured();
-			} catch ( Exception e ) {
-				throw MetawidgetException.newException( e );
 			}
+		} catch ( Exception e ) {
+			throw MetawidgetException.newException( e );
 		}
 	}
 
@@ -301,6 +356,57 @@ public class BaseConfigReader
 		}
 	}
 
+	/**
+	 * Write a pre-compiled snapshot of an application resource.
+	 * <p>
+	 * The snapshot records the resource's SAX events in a compact binary form. It is intended to
+	 * be written at build time (see <code>ConfigSnapshotWriter</code>) and restored at startup
+	 * using <code>readSnapshot</code>, saving the cost of creating a SAX parser and parsing the
+	 * XML. Note the snapshot captures the XML, not the configured objects: these are still
+	 * instantiated (and cached) as normal on the first call to <code>configure</code>.
+	 *
+	 * @param resource
+	 *            resource name that will be looked up using openResource
+	 * @param out
+	 *            stream to write the snapshot to. The stream is flushed but not closed
+	 */
+
+	public void writeSnapshot( String resource, OutputStream out ) {
+
+		try {
+			CachingContentHandler cachingContentHandler = new CachingContentHandler( new DefaultHandler() );
+			mFactory.newSAXParser().parse( mResourceResolver.openResource( resource ), cachingContentHandler );
+			cachingContentHandler.write( out );
+		} catch ( Exception e ) {
+			throw MetawidgetException.newException( e );
+		}
+	}
+
+	/**
+	 * Read a pre-compiled snapshot, previously written by <code>writeSnapshot</code>.
+	 * <p>
+	 * Subsequent calls to <code>configure( String, Object )</code> for the given resource will
+	 * replay the snapshot, rather than opening and parsing the resource.
+	 *
+	 * @param resource
+	 *            resource name the snapshot was written from
+	 * @param snapshot
+	 *            stream to read the snapshot from. The stream is not closed
+	 */
+
+	public void readSnapshot( String resource, InputStream snapshot ) {
+
+		if ( snapshot == null ) {
+			throw MetawidgetException.newException( "No snapshot input stream specified" );
+		}
+
+		try {
+			mSnapshotCache.put( resource, CachingContentHandler.read( snapshot ) );
+		} catch ( Exception e ) {
+			throw MetawidgetException.newException( e );
+		}
+	}
+
 	public final ResourceResolver getResourceResolver() {
 
 		return mResourceResolver;
@@ -432,7 +538,11 @@ public class BaseConfigReader
 
 			if ( pattern == null ) {
 				pattern = Pattern.compile( recordedText );
-				mPatternCache.put( recordedText, pattern );
+				Pattern existingPattern = mPatternCache.putIfAbsent( recordedText, pattern );
+
+				if ( existingPattern != null ) {
+					pattern = existingPattern;
+				}
 			}
 
 			return pattern;
@@ -1089,9 +1199,9 @@ public class BaseConfigReader
 								if ( isImmutable( classToConstruct ) ) {
 									LOG.debug( "\tInstantiated immutable {0} (config hashCode {1})", classToConstruct, object.hashCode() );
 									Immutable immutable = (Immutable) configuredObject;
-									putImmutableByClass( immutable, object );
+									configuredObject = putImmutableByClass( immutable, object );
 
-									if ( id != null ) {
+									if ( id != null && configuredObject == immutable ) {
 										putImmutableById( id, immutable );
 									}
 								}
@@ -1324,11 +1434,11 @@ public class BaseConfigReader
 				if ( isImmutable( classToConstruct ) ) {
 					LOG.debug( "\tInstantiated immutable {0} (no config)", classToConstruct );
 					Immutable immutable = (Immutable) object;
-					putImmutableByClass( immutable, null );
+					object = putImmutableByClass( immutable, null );
 
 					String id = attributes.getValue( "id" );
 
-					if ( id != null ) {
+					if ( id != null && object == immutable ) {
 						putImmutableById( id, immutable );
 					}
 				}
@@ -1398,25 +1508,25 @@ public class BaseConfigReader
 
 		private Object getImmutableByRefId( String refId ) {
 
-			if ( !mImmutableByIdCache.containsKey( refId ) ) {
+			Immutable immutable = mImmutableByIdCache.get( refId );
+
+			if ( immutable == null ) {
 				throw InspectorException.newException( "Attribute refId=\"" + refId + "\" refers to non-existent id" );
 			}
 
-			return mImmutableByIdCache.get( refId );
+			return immutable;
 		}
 
 		private void putImmutableById( String id, Immutable immutable ) {
 
-			if ( mImmutableByIdCache.containsKey( id ) ) {
+			if ( mImmutableByIdCache.putIfAbsent( id, immutable ) != null ) {
 				throw InspectorException.newException( "Attribute id=\"" + id + "\" appears more than once" );
 			}
-
-			mImmutableByIdCache.put( id, immutable );
 		}
 
 		private Object getImmutableByClass( Class<?> clazz, Object config ) {
 
-			Map<Object, Immutable> configs = mImmutableByClassCache.get( clazz );
+			Map<Object, Immutable> configs = mImmutableByClassCache.get( new WeakClassKey( clazz, null ) );
 
 			if ( configs == null ) {
 				return null;
@@ -1433,14 +1543,30 @@ public class BaseConfigReader
 			return configs.get( configToLookup );
 		}
 
-		private void putImmutableByClass( Immutable immutable, Object config ) {
+		/**
+		 * @return the given immutable or, if another thread cached an equivalent immutable first,
+		 *         that one
+		 */
+
+		private Immutable putImmutableByClass( Immutable immutable, Object config ) {
 
 			Class<?> clazz = immutable.getClass();
-			Map<Object, Immutable> configs = mImmutableByClassCache.get( clazz );
+			ConcurrentMap<Object, Immutable> configs = mImmutableByClassCache.get( new WeakClassKey( clazz, null ) );
 
 			if ( configs == null ) {
-				configs = CollectionUtils.newHashMap();
-				mImmutableByClassCache.put( clazz, configs );
+
+				// Expunge classes that have been garbage collected
+
+				for ( Object stale = mImmutableByClassQueue.poll(); stale != null; stale = mImmutableByClassQueue.poll() ) {
+					mImmutableByClassCache.remove( stale );
+				}
+
+				configs = CollectionUtils.newConcurrentHashMap();
+				ConcurrentMap<Object, Immutable> existingConfigs = mImmutableByClassCache.putIfAbsent( new WeakClassKey( clazz, mImmutableByClassQueue ), configs );
+
+				if ( existingConfigs != null ) {
+					configs = existingConfigs;
+				}
 			}
 
 			Object configToStoreUnder = config;
@@ -1525,22 +1651,25 @@ public class BaseConfigReader
 				}
 			}
 
-			if ( configs.containsKey( configToStoreUnder ) ) {
-				throw InspectorException.newException( "Config '" + configToStoreUnder + "' already cached" );
-			}
+			// Another thread may have cached an equivalent immutable in the meantime (eg. while
+			// reading a different resource). If so, use theirs
+
+			Immutable cachedImmutable = configs.putIfAbsent( configToStoreUnder, immutable );
+
+			if ( cachedImmutable == null ) {
+				cachedImmutable = immutable;
+
+				for ( Method method : clazz.getMethods() ) {
 
-			for ( Method method : clazz.getMethods() ) {
+					// Do not warn for > 1 parameter, as a lot of WidgetBuilders implement setValue
 
-				// Do not warn for > 1 parameter, as a lot of WidgetBuilders implement setValue
-				
-				if ( method.getName().startsWith( ClassUtils.JAVABEAN_SET_PREFIX ) && method.getParameterTypes().length == 1 ) {
-					LOG.warn( "{0} must be immutable, but appears to have a setter method ({1})", clazz, method );
-					break;
+					if ( method.getName().startsWith( ClassUtils.JAVABEAN_SET_PREFIX ) && method.getParameterTypes().length == 1 ) {
+						LOG.warn( "{0} must be immutable, but appears to have a setter method ({1})", clazz, method );
+						break;
+					}
 				}
 			}
 
-			configs.put( configToStoreUnder, immutable );
-
 			// Unpause caching (if any)
 
 			if ( mCachingContentHandler != null && mDepth < mIgnoreImmutableAfterDepth ) {
@@ -1548,9 +1677,11 @@ public class BaseConfigReader
 				mIgnoreImmutableAfterDepth = -1;
 
 				if ( config != null ) {
-					putImmutableByLocation( immutable );
+					putImmutableByLocation( cachedImmutable );
 				}
 			}
+
+			return cachedImmutable;
 		}
 
 		/**
@@ -1716,6 +1847,56 @@ public class BaseConfigReader
 		}
 	}
 
+	/**
+	 * Weakly-referenced <code>Class</code>, for use as a key in <code>mImmutableByClassCache</code>.
+	 */
+
+	/* package private */static class WeakClassKey
+		extends WeakReference<Class<?>> {
+
+		//
+		// Private members
+		//
+
+		private final int	mHashCode;
+
+		//
+		// Constructor
+		//
+
+		public WeakClassKey( Class<?> clazz, ReferenceQueue<Class<?>> queue ) {
+
+			super( clazz, queue );
+			mHashCode = clazz.hashCode();
+		}
+
+		//
+		// Public methods
+		//
+
+		@Override
+		public boolean equals( Object that ) {
+
+			if ( this == that ) {
+				return true;
+			}
+
+			if ( !( that instanceof WeakClassKey ) ) {
+				return false;
+			}
+
+			Class<?> clazz = get();
+
+			return clazz != null && clazz.equals( ( (WeakClassKey) that ).get() );
+		}
+
+		@Override
+		public int hashCode() {
+
+			return mHashCode;
+		}
+	}
+
 	private static class ConfigAndId {
 
 		//
@@ -0,0 +1,120 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.config.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.metawidget.config.iface.ResourceResolver;
+import org.metawidget.iface.MetawidgetException;
+
+/**
+ * Build-time tool for writing pre-compiled <code>BaseConfigReader</code> snapshots.
+ * <p>
+ * Usage:
+ * <p>
+ * <code>
+ * java org.metawidget.config.impl.ConfigSnapshotWriter &lt;resource&gt; &lt;snapshot file&gt; [&lt;class to validate&gt;...]
+ * </code>
+ * <p>
+ * For example, a build can run...
+ * <p>
+ * <code>
+ * java org.metawidget.config.impl.ConfigSnapshotWriter metawidget.xml target/classes/metawidget.snapshot org.metawidget.swing.SwingMetawidget
+ * </code>
+ * <p>
+ * ...and the application can then, at startup, call
+ * <code>configReader.readSnapshot( "metawidget.xml", stream )</code> before its first
+ * <code>configure</code>. Before writing the snapshot, each class to validate is configured from
+ * it (using a <code>BaseConfigReader</code> that cannot see the original resource) so that
+ * configuration errors are reported at build time, not at startup.
+ *
+ * @author Richard Kennard
+ */
+
+public final class ConfigSnapshotWriter {
+
+	//
+	// Public statics
+	//
+
+	public static void main( String[] args )
+		throws Exception {
+
+		if ( args.length < 2 ) {
+			System.err.println( "Usage: ConfigSnapshotWriter <resource> <snapshot file> [<class to validate>...]" );
+			System.exit( 1 );
+		}
+
+		String resource = args[0];
+
+		ByteArrayOutputStream snapshot = new ByteArrayOutputStream();
+		new BaseConfigReader().writeSnapshot( resource, snapshot );
+
+		// Validate
+
+		for ( int loop = 2; loop < args.length; loop++ ) {
+			validateSnapshot( resource, snapshot.toByteArray(), Class.forName( args[loop] ) );
+		}
+
+		// Write
+
+		OutputStream out = new FileOutputStream( args[1] );
+
+		try {
+			snapshot.writeTo( out );
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Configure the given class purely from the given snapshot.
+	 *
+	 * @return the configured object
+	 */
+
+	public static Object validateSnapshot( final String resource, byte[] snapshot, Class<?> toConfigure ) {
+
+		BaseConfigReader configReader = new BaseConfigReader( new ResourceResolver() {
+
+			public InputStream openResource( String resourceToOpen ) {
+
+				if ( resource.equals( resourceToOpen ) ) {
+					throw MetawidgetException.newException( "Snapshot of " + resource + " was not used" );
+				}
+
+				return new SimpleResourceResolver().openResource( resourceToOpen );
+			}
+		} );
+
+		configReader.readSnapshot( resource, new ByteArrayInputStream( snapshot ) );
+		return configReader.configure( resource, toConfigure );
+	}
+
+	//
+	// Private constructor
+	//
+
+	private ConfigSnapshotWriter() {
+
+		// Can never be called
+	}
+}
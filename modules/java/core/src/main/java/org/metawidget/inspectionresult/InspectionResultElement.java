@@ -0,0 +1,271 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.inspectionresult;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Immutable, array-backed element of an inspection result.
+ * <p>
+ * An inspection result is a tree: a root element, containing an entity element, containing
+ * property and action elements, each with attributes. Most Inspectors and
+ * InspectionResultProcessors pass it around as a String of XML (or as a DOM, see
+ * <code>DomInspector</code>). <code>InspectionResultElement</code> is a lightweight alternative
+ * for those that opt in by implementing <code>TreeInspector</code> or
+ * <code>TreeInspectionResultProcessor</code>. It holds its attributes and children in arrays, and
+ * is never serialized between them.
+ * <p>
+ * Because it is immutable, an <code>InspectionResultElement</code> can be shared between trees. For
+ * example, an InspectionResultProcessor that changes one property can return a new entity that
+ * reuses every other property. For the same reason, elements do not know their parent.
+ * <p>
+ * Adapters to and from <code>org.w3c.dom</code> are in <code>XmlUtils</code>, so that this class
+ * stays GWT-compatible.
+ *
+ * @author Richard Kennard
+ */
+
+public final class InspectionResultElement {
+
+	//
+	// Private statics
+	//
+
+	private static final String[]					EMPTY_ATTRIBUTES	= new String[0];
+
+	private static final InspectionResultElement[]	EMPTY_CHILDREN		= new InspectionResultElement[0];
+
+	//
+	// Private members
+	//
+
+	private final String							mName;
+
+	/**
+	 * Attribute names and values, alternating.
+	 */
+
+	private final String[]							mAttributes;
+
+	private final InspectionResultElement[]			mChildren;
+
+	//
+	// Constructor
+	//
+
+	/**
+	 * @param attributes
+	 *            may be null. Attributes with null values are ignored
+	 * @param children
+	 *            copied, so later changes to the array do not affect this element
+	 */
+
+	public InspectionResultElement( String name, Map<String, String> attributes, InspectionResultElement... children ) {
+
+		this( name, toAttributes( attributes ), copyChildren( children ) );
+	}
+
+	private InspectionResultElement( String name, String[] attributes, InspectionResultElement[] children ) {
+
+		if ( name == null ) {
+			throw new NullPointerException( "name" );
+		}
+
+		mName = name;
+		mAttributes = attributes;
+		mChildren = children;
+	}
+
+	//
+	// Public methods
+	//
+
+	public String getName() {
+
+		return mName;
+	}
+
+	/**
+	 * @return the value of the given attribute, or null if no such attribute
+	 */
+
+	public String getAttribute( String name ) {
+
+		for ( int loop = 0, length = mAttributes.length; loop < length; loop += 2 ) {
+			if ( mAttributes[loop].equals( name ) ) {
+				return mAttributes[loop + 1];
+			}
+		}
+
+		return null;
+	}
+
+	public int getAttributeCount() {
+
+		return mAttributes.length / 2;
+	}
+
+	public String getAttributeName( int index ) {
+
+		return mAttributes[index * 2];
+	}
+
+	public String getAttributeValue( int index ) {
+
+		return mAttributes[index * 2 + 1];
+	}
+
+	/**
+	 * Gets the attributes as a new, modifiable Map.
+	 */
+
+	public Map<String, String> getAttributesAsMap() {
+
+		Map<String, String> attributes = new HashMap<String, String>();
+
+		for ( int loop = 0, length = mAttributes.length; loop < length; loop += 2 ) {
+			attributes.put( mAttributes[loop], mAttributes[loop + 1] );
+		}
+
+		return attributes;
+	}
+
+	public int getChildCount() {
+
+		return mChildren.length;
+	}
+
+	public InspectionResultElement getChild( int index ) {
+
+		return mChildren[index];
+	}
+
+	/**
+	 * @return the first child with the given attribute value, or null if no such child
+	 */
+
+	public InspectionResultElement getChildWithAttributeValue( String attributeName, String attributeValue ) {
+
+		for ( InspectionResultElement child : mChildren ) {
+			if ( attributeValue.equals( child.getAttribute( attributeName ) ) ) {
+				return child;
+			}
+		}
+
+		return null;
+	}
+
+	/**
+	 * Returns a copy of this element with the given attribute set, sharing the same children.
+	 *
+	 * @param value
+	 *            the new value, or null to remove the attribute
+	 */
+
+	public InspectionResultElement withAttribute( String name, String value ) {
+
+		for ( int loop = 0, length = mAttributes.length; loop < length; loop += 2 ) {
+
+			if ( !mAttributes[loop].equals( name ) ) {
+				continue;
+			}
+
+			if ( value == null ) {
+				String[] attributes = new String[length - 2];
+				System.arraycopy( mAttributes, 0, attributes, 0, loop );
+				System.arraycopy( mAttributes, loop + 2, attributes, loop, length - loop - 2 );
+				return new InspectionResultElement( mName, attributes, mChildren );
+			}
+
+			String[] attributes = new String[length];
+			System.arraycopy( mAttributes, 0, attributes, 0, length );
+			attributes[loop + 1] = value;
+			return new InspectionResultElement( mName, attributes, mChildren );
+		}
+
+		if ( value == null ) {
+			return this;
+		}
+
+		String[] attributes = new String[mAttributes.length + 2];
+		System.arraycopy( mAttributes, 0, attributes, 0, mAttributes.length );
+		attributes[mAttributes.length] = name;
+		attributes[mAttributes.length + 1] = value;
+		return new InspectionResultElement( mName, attributes, mChildren );
+	}
+
+	/**
+	 * Returns a copy of this element with the given children, sharing the same attributes.
+	 */
+
+	public InspectionResultElement withChildren( InspectionResultElement... children ) {
+
+		return new InspectionResultElement( mName, mAttributes, copyChildren( children ) );
+	}
+
+	//
+	// Private statics
+	//
+
+	private static String[] toAttributes( Map<String, String> attributes ) {
+
+		if ( attributes == null || attributes.isEmpty() ) {
+			return EMPTY_ATTRIBUTES;
+		}
+
+		String[] toReturn = new String[attributes.size() * 2];
+		int index = 0;
+
+		for ( Map.Entry<String, String> entry : attributes.entrySet() ) {
+
+			String value = entry.getValue();
+
+			if ( value == null ) {
+				continue;
+			}
+
+			toReturn[index++] = entry.getKey();
+			toReturn[index++] = value;
+		}
+
+		if ( index == toReturn.length ) {
+			return toReturn;
+		}
+
+		String[] trimmed = new String[index];
+		System.arraycopy( toReturn, 0, trimmed, 0, index );
+		return trimmed;
+	}
+
+	private static InspectionResultElement[] copyChildren( InspectionResultElement[] children ) {
+
+		if ( children == null || children.length == 0 ) {
+			return EMPTY_CHILDREN;
+		}
+
+		for ( InspectionResultElement child : children ) {
+			if ( child == null ) {
+				throw new NullPointerException( "child" );
+			}
+		}
+
+		InspectionResultElement[] copy = new InspectionResultElement[children.length];
+		System.arraycopy( children, 0, copy, 0, children.length );
+		return copy;
+	}
+}
@@ -0,0 +1,47 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.inspectionresultprocessor.iface;
+
+import org.metawidget.inspectionresult.InspectionResultElement;
+
+/**
+ * Processes the given inspection result as an <code>InspectionResultElement</code>.
+ * <p>
+ * <code>TreeInspectionResultProcessor</code> is an <em>optional</em> interface that enables an
+ * optimization, much like <code>DomInspectionResultProcessor</code>. Because the tree is
+ * immutable, implementations return a new tree (which may share unchanged elements with the
+ * original) rather than modify it in place.
+ *
+ * @author Richard Kennard
+ */
+
+public interface TreeInspectionResultProcessor<M>
+	extends InspectionResultProcessor<M> {
+
+	//
+	// Methods
+	//
+
+	/**
+	 * Optimized version of <code>processInspectionResult</code> that avoids XML
+	 * serialization/deserialization.
+	 *
+	 * @return the processed inspection result, or null to cancel the inspection
+	 */
+
+	InspectionResultElement processInspectionResultAsTree( InspectionResultElement inspectionResult, M metawidget, Object toInspect, String type, String... names );
+}
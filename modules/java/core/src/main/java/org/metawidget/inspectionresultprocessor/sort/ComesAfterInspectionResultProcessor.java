@@ -19,24 +19,30 @@ package org.metawidget.inspectionresultprocessor.sort;
 import static org.metawidget.inspector.InspectionResultConstants.*;
 
 import java.util.Collections;
-import java.util.Iterator;
-import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentMap;
 
 import org.metawidget.inspectionresultprocessor.iface.InspectionResultProcessorException;
 import org.metawidget.inspectionresultprocessor.impl.BaseInspectionResultProcessor;
 import org.metawidget.util.ArrayUtils;
 import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.XmlUtils;
-import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.Node;
 
 /**
  * Sorts an inspection result by any <code>comes-after</code> attributes.
  * <p>
  * <code>comes-after</code> attributes can be added using the <code>UiComesAfter</code> annotation,
  * among other ways.
+ * <p>
+ * Sorting is a topological sort (Kahn's algorithm) performed in place. The resulting order is
+ * cached per entity type, and reused for as long as the names and <code>comes-after</code>s of
+ * that entity's traits stay the same.
  *
  * @author Richard Kennard
  */
@@ -44,6 +50,16 @@ import org.w3c.dom.Element;
 public class ComesAfterInspectionResultProcessor<M>
 	extends BaseInspectionResultProcessor<M> {
 
+	//
+	// Private members
+	//
+
+	/**
+	 * Cache of sort orders, keyed by entity type.
+	 */
+
+	private final ConcurrentMap<String, CachedOrder>	mOrderCache	= CollectionUtils.newConcurrentHashMap();
+
 	//
 	// Public methods
 	//
@@ -52,140 +68,74 @@ public class ComesAfterInspectionResultProcessor<M>
 	public Element processInspectionResultAsDom( Element inspectionResult, M metawidget, Object toInspect, String type, String... names ) {
 
 		try {
-			// Start a new document
-			//
-			// (Android 1.1 did not cope well with shuffling the nodes of an existing document)
-
-			Document newDocument = XmlUtils.newDocument();
-			Element newInspectionResult = newDocument.createElementNS( NAMESPACE, ROOT );
-			XmlUtils.setMapAsAttributes( newInspectionResult, XmlUtils.getAttributesAsMap( inspectionResult ) );
-			newDocument.appendChild( newInspectionResult );
+			// (the result only ever contains elements)
 
+			removeNonElements( inspectionResult );
 			Element entity = XmlUtils.getFirstChildElement( inspectionResult );
-			Element newEntity = newDocument.createElementNS( NAMESPACE, ENTITY );
-			XmlUtils.setMapAsAttributes( newEntity, XmlUtils.getAttributesAsMap( entity ) );
-			newInspectionResult.appendChild( newEntity );
-
-			// Record all traits (ie. properties/actions) that have comes-after
-
-			Map<Element, String[]> traitsWithComesAfter = new LinkedHashMap<Element, String[]>();
-			Element trait = XmlUtils.getFirstChildElement( entity );
-
-			while( trait != null ) {
-
-				// (if no comes-after, move them across to the new document)
-
-				if ( hasComesAfter( trait, metawidget ) ) {
-					traitsWithComesAfter.put( trait, ArrayUtils.fromString( getComesAfter( trait, metawidget ) ) );
-				} else {
-					newEntity.appendChild( XmlUtils.importElement( newDocument, trait ) );
-				}
-
-				trait = XmlUtils.getNextSiblingElement( trait );
-			}
-
-			// Next, sort the traits
-			//
-			// Note: this has high big-O complexity. We could plug-in something smarter for large
-			// numbers of traits.
-
-			int infiniteLoop = traitsWithComesAfter.size();
-			infiniteLoop *= infiniteLoop;
-
-			while ( !traitsWithComesAfter.isEmpty() ) {
-				// Infinite loop? Explain why
+			removeNonElements( entity );
 
-				infiniteLoop--;
+			// Record all traits (ie. properties/actions) and their comes-after (if any)
 
-				if ( infiniteLoop < 0 ) {
-					List<String> comesAfterNames = CollectionUtils.newArrayList();
+			List<Element> traits = CollectionUtils.newArrayList();
+			List<String> traitNames = CollectionUtils.newArrayList();
+			List<String[]> traitComesAfters = CollectionUtils.newArrayList();
+			StringBuilder signature = new StringBuilder();
+			boolean anyComesAfter = false;
 
-					for ( Map.Entry<Element, String[]> entry : traitsWithComesAfter.entrySet() ) {
+			Element trait = XmlUtils.getFirstChildElement( entity );
 
-						String value;
+			while ( trait != null ) {
 
-						if ( entry.getValue().length == 0 ) {
-							value = "at the end";
-						} else {
-							value = "after " + ArrayUtils.toString( entry.getValue(), " and " );
-						}
+				String name = trait.getAttribute( NAME );
+				String[] comesAfter = null;
 
-						comesAfterNames.add( entry.getKey().getAttribute( NAME ) + " comes " + value );
-					}
+				signature.append( name );
 
-					// (sort for unit tests)
+				if ( hasComesAfter( trait, metawidget ) ) {
+					String comesAfterValue = getComesAfter( trait, metawidget );
+					comesAfter = ArrayUtils.fromString( comesAfterValue );
+					anyComesAfter = true;
 
-					Collections.sort( comesAfterNames );
+					// (control characters cannot appear in XML attributes, so are safe separators)
 
-					throw InspectionResultProcessorException.newException( "Infinite loop detected when sorting " + COMES_AFTER + ": " + CollectionUtils.toString( comesAfterNames, ", but " ) );
+					signature.append( '\u0001' );
+					signature.append( comesAfterValue );
 				}
 
-				// For each entry in the Map...
-
-				outer: for ( Iterator<Map.Entry<Element, String[]>> i = traitsWithComesAfter.entrySet().iterator(); i.hasNext(); ) {
-					Map.Entry<Element, String[]> entry = i.next();
-					Element traitWithComesAfter = entry.getKey();
-					String[] comesAfter = entry.getValue();
-
-					// ...if it 'comesAfter everything', make sure there are only
-					// other 'comesAfter everything's left...
-
-					if ( comesAfter.length == 0 ) {
-						for ( String[] traitWithComesAfterExisting : traitsWithComesAfter.values() ) {
-							if ( traitWithComesAfterExisting.length > 0 ) {
-								continue outer;
-							}
-						}
-
-						newEntity.appendChild( XmlUtils.importElement( newDocument, traitWithComesAfter ) );
-					}
-
-					// ...or, if it 'comesAfter' something, make sure none of those
-					// somethings are left...
-
-					else {
-						String name = traitWithComesAfter.getAttribute( NAME );
+				signature.append( '\u0002' );
 
-						for ( String comeAfter : comesAfter ) {
-							if ( name.equals( comeAfter ) ) {
-								throw InspectionResultProcessorException.newException( "'" + comeAfter + "' " + COMES_AFTER + " itself" );
-							}
+				traits.add( trait );
+				traitNames.add( name );
+				traitComesAfters.add( comesAfter );
 
-							for ( Element traitExisting : traitsWithComesAfter.keySet() ) {
-								if ( comeAfter.equals( traitExisting.getAttribute( NAME ) ) ) {
-									continue outer;
-								}
-							}
-						}
-
-						// Insert it at the earliest point. This seems most 'natural'
+				trait = XmlUtils.getNextSiblingElement( trait );
+			}
 
-						Element newTrait = XmlUtils.getFirstChildElement( newEntity );
-						Element insertBefore = newTrait;
+			if ( !anyComesAfter ) {
+				return inspectionResult;
+			}
 
-						while( newTrait != null ) {
+			// Sort the traits (or reuse a previous sort)...
 
-							if ( ArrayUtils.contains( comesAfter, newTrait.getAttribute( NAME ) ) ) {
-								newTrait = XmlUtils.getNextSiblingElement( newTrait );
-								insertBefore = newTrait;
-								continue;
-							}
+			String entityType = entity.getAttribute( TYPE );
+			String signatureAsString = signature.toString();
+			CachedOrder cachedOrder = mOrderCache.get( entityType );
+			int[] order;
 
-							newTrait = XmlUtils.getNextSiblingElement( newTrait );
-						}
+			if ( cachedOrder != null && cachedOrder.mSignature.equals( signatureAsString ) ) {
+				order = cachedOrder.mOrder;
+			} else {
+				order = sort( traitNames, traitComesAfters );
+				mOrderCache.put( entityType, new CachedOrder( signatureAsString, order ) );
+			}
 
-						if ( insertBefore == null ) {
-							newEntity.appendChild( XmlUtils.importElement( newDocument, traitWithComesAfter ) );
-						} else {
-							newEntity.insertBefore( XmlUtils.importElement( newDocument, traitWithComesAfter ), insertBefore );
-						}
-					}
+			// ...and reorder them in place (appending an existing child moves it to the end)
 
-					i.remove();
-				}
+			for ( int index : order ) {
+				entity.appendChild( traits.get( index ) );
 			}
 
-			return newInspectionResult;
+			return inspectionResult;
 		} catch ( Exception e ) {
 			throw InspectionResultProcessorException.newException( e );
 		}
@@ -230,4 +180,288 @@ public class ComesAfterInspectionResultProcessor<M>
 
 		return element.getAttribute( COMES_AFTER );
 	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Topologically sort the given traits using Kahn's algorithm.
+	 * <p>
+	 * Traits without a comes-after keep their original order. Traits with a comes-after are then
+	 * inserted, once everything they come after has been inserted, at the earliest point after the
+	 * last of those. Traits that come 'at the end' (an empty comes-after) are inserted once all
+	 * other traits with a comes-after have been. Where more than one trait is ready to be inserted,
+	 * they are chosen in repeated sweeps through the original order.
+	 *
+	 * @param comesAfters
+	 *            the comes-after of each trait, or <code>null</code> if it has none
+	 * @return the sorted order, as indexes into the given traits
+	 */
+
+	private static int[] sort( List<String> names, List<String[]> comesAfters ) {
+
+		int size = names.size();
+		List<Integer> sorted = CollectionUtils.newArrayList();
+
+		// Lay out the traits that have no comes-after, and index those that do by name
+
+		Map<String, List<Integer>> traitsWithComesAfterByName = CollectionUtils.newHashMap();
+		int traitsWithComesAfter = 0;
+		int traitsNotAtTheEnd = 0;
+
+		for ( int loop = 0; loop < size; loop++ ) {
+
+			String[] comesAfter = comesAfters.get( loop );
+
+			if ( comesAfter == null ) {
+				sorted.add( loop );
+				continue;
+			}
+
+			traitsWithComesAfter++;
+
+			if ( comesAfter.length > 0 ) {
+				traitsNotAtTheEnd++;
+			}
+
+			String name = names.get( loop );
+			List<Integer> traitsWithName = traitsWithComesAfterByName.get( name );
+
+			if ( traitsWithName == null ) {
+				traitsWithName = CollectionUtils.newArrayList();
+				traitsWithComesAfterByName.put( name, traitsWithName );
+			}
+
+			traitsWithName.add( loop );
+		}
+
+		// Build the graph
+
+		int[] inDegree = new int[size];
+		boolean[] comesAfterItself = new boolean[size];
+		List<List<Integer>> dependents = CollectionUtils.newArrayList();
+		TreeSet<Integer> ready = new TreeSet<Integer>();
+
+		for ( int loop = 0; loop < size; loop++ ) {
+			dependents.add( null );
+		}
+
+		for ( int loop = 0; loop < size; loop++ ) {
+
+			String[] comesAfter = comesAfters.get( loop );
+
+			if ( comesAfter == null || comesAfter.length == 0 ) {
+				continue;
+			}
+
+			String name = names.get( loop );
+			Set<String> comesAfterNames = CollectionUtils.newHashSet();
+
+			for ( String comeAfter : comesAfter ) {
+
+				// (anything listed after itself is never reached)
+
+				if ( name.equals( comeAfter ) ) {
+					comesAfterItself[loop] = true;
+					break;
+				}
+
+				if ( !comesAfterNames.add( comeAfter ) ) {
+					continue;
+				}
+
+				List<Integer> traitsWithName = traitsWithComesAfterByName.get( comeAfter );
+
+				if ( traitsWithName == null ) {
+					continue;
+				}
+
+				for ( int dependency : traitsWithName ) {
+					List<Integer> dependentsOfDependency = dependents.get( dependency );
+
+					if ( dependentsOfDependency == null ) {
+						dependentsOfDependency = CollectionUtils.newArrayList();
+						dependents.set( dependency, dependentsOfDependency );
+					}
+
+					dependentsOfDependency.add( loop );
+					inDegree[loop]++;
+				}
+			}
+
+			if ( inDegree[loop] == 0 ) {
+				ready.add( loop );
+			}
+		}
+
+		if ( traitsNotAtTheEnd == 0 ) {
+			addTraitsAtTheEnd( comesAfters, ready );
+		}
+
+		// Sort
+
+		int cursor = 0;
+
+		for ( int placed = 0; placed < traitsWithComesAfter; placed++ ) {
+
+			// (continue the sweep from the cursor, or start a new sweep)
+
+			Integer next = null;
+			SortedSet<Integer> readyAfterCursor = ready.tailSet( cursor );
+
+			if ( !readyAfterCursor.isEmpty() ) {
+				next = readyAfterCursor.first();
+			} else if ( !ready.isEmpty() ) {
+				next = ready.first();
+			}
+
+			// Infinite loop? Explain why
+
+			if ( next == null ) {
+				List<String> comesAfterNames = CollectionUtils.newArrayList();
+				Set<Integer> placedTraits = CollectionUtils.newHashSet( sorted );
+
+				for ( int loop = 0; loop < size; loop++ ) {
+
+					String[] comesAfter = comesAfters.get( loop );
+
+					if ( comesAfter == null || placedTraits.contains( loop ) ) {
+						continue;
+					}
+
+					String value;
+
+					if ( comesAfter.length == 0 ) {
+						value = "at the end";
+					} else {
+						value = "after " + ArrayUtils.toString( comesAfter, " and " );
+					}
+
+					comesAfterNames.add( names.get( loop ) + " comes " + value );
+				}
+
+				// (sort for unit tests)
+
+				Collections.sort( comesAfterNames );
+
+				throw InspectionResultProcessorException.newException( "Infinite loop detected when sorting " + COMES_AFTER + ": " + CollectionUtils.toString( comesAfterNames, ", but " ) );
+			}
+
+			ready.remove( next );
+			cursor = next + 1;
+
+			if ( comesAfterItself[next] ) {
+				throw InspectionResultProcessorException.newException( "'" + names.get( next ) + "' " + COMES_AFTER + " itself" );
+			}
+
+			// If it 'comesAfter everything', put it at the end...
+
+			String[] comesAfter = comesAfters.get( next );
+
+			if ( comesAfter.length == 0 ) {
+				sorted.add( next );
+			}
+
+			// ...otherwise insert it at the earliest point after everything it comes after. This
+			// seems most 'natural'
+
+			else {
+				int insertAt = 0;
+
+				for ( int loop = sorted.size() - 1; loop >= 0; loop-- ) {
+					if ( ArrayUtils.contains( comesAfter, names.get( sorted.get( loop ) ) ) ) {
+						insertAt = loop + 1;
+						break;
+					}
+				}
+
+				sorted.add( insertAt, next );
+
+				traitsNotAtTheEnd--;
+
+				if ( traitsNotAtTheEnd == 0 ) {
+					addTraitsAtTheEnd( comesAfters, ready );
+				}
+			}
+
+			// Anything waiting on this trait may now be ready
+
+			List<Integer> dependentsOfNext = dependents.get( next );
+
+			if ( dependentsOfNext != null ) {
+				for ( int dependent : dependentsOfNext ) {
+					inDegree[dependent]--;
+
+					if ( inDegree[dependent] == 0 ) {
+						ready.add( dependent );
+					}
+				}
+			}
+		}
+
+		int[] order = new int[size];
+
+		for ( int loop = 0; loop < size; loop++ ) {
+			order[loop] = sorted.get( loop );
+		}
+
+		return order;
+	}
+
+	private static void addTraitsAtTheEnd( List<String[]> comesAfters, Set<Integer> ready ) {
+
+		for ( int loop = 0, size = comesAfters.size(); loop < size; loop++ ) {
+
+			String[] comesAfter = comesAfters.get( loop );
+
+			if ( comesAfter != null && comesAfter.length == 0 ) {
+				ready.add( loop );
+			}
+		}
+	}
+
+	private static void removeNonElements( Element element ) {
+
+		Node node = element.getFirstChild();
+
+		while ( node != null ) {
+			Node nextSibling = node.getNextSibling();
+
+			if ( !( node instanceof Element ) ) {
+				element.removeChild( node );
+			}
+
+			node = nextSibling;
+		}
+	}
+
+	//
+	// Inner class
+	//
+
+	/**
+	 * A sort order, and the signature of the traits it was computed from.
+	 */
+
+	private static class CachedOrder {
+
+		//
+		// Package private members
+		//
+
+		/* package private */final String	mSignature;
+
+		/* package private */final int[]	mOrder;
+
+		//
+		// Constructor
+		//
+
+		public CachedOrder( String signature, int[] order ) {
+
+			mSignature = signature;
+			mOrder = order;
+		}
+	}
 }
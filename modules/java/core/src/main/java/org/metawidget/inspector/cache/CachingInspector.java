@@ -0,0 +1,301 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.inspector.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.metawidget.inspector.iface.DomInspector;
+import org.metawidget.inspector.iface.Inspector;
+import org.metawidget.inspector.iface.InspectorException;
+import org.metawidget.inspector.iface.ValueDependentInspector;
+import org.metawidget.util.ArrayUtils;
+import org.metawidget.util.XmlUtils;
+import org.metawidget.util.simple.StringUtils;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+/**
+ * Caches the inspection results of another Inspector (typically a <code>CompositeInspector</code>
+ * ).
+ * <p>
+ * Inspection results are cached by the class of <code>toInspect</code>, the type and the names.
+ * Inspection results that <code>ValueDependentInspector.isValueDependent</code> are never cached.
+ * The cache is bounded by <code>CachingInspectorConfig.setMaximumSize</code> (evicting the least
+ * recently used inspection result) and optionally by <code>CachingInspectorConfig.setTimeToLive</code>.
+ * <p>
+ * Because it is just another Inspector, <code>CachingInspector</code> can be configured in
+ * <code>metawidget.xml</code> and works with any Metawidget:
+ * <p>
+ * <code>
+ * &lt;inspector&gt;<br/>
+ * &nbsp;&nbsp;&lt;cachingInspector xmlns="java:org.metawidget.inspector.cache" config="CachingInspectorConfig"&gt;<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;inspector&gt;<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&nbsp;&lt;compositeInspector ...&gt;<br/>
+ * &nbsp;&nbsp;&nbsp;&nbsp;&lt;/inspector&gt;<br/>
+ * &nbsp;&nbsp;&lt;/cachingInspector&gt;<br/>
+ * &lt;/inspector&gt;
+ * </code>
+ * <p>
+ * Note: only the inspection result is cached. <code>InspectionResultProcessor</code>s are still run
+ * on every inspection, because they are frequently dependent on the state of the Metawidget (eg.
+ * evaluating EL expressions).
+ *
+ * @author Richard Kennard
+ */
+
+public class CachingInspector
+	implements DomInspector<Element>, ValueDependentInspector {
+
+	//
+	// Private members
+	//
+
+	private final Inspector										mInspector;
+
+	private final int											mTimeToLive;
+
+	/**
+	 * Cache of inspection results.
+	 * <p>
+	 * Guarded by <code>synchronized( mCache )</code>. Each cached Element is additionally guarded
+	 * by its own monitor, because even read-only access to a DOM is not thread-safe.
+	 */
+
+	/* package private */final Map<String, CachedInspectionResult>	mCache;
+
+	//
+	// Constructor
+	//
+
+	public CachingInspector( CachingInspectorConfig config ) {
+
+		mInspector = config.getInspector();
+
+		if ( mInspector == null ) {
+			throw InspectorException.newException( "CachingInspector needs an Inspector" );
+		}
+
+		final int maximumSize = config.getMaximumSize();
+
+		if ( maximumSize <= 0 ) {
+			throw InspectorException.newException( "CachingInspector needs a maximumSize greater than 0" );
+		}
+
+		mTimeToLive = config.getTimeToLive();
+
+		// Access-ordered LinkedHashMap gives LRU eviction
+
+		mCache = new LinkedHashMap<String, CachedInspectionResult>( 16, 0.75f, true ) {
+
+			@Override
+			protected boolean removeEldestEntry( Map.Entry<String, CachedInspectionResult> eldest ) {
+
+				return size() > maximumSize;
+			}
+		};
+	}
+
+	//
+	// Public methods
+	//
+
+	/**
+	 * This method is marked <code>final</code> because most Metawidget implementations will call
+	 * <code>inspectAsDom</code> directly instead.
+	 */
+
+	public final String inspect( Object toInspect, String type, String... names ) {
+
+		Element element = inspectAsDom( toInspect, type, names );
+
+		if ( element == null ) {
+			return null;
+		}
+
+		return XmlUtils.nodeToString( element, false );
+	}
+
+	public Element inspectAsDom( Object toInspect, String type, String... names ) {
+
+		// Value-dependent inspection results cannot be cached
+
+		if ( isValueDependent( toInspect, type, names ) ) {
+			return runInspector( toInspect, type, names );
+		}
+
+		// Cached?
+
+		String key = getCacheKey( toInspect, type, names );
+		CachedInspectionResult cachedInspectionResult;
+
+		synchronized ( mCache ) {
+			cachedInspectionResult = mCache.get( key );
+
+			if ( cachedInspectionResult != null && cachedInspectionResult.isExpired( mTimeToLive ) ) {
+				mCache.remove( key );
+				cachedInspectionResult = null;
+			}
+		}
+
+		if ( cachedInspectionResult != null ) {
+			return cachedInspectionResult.copyInspectionResult();
+		}
+
+		// Inspect, and cache a copy (callers are free to modify the Element we return)
+
+		Element inspectionResult = runInspector( toInspect, type, names );
+
+		if ( inspectionResult == null ) {
+			return null;
+		}
+
+		cachedInspectionResult = new CachedInspectionResult( copyElement( inspectionResult ) );
+
+		synchronized ( mCache ) {
+			mCache.put( key, cachedInspectionResult );
+		}
+
+		return inspectionResult;
+	}
+
+	public boolean isValueDependent( Object toInspect, String type, String... names ) {
+
+		if ( mInspector instanceof ValueDependentInspector ) {
+			return ( (ValueDependentInspector) mInspector ).isValueDependent( toInspect, type, names );
+		}
+
+		return false;
+	}
+
+	/**
+	 * SPI for tools such as <a href="http://code.google.com/p/fakereplace">FakeReplace</a> that
+	 * need to clear the cache.
+	 */
+
+	public void clearCache() {
+
+		synchronized ( mCache ) {
+			mCache.clear();
+		}
+	}
+
+	//
+	// Protected methods
+	//
+
+	/**
+	 * Computes the cache key for the given inspection.
+	 * <p>
+	 * Uses the class <em>name</em> of <code>toInspect</code>, rather than the class itself, so
+	 * that the cache does not pin ClassLoaders under hot deployment.
+	 */
+
+	protected String getCacheKey( Object toInspect, String type, String... names ) {
+
+		StringBuilder builder = new StringBuilder();
+
+		if ( toInspect != null ) {
+			builder.append( toInspect.getClass().getName() );
+		}
+
+		builder.append( StringUtils.SEPARATOR_COMMA_CHAR );
+		builder.append( type );
+		builder.append( ArrayUtils.toString( names, StringUtils.SEPARATOR_FORWARD_SLASH, true, false ) );
+
+		return builder.toString();
+	}
+
+	//
+	// Private methods
+	//
+
+	private Element runInspector( Object toInspect, String type, String... names ) {
+
+		if ( mInspector instanceof DomInspector<?> ) {
+
+			@SuppressWarnings( "unchecked" )
+			DomInspector<Element> domInspector = (DomInspector<Element>) mInspector;
+			return domInspector.inspectAsDom( toInspect, type, names );
+		}
+
+		String xml = mInspector.inspect( toInspect, type, names );
+
+		if ( xml == null ) {
+			return null;
+		}
+
+		return XmlUtils.documentFromString( xml ).getDocumentElement();
+	}
+
+	/* package private */static Element copyElement( Element element ) {
+
+		Document document = XmlUtils.newDocument();
+		Element copy = (Element) document.importNode( element, true );
+		document.appendChild( copy );
+
+		return copy;
+	}
+
+	//
+	// Inner class
+	//
+
+	/* package private */static class CachedInspectionResult {
+
+		//
+		// Private members
+		//
+
+		private final Element	mInspectionResult;
+
+		private final long		mCreated	= System.currentTimeMillis();
+
+		//
+		// Constructor
+		//
+
+		public CachedInspectionResult( Element inspectionResult ) {
+
+			mInspectionResult = inspectionResult;
+		}
+
+		//
+		// Public methods
+		//
+
+		public boolean isExpired( int timeToLive ) {
+
+			if ( timeToLive <= 0 ) {
+				return false;
+			}
+
+			return ( System.currentTimeMillis() - mCreated > timeToLive );
+		}
+
+		/**
+		 * Returns a copy of the cached inspection result.
+		 * <p>
+		 * Synchronized because even read-only access to a shared DOM is not thread-safe.
+		 */
+
+		public synchronized Element copyInspectionResult() {
+
+			return copyElement( mInspectionResult );
+		}
+	}
+}
@@ -0,0 +1,148 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.inspector.cache;
+
+import org.metawidget.inspector.iface.Inspector;
+import org.metawidget.util.simple.ObjectUtils;
+
+/**
+ * Configures a CachingInspector prior to use. Once instantiated, Inspectors are immutable.
+ *
+ * @author Richard Kennard
+ */
+
+public class CachingInspectorConfig {
+
+	//
+	// Private statics
+	//
+
+	private static final int	DEFAULT_MAXIMUM_SIZE	= 1000;
+
+	//
+	// Private members
+	//
+
+	private Inspector			mInspector;
+
+	private int					mMaximumSize			= DEFAULT_MAXIMUM_SIZE;
+
+	private int					mTimeToLive;
+
+	//
+	// Public methods
+	//
+
+	/**
+	 * Sets the Inspector whose inspection results will be cached. Typically this is a
+	 * <code>CompositeInspector</code>.
+	 *
+	 * @return this, as part of a fluent interface
+	 */
+
+	public CachingInspectorConfig setInspector( Inspector inspector ) {
+
+		mInspector = inspector;
+
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of inspection results to cache. When full, the least recently used
+	 * inspection result is evicted.
+	 *
+	 * @return this, as part of a fluent interface
+	 */
+
+	public CachingInspectorConfig setMaximumSize( int maximumSize ) {
+
+		mMaximumSize = maximumSize;
+
+		return this;
+	}
+
+	/**
+	 * Sets the time, in milliseconds, after which a cached inspection result is discarded and
+	 * re-inspected. Useful if the underlying metadata can change at runtime. Defaults to 0 (never
+	 * expire).
+	 *
+	 * @return this, as part of a fluent interface
+	 */
+
+	public CachingInspectorConfig setTimeToLive( int timeToLive ) {
+
+		mTimeToLive = timeToLive;
+
+		return this;
+	}
+
+	@Override
+	public boolean equals( Object that ) {
+
+		if ( this == that ) {
+			return true;
+		}
+
+		if ( !ObjectUtils.nullSafeClassEquals( this, that ) ) {
+			return false;
+		}
+
+		if ( !ObjectUtils.nullSafeEquals( mInspector, ( (CachingInspectorConfig) that ).mInspector ) ) {
+			return false;
+		}
+
+		if ( mMaximumSize != ( (CachingInspectorConfig) that ).mMaximumSize ) {
+			return false;
+		}
+
+		if ( mTimeToLive != ( (CachingInspectorConfig) that ).mTimeToLive ) {
+			return false;
+		}
+
+		return true;
+	}
+
+	@Override
+	public int hashCode() {
+
+		int hashCode = 1;
+		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mInspector );
+		hashCode = 31 * hashCode + mMaximumSize;
+		hashCode = 31 * hashCode + mTimeToLive;
+
+		return hashCode;
+	}
+
+	//
+	// Protected methods
+	//
+
+	protected Inspector getInspector() {
+
+		return mInspector;
+	}
+
+	protected int getMaximumSize() {
+
+		return mMaximumSize;
+	}
+
+	protected int getTimeToLive() {
+
+		return mTimeToLive;
+	}
+}
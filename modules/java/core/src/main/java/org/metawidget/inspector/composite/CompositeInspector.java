@@ -18,10 +18,23 @@ package org.metawidget.inspector.composite;
 
 import static org.metawidget.inspector.InspectionResultConstants.*;
 
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+import org.metawidget.inspectionresult.InspectionResultElement;
+import org.metawidget.inspector.cache.CachingInspector;
+import org.metawidget.inspector.cache.CachingInspectorConfig;
 import org.metawidget.inspector.iface.DomInspector;
+import org.metawidget.inspector.iface.IncrementalInspector;
 import org.metawidget.inspector.iface.Inspector;
 import org.metawidget.inspector.iface.InspectorException;
+import org.metawidget.inspector.iface.TreeInspector;
+import org.metawidget.inspector.iface.ValueDependentInspector;
 import org.metawidget.util.ArrayUtils;
+import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.LogUtils;
 import org.metawidget.util.LogUtils.Log;
 import org.metawidget.util.XmlUtils;
@@ -45,13 +58,22 @@ import org.w3c.dom.Element;
  * CompositeInspector is that developers can replace it with their own version, with its own
  * combining algorithm, if required.
  * <p>
+ * If <code>CompositeInspectorConfig.setCacheValueIndependentInspectors</code> is set, the results of
+ * those sub-inspectors that are not <code>ValueDependentInspector.isValueDependent</code> are cached
+ * (and returned as copies) so that only the value-dependent sub-inspectors are re-run on each
+ * inspection.
+ * <p>
+ * If <code>CompositeInspectorConfig.setExecutor</code> is set, the sub-inspectors are run in
+ * parallel. Their results are still combined in their original order, so the combined result is
+ * deterministic. Either way, the time taken by each sub-inspector is logged at debug level.
+ * <p>
  * Note: the name <em>Composite</em>Inspector refers to the Composite design pattern.
  *
  * @author Richard Kennard
  */
 
 public class CompositeInspector
-	implements DomInspector<Element> {
+	implements DomInspector<Element>, ValueDependentInspector, IncrementalInspector {
 
 	//
 	// Private statics
@@ -65,6 +87,15 @@ public class CompositeInspector
 
 	/* package private */final Inspector[]	mInspectors;
 
+	/**
+	 * Per-Inspector caches, in the same order as <code>mInspectors</code>, or <code>null</code> if
+	 * caching is not enabled.
+	 */
+
+	private final CachingInspector[]		mInspectorCaches;
+
+	private final Executor					mExecutor;
+
 	//
 	// Constructor
 	//
@@ -95,6 +126,20 @@ public class CompositeInspector
 
 			mInspectors[loop] = inspector;
 		}
+
+		// Caches
+
+		if ( config.isCacheValueIndependentInspectors() ) {
+			mInspectorCaches = new CachingInspector[mInspectors.length];
+
+			for ( int loop = 0, length = mInspectors.length; loop < length; loop++ ) {
+				mInspectorCaches[loop] = new CachingInspector( new CachingInspectorConfig().setInspector( new SubInspector( mInspectors[loop] ) ) );
+			}
+		} else {
+			mInspectorCaches = null;
+		}
+
+		mExecutor = config.getExecutor();
 	}
 
 	//
@@ -196,6 +241,56 @@ public class CompositeInspector
 		}
 	}
 
+	/**
+	 * The combined inspection result is value-dependent if any of the sub-Inspectors are.
+	 */
+
+	public boolean isValueDependent( Object toInspect, String type, String... names ) {
+
+		for ( Inspector inspector : mInspectors ) {
+			if ( inspector instanceof ValueDependentInspector && ( (ValueDependentInspector) inspector ).isValueDependent( toInspect, type, names ) ) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * The combined inspection result is incremental only if all of the sub-Inspectors are, and they
+	 * all share the same traversal style. Otherwise they may not agree on the result of
+	 * <code>traverse</code>.
+	 */
+
+	public boolean isIncremental() {
+
+		for ( Inspector inspector : mInspectors ) {
+			if ( !( inspector instanceof IncrementalInspector ) || !( (IncrementalInspector) inspector ).isIncremental() ) {
+				return false;
+			}
+
+			if ( ( (IncrementalInspector) inspector ).getTraversalStyle() != getTraversalStyle() ) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	public Object traverse( Object toInspect, String type, String name ) {
+
+		return ( (IncrementalInspector) mInspectors[0] ).traverse( toInspect, type, name );
+	}
+
+	public Object getTraversalStyle() {
+
+		if ( !( mInspectors[0] instanceof IncrementalInspector ) ) {
+			return null;
+		}
+
+		return ( (IncrementalInspector) mInspectors[0] ).getTraversalStyle();
+	}
+
 	//
 	// Protected methods
 	//
@@ -209,15 +304,19 @@ public class CompositeInspector
 	protected Document runInspectors( Document masterDocument, Object toInspect, String type, String... names )
 		throws Exception {
 
+		if ( mExecutor != null && mInspectors.length > 1 ) {
+			return runInspectorsInParallel( masterDocument, toInspect, type, names );
+		}
+
 		Document masterDocumentToUse = masterDocument;
 
 		// Run each Inspector...
 
-		for ( Inspector inspector : mInspectors ) {
+		for ( int loop = 0, length = mInspectors.length; loop < length; loop++ ) {
 
 			// ...parse the result...
 
-			Document inspectionDocument = runInspector( inspector, toInspect, type, names );
+			Document inspectionDocument = runSubInspector( loop, toInspect, type, names );
 
 			// ...combine them...
 
@@ -229,6 +328,54 @@ public class CompositeInspector
 		return masterDocumentToUse;
 	}
 
+	/**
+	 * Run the sub-Inspectors on <code>setExecutor</code>, then combine the results in their original
+	 * order.
+	 * <p>
+	 * The first sub-Inspector is run on the calling thread, which saves a thread hand-off. Any
+	 * sub-Inspectors the Executor has not yet started by the time we need their result are also
+	 * run on the calling thread. This avoids deadlock if the Executor is saturated, for example by
+	 * nested CompositeInspectors sharing a bounded thread pool.
+	 */
+
+	protected Document runInspectorsInParallel( Document masterDocument, Object toInspect, String type, String... names )
+		throws Exception {
+
+		int length = mInspectors.length;
+		List<FutureTask<Document>> futures = CollectionUtils.newArrayList();
+
+		try {
+			// Fan out...
+
+			for ( int loop = 1; loop < length; loop++ ) {
+				FutureTask<Document> future = new FutureTask<Document>( new SubInspectorCallable( loop, toInspect, type, names ) );
+				futures.add( future );
+				mExecutor.execute( future );
+			}
+
+			Document masterDocumentToUse = combineInspectionResult( masterDocument, runSubInspector( 0, toInspect, type, names ) );
+
+			// ...and combine in order
+
+			for ( FutureTask<Document> future : futures ) {
+
+				// (FutureTask.run does nothing if the Executor has already started the task)
+
+				future.run();
+				masterDocumentToUse = combineInspectionResult( masterDocumentToUse, getInspectionDocument( future ) );
+			}
+
+			return masterDocumentToUse;
+		} finally {
+
+			// If anything failed, don't leave the rest running
+
+			for ( FutureTask<Document> future : futures ) {
+				future.cancel( true );
+			}
+		}
+	}
+
 	protected Document runInspector( Inspector inspector, Object toInspect, String type, String... names )
 		throws Exception {
 
@@ -252,6 +399,26 @@ public class CompositeInspector
 			return element.getOwnerDocument();
 		}
 
+		// ...or TreeInspector (converted straight to a DOM, without going through a String)...
+
+		if ( inspector instanceof TreeInspector ) {
+
+			InspectionResultElement inspectionResult = ( (TreeInspector) inspector ).inspectAsTree( toInspect, type, names );
+
+			if ( inspectionResult == null ) {
+				return null;
+			}
+
+			Document document = XmlUtils.documentFromInspectionResult( inspectionResult );
+
+			if ( LOG.isTraceEnabled() ) {
+				String xml = XmlUtils.documentToString( document, true );
+				LOG.trace( "{0} inspected {1}{2}\r\n{3}", inspector.getClass(), type, ArrayUtils.toString( names, StringUtils.SEPARATOR_FORWARD_SLASH, true, false ), xml );
+			}
+
+			return document;
+		}
+
 		// ...or just regular Inspector
 
 		String xml = inspector.inspect( toInspect, type, names );
@@ -281,4 +448,191 @@ public class CompositeInspector
 		XmlUtils.combineElements( masterDocument.getDocumentElement(), inspectionDocument.getDocumentElement(), TYPE, NAME );
 		return masterDocument;
 	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Run the sub-Inspector at the given index (or fetch its result from cache), logging how long it
+	 * took.
+	 */
+
+	private Document runSubInspector( int index, Object toInspect, String type, String... names )
+		throws Exception {
+
+		long start = 0;
+		boolean debug = LOG.isDebugEnabled();
+
+		if ( debug ) {
+			start = System.nanoTime();
+		}
+
+		Document inspectionDocument;
+
+		if ( mInspectorCaches == null ) {
+			inspectionDocument = runInspector( mInspectors[index], toInspect, type, names );
+		} else {
+			Element element = mInspectorCaches[index].inspectAsDom( toInspect, type, names );
+
+			if ( element == null ) {
+				inspectionDocument = null;
+			} else {
+				inspectionDocument = element.getOwnerDocument();
+			}
+		}
+
+		if ( debug ) {
+			LOG.debug( "{0} took {1} microseconds to inspect {2}{3}", mInspectors[index].getClass(), String.valueOf( ( System.nanoTime() - start ) / 1000 ), type, ArrayUtils.toString( names, StringUtils.SEPARATOR_FORWARD_SLASH, true, false ) );
+		}
+
+		return inspectionDocument;
+	}
+
+	private Document getInspectionDocument( FutureTask<Document> future )
+		throws Exception {
+
+		try {
+			return future.get();
+		} catch ( ExecutionException e ) {
+			Throwable cause = e.getCause();
+
+			if ( cause instanceof Exception ) {
+				throw (Exception) cause;
+			}
+
+			if ( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+
+			throw e;
+		}
+	}
+
+	//
+	// Inner class
+	//
+
+	/**
+	 * Runs a sub-Inspector on another thread.
+	 */
+
+	private class SubInspectorCallable
+		implements Callable<Document> {
+
+		//
+		// Private members
+		//
+
+		private final int			mIndex;
+
+		private final Object		mToInspect;
+
+		private final String		mType;
+
+		private final String[]		mNames;
+
+		/**
+		 * Context ClassLoader of the calling thread. Inspectors frequently use it to load classes
+		 * (eg. in application servers, where each application has its own), so the sub-Inspector
+		 * must see the same one regardless of which Executor thread it runs on.
+		 */
+
+		private final ClassLoader	mContextClassLoader;
+
+		//
+		// Constructor
+		//
+
+		public SubInspectorCallable( int index, Object toInspect, String type, String... names ) {
+
+			mIndex = index;
+			mToInspect = toInspect;
+			mType = type;
+			mNames = names;
+			mContextClassLoader = Thread.currentThread().getContextClassLoader();
+		}
+
+		//
+		// Public methods
+		//
+
+		public Document call()
+			throws Exception {
+
+			Thread thread = Thread.currentThread();
+			ClassLoader contextClassLoader = thread.getContextClassLoader();
+			thread.setContextClassLoader( mContextClassLoader );
+
+			try {
+				return runSubInspector( mIndex, mToInspect, mType, mNames );
+			} finally {
+				thread.setContextClassLoader( contextClassLoader );
+			}
+		}
+	}
+
+	/**
+	 * Adapts a sub-Inspector so that it can sit behind a <code>CachingInspector</code>, whilst still
+	 * being run through <code>runInspector</code> (so that subclasses, such as
+	 * <code>ValidatingCompositeInspector</code>, continue to see every uncached result).
+	 */
+
+	private class SubInspector
+		implements DomInspector<Element>, ValueDependentInspector {
+
+		//
+		// Private members
+		//
+
+		private final Inspector	mInspector;
+
+		//
+		// Constructor
+		//
+
+		public SubInspector( Inspector inspector ) {
+
+			mInspector = inspector;
+		}
+
+		//
+		// Public methods
+		//
+
+		public String inspect( Object toInspect, String type, String... names ) {
+
+			Element element = inspectAsDom( toInspect, type, names );
+
+			if ( element == null ) {
+				return null;
+			}
+
+			return XmlUtils.nodeToString( element, false );
+		}
+
+		public Element inspectAsDom( Object toInspect, String type, String... names ) {
+
+			try {
+				Document document = runInspector( mInspector, toInspect, type, names );
+
+				if ( document == null ) {
+					return null;
+				}
+
+				return document.getDocumentElement();
+			} catch ( Exception e ) {
+				throw InspectorException.newException( e );
+			}
+		}
+
+		public boolean isValueDependent( Object toInspect, String type, String... names ) {
+
+			if ( mInspector instanceof ValueDependentInspector ) {
+				return ( (ValueDependentInspector) mInspector ).isValueDependent( toInspect, type, names );
+			}
+
+			return false;
+		}
+	}
 }
@@ -16,6 +16,8 @@
 
 package org.metawidget.inspector.composite;
 
+import java.util.concurrent.Executor;
+
 import org.metawidget.inspector.iface.Inspector;
 import org.metawidget.util.simple.ObjectUtils;
 
@@ -33,6 +35,10 @@ public class CompositeInspectorConfig {
 
 	private Inspector[]	mInspectors;
 
+	private boolean		mCacheValueIndependentInspectors;
+
+	private Executor	mExecutor;
+
 	//
 	// Public methods
 	//
@@ -53,6 +59,42 @@ public class CompositeInspectorConfig {
 		return this;
 	}
 
+	/**
+	 * Sets whether to cache the inspection results of those sub-Inspectors that are not
+	 * <code>ValueDependentInspector.isValueDependent</code>, so that only the value-dependent ones
+	 * are re-run on every inspection.
+	 * <p>
+	 * Sub-Inspectors that do not implement <code>ValueDependentInspector</code> are assumed to be
+	 * value-independent, so this is <code>false</code> by default.
+	 *
+	 * @return this, as part of a fluent interface
+	 */
+
+	public CompositeInspectorConfig setCacheValueIndependentInspectors( boolean cacheValueIndependentInspectors ) {
+
+		mCacheValueIndependentInspectors = cacheValueIndependentInspectors;
+
+		return this;
+	}
+
+	/**
+	 * Sets an Executor on which to run the sub-Inspectors in parallel.
+	 * <p>
+	 * The first sub-Inspector is always run on the calling thread, and the results are always
+	 * combined in the original order, so the combined inspection result is the same as if the
+	 * sub-Inspectors had run sequentially. If no Executor is set (the default) the sub-Inspectors
+	 * are run sequentially.
+	 *
+	 * @return this, as part of a fluent interface
+	 */
+
+	public CompositeInspectorConfig setExecutor( Executor executor ) {
+
+		mExecutor = executor;
+
+		return this;
+	}
+
 	@Override
 	public boolean equals( Object that ) {
 
@@ -68,13 +110,26 @@ public class CompositeInspectorConfig {
 			return false;
 		}
 
+		if ( mCacheValueIndependentInspectors != ( (CompositeInspectorConfig) that ).mCacheValueIndependentInspectors ) {
+			return false;
+		}
+
+		if ( !ObjectUtils.nullSafeEquals( mExecutor, ( (CompositeInspectorConfig) that ).mExecutor ) ) {
+			return false;
+		}
+
 		return true;
 	}
 
 	@Override
 	public int hashCode() {
 
-		return ObjectUtils.nullSafeHashCode( mInspectors );
+		int hashCode = 1;
+		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mInspectors );
+		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mCacheValueIndependentInspectors );
+		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mExecutor );
+
+		return hashCode;
 	}
 
 	//
@@ -85,4 +140,14 @@ public class CompositeInspectorConfig {
 
 		return mInspectors;
 	}
+
+	protected boolean isCacheValueIndependentInspectors() {
+
+		return mCacheValueIndependentInspectors;
+	}
+
+	protected Executor getExecutor() {
+
+		return mExecutor;
+	}
 }
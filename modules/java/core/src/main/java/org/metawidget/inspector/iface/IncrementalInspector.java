@@ -0,0 +1,64 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.inspector.iface;
+
+/**
+ * Optional interface for Inspectors whose inspection result for a path depends only on the runtime
+ * object graph found along it.
+ * <p>
+ * For such Inspectors, inspecting <code>toInspect</code> with names <code>a, b, c</code> gives the
+ * same result as inspecting the value found at <code>a/b</code> with just the name <code>c</code>.
+ * Nested Metawidgets use this to start from the value their parent found, rather than
+ * re-traversing the object graph from the root at every level (see <code>W3CPipeline</code>).
+ * <p>
+ * Inspectors that look up the path itself (for example <code>XmlInspector</code>, which looks up
+ * types and names in an XML file) are not incremental. Inspectors that do not implement this
+ * interface are assumed not to be.
+ *
+ * @author Richard Kennard
+ */
+
+public interface IncrementalInspector
+	extends Inspector {
+
+	//
+	// Methods
+	//
+
+	/**
+	 * Whether this Inspector can currently be inspected incrementally.
+	 */
+
+	boolean isIncremental();
+
+	/**
+	 * Traverses one step along the object graph.
+	 *
+	 * @return the value of the given property of the given <code>toInspect</code>, or null if it
+	 *         has no such (readable) property
+	 */
+
+	Object traverse( Object toInspect, String type, String name );
+
+	/**
+	 * The style <code>traverse</code> delegates to, such as a <code>PropertyStyle</code>.
+	 * IncrementalInspectors that return the same style are guaranteed to <code>traverse</code> to
+	 * the same values, and so can be combined (see <code>CompositeInspector</code>).
+	 */
+
+	Object getTraversalStyle();
+}
@@ -0,0 +1,51 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.inspector.iface;
+
+import org.metawidget.inspectionresult.InspectionResultElement;
+
+/**
+ * Inspects the given Object and type and returns the result as an
+ * <code>InspectionResultElement</code>.
+ * <p>
+ * <code>TreeInspector</code> is an <em>optional</em> interface that enables an optimization, much
+ * like <code>DomInspector</code>. But where <code>DomInspector</code> exposes a mutable DOM,
+ * <code>TreeInspector</code> exposes an immutable, array-backed tree. This is cheaper to build, and
+ * can be passed to <code>TreeInspectionResultProcessor</code>s without being serialized,
+ * deserialized or defensively copied.
+ * <p>
+ * Pipelines and <code>CompositeInspector</code> that work with DOMs convert the tree to a DOM only
+ * at their boundary.
+ *
+ * @author Richard Kennard
+ */
+
+public interface TreeInspector
+	extends Inspector {
+
+	//
+	// Methods
+	//
+
+	/**
+	 * Optimized version of <code>inspect</code> that avoids XML serialization/deserialization.
+	 *
+	 * @return the root of the inspection result, or null if nothing was inspected
+	 */
+
+	InspectionResultElement inspectAsTree( Object toInspect, String type, String... names );
+}
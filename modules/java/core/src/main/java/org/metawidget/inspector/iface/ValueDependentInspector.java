@@ -0,0 +1,47 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.inspector.iface;
+
+/**
+ * Optional interface for Inspectors whose inspection result may depend on the runtime value of
+ * <code>toInspect</code>, not just on its class, type and names.
+ * <p>
+ * Most Inspectors only look at types: annotations, XML files, mapping files and so on. Their
+ * inspection result for a given class of <code>toInspect</code>, type and names never changes, and
+ * so can safely be cached (see <code>CachingInspector</code>). Inspectors that read property
+ * values (for example, to determine the actual class of a polymorphic property, or to traverse an
+ * object graph) should implement this interface so that such caches know to skip them.
+ * <p>
+ * Inspectors that do not implement this interface are assumed to be value-independent.
+ *
+ * @author Richard Kennard
+ */
+
+public interface ValueDependentInspector
+	extends Inspector {
+
+	//
+	// Methods
+	//
+
+	/**
+	 * Whether the inspection result for the given type and names may differ between the given
+	 * <code>toInspect</code> and another <code>toInspect</code> of the same class.
+	 */
+
+	boolean isValueDependent( Object toInspect, String type, String... names );
+}
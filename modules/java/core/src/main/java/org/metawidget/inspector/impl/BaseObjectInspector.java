@@ -20,17 +20,24 @@ import static org.metawidget.inspector.InspectionResultConstants.*;
 
 import java.lang.reflect.Modifier;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import org.metawidget.inspector.iface.DomInspector;
+import org.metawidget.inspector.iface.IncrementalInspector;
 import org.metawidget.inspector.iface.InspectorException;
+import org.metawidget.inspector.iface.ValueDependentInspector;
 import org.metawidget.inspector.impl.actionstyle.Action;
 import org.metawidget.inspector.impl.actionstyle.ActionStyle;
+import org.metawidget.inspector.impl.actionstyle.BaseActionStyle;
+import org.metawidget.inspector.impl.propertystyle.BasePropertyStyle;
 import org.metawidget.inspector.impl.propertystyle.Property;
 import org.metawidget.inspector.impl.propertystyle.PropertyStyle;
 import org.metawidget.inspector.impl.propertystyle.ValueAndDeclaredType;
 import org.metawidget.util.ArrayUtils;
 import org.metawidget.util.ClassUtils;
+import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.LogUtils;
 import org.metawidget.util.LogUtils.Log;
 import org.metawidget.util.XmlUtils;
@@ -67,7 +74,7 @@ import org.w3c.dom.Element;
  */
 
 public abstract class BaseObjectInspector
-	implements DomInspector<Element> {
+	implements DomInspector<Element>, ValueDependentInspector, IncrementalInspector {
 
 	//
 	// Protected members
@@ -83,6 +90,12 @@ public abstract class BaseObjectInspector
 
 	private final ActionStyle	mActionStyle;
 
+	/**
+	 * Compiled inspection plans, keyed by type. Null if not compiling plans.
+	 */
+
+	private final ConcurrentMap<String, InspectionPlan>	mInspectionPlans;
+
 	//
 	// Constructors
 	//
@@ -103,6 +116,12 @@ public abstract class BaseObjectInspector
 
 		mPropertyStyle = config.getPropertyStyle();
 		mActionStyle = config.getActionStyle();
+
+		if ( config.isCompileInspectionPlans() ) {
+			mInspectionPlans = CollectionUtils.newConcurrentHashMap();
+		} else {
+			mInspectionPlans = null;
+		}
 	}
 
 	//
@@ -170,13 +189,17 @@ public abstract class BaseObjectInspector
 				// Parent can be null if we are just traversing Classes (i.e. StaticPropertyStyle)
 
 				Object parent = valueAndDeclaredType.getValue();
+				Map<String, Property> parentProperties;
 
 				if ( parent != null ) {
 					parentType = parent.getClass().getName();
+					parentProperties = getProperties( parent.getClass() );
+				} else {
+					parentProperties = mPropertyStyle.getProperties( parentType );
 				}
 
 				childName = names[names.length - 1];
-				Property propertyInParent = mPropertyStyle.getProperties( parentType ).get( childName );
+				Property propertyInParent = parentProperties.get( childName );
 
 				// If the parent does not define such a property, something is wrong
 
@@ -280,6 +303,66 @@ public abstract class BaseObjectInspector
 		}
 	}
 
+	/**
+	 * Whether the inspection result may differ between two <code>toInspect</code>s of the same
+	 * class.
+	 * <p>
+	 * If there are names, the result depends on the runtime values along the path (their actual
+	 * classes, and whether they are null). Otherwise, it only depends on the values of those
+	 * properties we <code>shouldInspectPropertyAsEntity</code> whose declared type is not final.
+	 * Subclasses that consult property values in other ways should override this method.
+	 */
+
+	public boolean isValueDependent( Object toInspect, String type, String... names ) {
+
+		if ( names != null && names.length > 0 ) {
+			return true;
+		}
+
+		// If toInspect is null, there are no values to depend on
+
+		if ( toInspect == null ) {
+			return false;
+		}
+
+		for ( Property property : getProperties( toInspect.getClass() ).values() ) {
+			if ( isValueDependent( property ) ) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * BaseObjectInspectors resolve their path against the object graph, so can be inspected
+	 * incrementally. Subclasses that consult the path itself should override this method to
+	 * return false.
+	 */
+
+	public boolean isIncremental() {
+
+		return true;
+	}
+
+	public Object traverse( Object toInspect, String type, String name ) {
+
+		if ( mPropertyStyle == null ) {
+			return null;
+		}
+
+		return mPropertyStyle.traverse( toInspect, type, false, name ).getValue();
+	}
+
+	/**
+	 * BaseObjectInspectors traverse using their PropertyStyle.
+	 */
+
+	public Object getTraversalStyle() {
+
+		return mPropertyStyle;
+	}
+
 	//
 	// Protected methods
 	//
@@ -336,9 +419,40 @@ public abstract class BaseObjectInspector
 
 		Document document = toAddTo.getOwnerDocument();
 
+		// Use the actual class (if we have it) rather than looking it up again by name
+
+		Map<String, Property> properties;
+		Map<String, Action> actions;
+
+		if ( toInspect != null && toInspect.getClass().getName().equals( type ) ) {
+			properties = getProperties( toInspect.getClass() );
+			actions = getActions( toInspect.getClass() );
+		} else {
+			properties = getProperties( type );
+			actions = getActions( type );
+		}
+
+		// Replay a compiled plan (if any)
+
+		if ( mInspectionPlans != null ) {
+			InspectionPlan inspectionPlan = mInspectionPlans.get( type );
+
+			// (the plan is only good for the same properties and actions it was compiled from. If
+			// the PropertyStyle or ActionStyle are not caching, or their caches have been cleared,
+			// we must recompile)
+
+			if ( inspectionPlan == null || !inspectionPlan.isFor( properties, actions ) ) {
+				inspectionPlan = compileInspectionPlan( properties, actions );
+				mInspectionPlans.put( type, inspectionPlan );
+			}
+
+			replayInspectionPlan( inspectionPlan, toInspect, toAddTo );
+			return;
+		}
+
 		// Inspect properties
 
-		for ( Property property : getProperties( type ).values() ) {
+		for ( Property property : properties.values() ) {
 			Map<String, String> traitAttributes = inspectTrait( property );
 			Map<String, String> propertyAttributes = inspectProperty( property );
 			Map<String, String> entityAttributes = inspectPropertyAsEntity( property, toInspect );
@@ -359,7 +473,7 @@ public abstract class BaseObjectInspector
 
 		// Inspect actions
 
-		for ( Action action : getActions( type ).values() ) {
+		for ( Action action : actions.values() ) {
 			Map<String, String> traitAttributes = inspectTrait( action );
 			Map<String, String> actionAttributes = inspectAction( action );
 
@@ -508,6 +622,36 @@ public abstract class BaseObjectInspector
 		return mActionStyle.getActions( type );
 	}
 
+	protected final Map<String, Property> getProperties( Class<?> clazz ) {
+
+		if ( mPropertyStyle == null ) {
+			return Collections.emptyMap();
+		}
+
+		// Only BasePropertyStyles support lookup by Class
+
+		if ( mPropertyStyle instanceof BasePropertyStyle ) {
+			return ( (BasePropertyStyle) mPropertyStyle ).getProperties( clazz );
+		}
+
+		return mPropertyStyle.getProperties( clazz.getName() );
+	}
+
+	protected final Map<String, Action> getActions( Class<?> clazz ) {
+
+		if ( mActionStyle == null ) {
+			return Collections.emptyMap();
+		}
+
+		// Only BaseActionStyles support lookup by Class
+
+		if ( mActionStyle instanceof BaseActionStyle ) {
+			return ( (BaseActionStyle) mActionStyle ).getActions( clazz );
+		}
+
+		return mActionStyle.getActions( clazz.getName() );
+	}
+
 	//
 	// Private methods
 	//
@@ -543,9 +687,7 @@ public abstract class BaseObjectInspector
 		// need to call the getter because there cannot be a subtype
 
 		if ( toInspect != null ) {
-			Class<?> actualClass = ClassUtils.niceForName( actualType );
-
-			if ( property.isReadable() && ( actualClass == null || !Modifier.isFinal( actualClass.getModifiers() ) ) ) {
+			if ( isValueDependent( property ) ) {
 				Object propertyValue = null;
 
 				try {
@@ -569,6 +711,110 @@ public abstract class BaseObjectInspector
 		return inspectEntity( property.getType(), actualType );
 	}
 
+	/**
+	 * Compiles an inspection plan for the given properties and actions.
+	 * <p>
+	 * Calls <code>inspectTrait</code>, <code>inspectProperty</code> and <code>inspectAction</code>
+	 * once for each, and records their attributes. Also records
+	 * <code>inspectPropertyAsEntity</code>, unless it could differ between values (ie. unless the
+	 * property is not readable, or its type is final).
+	 */
+
+	private InspectionPlan compileInspectionPlan( Map<String, Property> properties, Map<String, Action> actions )
+		throws Exception {
+
+		List<TraitPlan> traitPlans = CollectionUtils.newArrayList();
+
+		for ( Property property : properties.values() ) {
+
+			Map<String, String> traitAttributes = inspectTrait( property );
+			Map<String, String> propertyAttributes = inspectProperty( property );
+			Map<String, String> entityAttributes = null;
+			Property valueDependentProperty = null;
+
+			if ( shouldInspectPropertyAsEntity( property ) ) {
+				if ( isValueDependent( property ) ) {
+					valueDependentProperty = property;
+				} else {
+					entityAttributes = inspectEntity( property.getType(), property.getType() );
+				}
+			}
+
+			if ( isEmpty( traitAttributes ) && isEmpty( propertyAttributes ) && isEmpty( entityAttributes ) && valueDependentProperty == null ) {
+				continue;
+			}
+
+			traitPlans.add( new TraitPlan( PROPERTY, property.getName(), valueDependentProperty, traitAttributes, propertyAttributes, entityAttributes ) );
+		}
+
+		for ( Action action : actions.values() ) {
+
+			Map<String, String> traitAttributes = inspectTrait( action );
+			Map<String, String> actionAttributes = inspectAction( action );
+
+			if ( isEmpty( traitAttributes ) && isEmpty( actionAttributes ) ) {
+				continue;
+			}
+
+			traitPlans.add( new TraitPlan( ACTION, action.getName(), null, traitAttributes, actionAttributes, null ) );
+		}
+
+		return new InspectionPlan( properties, actions, traitPlans.toArray( new TraitPlan[traitPlans.size()] ) );
+	}
+
+	private void replayInspectionPlan( InspectionPlan inspectionPlan, Object toInspect, Element toAddTo )
+		throws Exception {
+
+		Document document = toAddTo.getOwnerDocument();
+
+		for ( TraitPlan traitPlan : inspectionPlan.mTraitPlans ) {
+
+			Map<String, String> entityAttributes = null;
+
+			if ( traitPlan.mValueDependentProperty != null ) {
+				entityAttributes = inspectPropertyAsEntity( traitPlan.mValueDependentProperty, toInspect );
+
+				if ( !traitPlan.mHasAttributes && isEmpty( entityAttributes ) ) {
+					continue;
+				}
+			}
+
+			Element element = document.createElementNS( NAMESPACE, traitPlan.mElementName );
+			element.setAttribute( NAME, traitPlan.mName );
+
+			String[] attributeNames = traitPlan.mAttributeNames;
+			String[] attributeValues = traitPlan.mAttributeValues;
+
+			for ( int loop = 0, length = attributeNames.length; loop < length; loop++ ) {
+				element.setAttribute( attributeNames[loop], attributeValues[loop] );
+			}
+
+			XmlUtils.setMapAsAttributes( element, entityAttributes );
+
+			toAddTo.appendChild( element );
+		}
+	}
+
+	/**
+	 * Whether <code>inspectPropertyAsEntity</code> must read the given property to determine its
+	 * runtime type (ie. whether it is readable and its type is not final).
+	 */
+
+	private boolean isValueDependent( Property property ) {
+
+		if ( !shouldInspectPropertyAsEntity( property ) || !property.isReadable() ) {
+			return false;
+		}
+
+		Class<?> actualClass = ClassUtils.niceForName( property.getType() );
+		return ( actualClass == null || !Modifier.isFinal( actualClass.getModifiers() ) );
+	}
+
+	private static boolean isEmpty( Map<String, String> attributes ) {
+
+		return ( attributes == null || attributes.isEmpty() );
+	}
+
 	/**
 	 * Returns true if the inspection returned nothing of consequence. This is an optimization that
 	 * allows our <code>Inspector</code> to return <code>null</code> overall, rather than creating
@@ -590,4 +836,139 @@ public abstract class BaseObjectInspector
 
 		return true;
 	}
+
+	//
+	// Inner class
+	//
+
+	/**
+	 * Compiled inspection plan for a given type.
+	 */
+
+	private static class InspectionPlan {
+
+		//
+		// Private members
+		//
+
+		private Map<String, Property>						mProperties;
+
+		private Map<String, Action>							mActions;
+
+		/* package private */final TraitPlan[]				mTraitPlans;
+
+		//
+		// Constructor
+		//
+
+		public InspectionPlan( Map<String, Property> properties, Map<String, Action> actions, TraitPlan[] traitPlans ) {
+
+			mProperties = properties;
+			mActions = actions;
+			mTraitPlans = traitPlans;
+		}
+
+		//
+		// Public methods
+		//
+
+		/**
+		 * @return true if this plan was compiled from the given properties and actions
+		 */
+
+		public boolean isFor( Map<String, Property> properties, Map<String, Action> actions ) {
+
+			if ( mProperties == properties && mActions == actions ) {
+				return true;
+			}
+
+			// The first lookup of a PropertyStyle/ActionStyle may return a different (but equal)
+			// Map instance to subsequent, cached lookups. If so, remember the cached one (a benign
+			// race if multiple threads do this)
+
+			if ( mProperties.equals( properties ) && mActions.equals( actions ) ) {
+				mProperties = properties;
+				mActions = actions;
+				return true;
+			}
+
+			return false;
+		}
+	}
+
+	/**
+	 * Compiled inspection plan for a given property or action.
+	 */
+
+	private static class TraitPlan {
+
+		//
+		// Private members
+		//
+
+		/* package private */final String		mElementName;
+
+		/* package private */final String		mName;
+
+		/**
+		 * Property to <code>inspectPropertyAsEntity</code> at replay time, or null if none.
+		 */
+
+		/* package private */final Property	mValueDependentProperty;
+
+		/* package private */final boolean		mHasAttributes;
+
+		/* package private */final String[]		mAttributeNames;
+
+		/* package private */final String[]		mAttributeValues;
+
+		//
+		// Constructor
+		//
+
+		/**
+		 * Attributes are given in order of precedence, lowest first. As with
+		 * <code>XmlUtils.setMapAsAttributes</code>, a <code>null</code> value removes any previous
+		 * value. Any of them may be null.
+		 */
+
+		public TraitPlan( String elementName, String name, Property valueDependentProperty, Map<String, String> traitAttributes, Map<String, String> attributes, Map<String, String> entityAttributes ) {
+
+			mElementName = elementName;
+			mName = name;
+			mValueDependentProperty = valueDependentProperty;
+
+			Map<String, String> mergedAttributes = CollectionUtils.newLinkedHashMap();
+			mergeAttributes( mergedAttributes, traitAttributes );
+			mergeAttributes( mergedAttributes, attributes );
+			mergeAttributes( mergedAttributes, entityAttributes );
+
+			mHasAttributes = !( isEmpty( traitAttributes ) && isEmpty( attributes ) && isEmpty( entityAttributes ) );
+			mAttributeNames = mergedAttributes.keySet().toArray( new String[mergedAttributes.size()] );
+			mAttributeValues = mergedAttributes.values().toArray( new String[mergedAttributes.size()] );
+		}
+
+		//
+		// Private methods
+		//
+
+		private static void mergeAttributes( Map<String, String> mergedAttributes, Map<String, String> attributes ) {
+
+			if ( attributes == null ) {
+				return;
+			}
+
+			for ( Map.Entry<String, String> entry : attributes.entrySet() ) {
+
+				String value = entry.getValue();
+
+				if ( value == null ) {
+					mergedAttributes.remove( entry.getKey() );
+					continue;
+				}
+
+				mergedAttributes.put( entry.getKey(), value );
+			}
+		}
+	}
 }
@@ -63,6 +63,8 @@ public class BaseObjectInspectorConfig {
 
 	protected boolean				mNullActionStyle;
 
+	protected boolean				mCompileInspectionPlans;
+
 	//
 	// Public methods
 	//
@@ -99,6 +101,33 @@ public class BaseObjectInspectorConfig {
 		return this;
 	}
 
+	/**
+	 * Sets whether to compile, once per class, an 'inspection plan' of the attributes returned for
+	 * each property and action.
+	 * <p>
+	 * Almost all of <code>BaseObjectInspector</code>'s output (from <code>inspectTrait</code>,
+	 * <code>inspectProperty</code> and <code>inspectAction</code>) is a pure function of the class
+	 * being inspected. With this setting, those methods are only called the first time a class is
+	 * inspected. Subsequent inspections replay the plan, and only evaluate the parts that genuinely
+	 * depend on the value (such as <code>shouldInspectPropertyAsEntity</code> for non-final
+	 * types). This saves a great deal of work and allocation per inspection.
+	 * <p>
+	 * Defaults to <code>false</code>, because subclasses whose <code>inspectTrait</code>,
+	 * <code>inspectProperty</code> or <code>inspectAction</code> depend on something other than the
+	 * trait itself (eg. the current user, or the time of day) must not enable it.
+	 *
+	 * @return this, as part of a fluent interface
+	 */
+
+	public BaseObjectInspectorConfig setCompileInspectionPlans( boolean compileInspectionPlans ) {
+
+		mCompileInspectionPlans = compileInspectionPlans;
+
+		// Fluent interface
+
+		return this;
+	}
+
 	@Override
 	public boolean equals( Object that ) {
 
@@ -126,6 +155,10 @@ public class BaseObjectInspectorConfig {
 			return false;
 		}
 
+		if ( mCompileInspectionPlans != ( (BaseObjectInspectorConfig) that ).mCompileInspectionPlans ) {
+			return false;
+		}
+
 		return true;
 	}
 
@@ -137,6 +170,7 @@ public class BaseObjectInspectorConfig {
 		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mNullPropertyStyle );
 		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mActionStyle );
 		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mNullActionStyle );
+		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mCompileInspectionPlans );
 
 		return hashCode;
 	}
@@ -190,4 +224,9 @@ public class BaseObjectInspectorConfig {
 
 		return mActionStyle;
 	}
+
+	protected boolean isCompileInspectionPlans() {
+
+		return mCompileInspectionPlans;
+	}
 }
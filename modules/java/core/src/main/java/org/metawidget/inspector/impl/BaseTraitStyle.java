@@ -18,8 +18,14 @@ package org.metawidget.inspector.impl;
 
 import java.util.Collections;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 import java.util.regex.Pattern;
 
+import org.metawidget.inspector.iface.InspectorException;
 import org.metawidget.util.ArrayUtils;
 import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.LogUtils;
@@ -53,21 +59,32 @@ public abstract class BaseTraitStyle<T extends Trait> {
 	 * Note: the cache is unbounded, because the number of Classes in the system is fixed. This even
 	 * applies to hot deployment products such as FakeReplace, because new Classes are replaced such
 	 * that they <code>.equal()</code> their originals.
+	 * <p>
+	 * The cache is concurrent, and stores <code>Future</code>s rather than the traits themselves.
+	 * This means reads never block, and each type is only looked up once even if many threads ask
+	 * for it at the same time. A slow lookup of one type does not block lookups of other types.
+	 * <p>
+	 * The cache is keyed by type name, even for lookups by <code>Class</code>. There is no need for
+	 * a separate <code>Class</code>-keyed cache: <code>Class.getName</code> returns the same
+	 * String instance every time, so such lookups are already little more than an identity check.
+	 * Whereas a <code>Class</code>-keyed cache would pin ClassLoaders: even if weakly keyed, its
+	 * traits would strongly reference their <code>Class</code> (through their
+	 * <code>Method</code>s and <code>Field</code>s).
 	 */
 
-	/* package private */final Map<String, Map<String, T>>	mCache;
+	/* package private */final ConcurrentMap<String, Future<Map<String, T>>>	mCache;
 
-	private Pattern											mExcludeBaseType;
+	private Pattern															mExcludeBaseType;
 
-	private Class<?>[]										mExcludeReturnType;
+	private Class<?>[]														mExcludeReturnType;
 
-	private String[]										mExcludeName;
+	private String[]														mExcludeName;
 
 	//
 	// Protected members
 	//
 
-	protected final Log										mLog	= LogUtils.getLog( getClass() );
+	protected final Log														mLog	= LogUtils.getLog( getClass() );
 
 	//
 	// Constructor
@@ -76,7 +93,7 @@ public abstract class BaseTraitStyle<T extends Trait> {
 	protected BaseTraitStyle( BaseTraitStyleConfig config ) {
 
 		if ( config.isCacheLookups() ) {
-			mCache = CollectionUtils.newHashMap();
+			mCache = CollectionUtils.newConcurrentHashMap();
 		} else {
 			mCache = null;
 		}
@@ -104,9 +121,7 @@ public abstract class BaseTraitStyle<T extends Trait> {
 			return;
 		}
 
-		synchronized ( mCache ) {
-			mCache.clear();
-		}
+		mCache.clear();
 	}
 
 	//
@@ -119,30 +134,78 @@ public abstract class BaseTraitStyle<T extends Trait> {
 			return getUncachedTraits( type );
 		}
 
-		synchronized ( mCache ) {
-			Map<String, T> traits = getCachedTraits( type );
+		return getTraits( type, null );
+	}
 
-			if ( traits == null ) {
-				traits = getUncachedTraits( type );
-				cacheTraits( type, traits );
-			}
+	/**
+	 * Gets the traits for the given Class.
+	 * <p>
+	 * Shares the same cache as <code>getTraits( String )</code> but, if the traits are not cached,
+	 * looks them up using <code>getUncachedTraits( Class )</code>. This avoids having to find the
+	 * Class again by name (which may involve searching several ClassLoaders).
+	 */
+
+	protected final Map<String, T> getTraits( Class<?> clazz ) {
 
-			return traits;
+		if ( mCache == null ) {
+			return getUncachedTraits( clazz );
 		}
+
+		return getTraits( clazz.getName(), clazz );
 	}
 
+	/**
+	 * @return the cached traits for the given type, or null if they have not been cached (or are
+	 *         still being looked up)
+	 */
+
 	protected final Map<String, T> getCachedTraits( String type ) {
 
-		return mCache.get( type );
+		Future<Map<String, T>> future = mCache.get( type );
+
+		if ( future == null || !future.isDone() ) {
+			return null;
+		}
+
+		return getFutureTraits( type, future );
 	}
 
 	protected final void cacheTraits( String type, Map<String, T> traits ) {
 
-		mCache.put( type, Collections.unmodifiableMap( traits ) );
+		FutureTask<Map<String, T>> future = new FutureTask<Map<String, T>>( new CachedTraits<T>( Collections.unmodifiableMap( traits ) ) );
+		future.run();
+		mCache.put( type, future );
 	}
 
 	protected abstract Map<String, T> getUncachedTraits( String type );
 
+	/**
+	 * Looks up the traits for the given Class.
+	 * <p>
+	 * By default, calls <code>getUncachedTraits( clazz.getName() )</code>. Subclasses that can
+	 * look up traits directly from the Class should override this method.
+	 */
+
+	protected Map<String, T> getUncachedTraits( Class<?> clazz ) {
+
+		return getUncachedTraits( clazz.getName() );
+	}
+
+	/**
+	 * Whether lookups by Class can inspect the Class directly, rather than by its name.
+	 * <p>
+	 * False by default, so that subclasses that override just the String-based lookups (as most
+	 * do) are never bypassed. Subclasses that override both the Class-based and String-based
+	 * lookups may return true, but only for their own exact class (ie.
+	 * <code>getClass() == MyTraitStyle.class</code>), in case a further subclass overrides just
+	 * the String-based one.
+	 */
+
+	protected boolean isInspectByClass() {
+
+		return false;
+	}
+
 	/**
 	 * Whether to exclude the given trait, of the given type, in the given class, when searching
 	 * for traits.
@@ -245,4 +308,138 @@ public abstract class BaseTraitStyle<T extends Trait> {
 
 		return false;
 	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * @param clazz
+	 *            the Class to look up the traits of, or null to look them up by type name
+	 */
+
+	private Map<String, T> getTraits( String type, Class<?> clazz ) {
+
+		Future<Map<String, T>> future = mCache.get( type );
+
+		if ( future == null ) {
+
+			// Lookup outside of any lock. If another thread beats us to it, wait on theirs instead
+
+			TraitsLookup lookup = new TraitsLookup( type, clazz );
+			FutureTask<Map<String, T>> newFuture = new FutureTask<Map<String, T>>( lookup );
+			future = mCache.putIfAbsent( type, newFuture );
+
+			if ( future == null ) {
+				future = newFuture;
+				newFuture.run();
+
+				if ( lookup.mTraits != null ) {
+					return lookup.mTraits;
+				}
+			}
+		}
+
+		return getFutureTraits( type, future );
+	}
+
+	private Map<String, T> getFutureTraits( String type, Future<Map<String, T>> future ) {
+
+		try {
+			return future.get();
+		} catch ( InterruptedException e ) {
+			Thread.currentThread().interrupt();
+			throw InspectorException.newException( e );
+		} catch ( ExecutionException e ) {
+
+			// Do not cache failures: remove them so the next call tries again
+
+			mCache.remove( type, future );
+			Throwable cause = e.getCause();
+
+			if ( cause instanceof Error ) {
+				throw (Error) cause;
+			}
+
+			throw InspectorException.newException( cause );
+		}
+	}
+
+	//
+	// Private inner class
+	//
+
+	/**
+	 * Looks up uncached traits.
+	 * <p>
+	 * Keeps a reference to the (modifiable) looked up traits, so that the thread that did the
+	 * lookup can be returned them directly.
+	 */
+
+	private class TraitsLookup
+		implements Callable<Map<String, T>> {
+
+		//
+		// Private members
+		//
+
+		private final String		mType;
+
+		private final Class<?>		mClass;
+
+		/* package private */Map<String, T>	mTraits;
+
+		//
+		// Constructor
+		//
+
+		public TraitsLookup( String type, Class<?> clazz ) {
+
+			mType = type;
+			mClass = clazz;
+		}
+
+		//
+		// Public methods
+		//
+
+		public Map<String, T> call() {
+
+			if ( mClass == null ) {
+				mTraits = getUncachedTraits( mType );
+			} else {
+				mTraits = getUncachedTraits( mClass );
+			}
+
+			return Collections.unmodifiableMap( mTraits );
+		}
+	}
+
+	private static class CachedTraits<T>
+		implements Callable<Map<String, T>> {
+
+		//
+		// Private members
+		//
+
+		private final Map<String, T>	mTraits;
+
+		//
+		// Constructor
+		//
+
+		public CachedTraits( Map<String, T> traits ) {
+
+			mTraits = traits;
+		}
+
+		//
+		// Public methods
+		//
+
+		public Map<String, T> call() {
+
+			return mTraits;
+		}
+	}
 }
@@ -19,22 +19,29 @@ package org.metawidget.inspector.impl;
 import static org.metawidget.inspector.InspectionResultConstants.*;
 
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
 
 import org.metawidget.config.iface.ResourceResolver;
 import org.metawidget.inspector.iface.DomInspector;
 import org.metawidget.inspector.iface.InspectorException;
+import org.metawidget.inspector.iface.ValueDependentInspector;
 import org.metawidget.inspector.impl.propertystyle.Property;
 import org.metawidget.inspector.impl.propertystyle.PropertyStyle;
 import org.metawidget.inspector.impl.propertystyle.ValueAndDeclaredType;
 import org.metawidget.util.ArrayUtils;
 import org.metawidget.util.ClassUtils;
+import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.LogUtils;
 import org.metawidget.util.LogUtils.Log;
 import org.metawidget.util.XmlUtils;
 import org.metawidget.util.simple.StringUtils;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 
 /**
  * Convenience implementation for Inspectors that inspect XML files.
@@ -104,13 +111,23 @@ import org.w3c.dom.Element;
  */
 
 public abstract class BaseXmlInspector
-	implements DomInspector<Element> {
+	implements DomInspector<Element>, ValueDependentInspector {
+
+	//
+	// Private statics
+	//
+
+	/**
+	 * Marker for inspections that returned no result.
+	 */
+
+	private static final ElementSnapshot					NO_INSPECTION_RESULT	= new ElementSnapshot();
 
 	//
 	// Protected members
 	//
 
-	protected Log				mLog	= LogUtils.getLog( getClass() );
+	protected Log											mLog					= LogUtils.getLog( getClass() );
 
 	//
 	// Private members
@@ -124,13 +141,36 @@ public abstract class BaseXmlInspector
 	 * requirement that a DOM be thread safe, so applications need to make sure that threads are
 	 * properly synchronized for concurrent access to [a shared] DOM. This is true even if you're
 	 * just invoking read operations".
+	 * <p>
+	 * To avoid every inspection contending for this lock, inspection results that do not depend on
+	 * the runtime object are snapshotted into <code>mSnapshots</code>. The shared DOM is then only
+	 * read (under the lock) the first time each type and path is inspected.
 	 */
 
-	private Element				mRoot;
+	private Element											mRoot;
+
+	/**
+	 * Top-level elements of <code>mRoot</code>, indexed by their
+	 * <code>getTopLevelTypeAttribute</code>. Built once at construction and never modified.
+	 */
 
-	private final PropertyStyle	mRestrictAgainstObject;
+	private final Map<String, Element>						mTopLevelElements;
 
-	private final boolean		mInferInheritanceHierarchy;
+	/**
+	 * Immutable snapshots of previous inspection results, keyed by type and path. Only used if the
+	 * inspection results are not value-dependent.
+	 * <p>
+	 * Bounded by <code>mMaximumSnapshots</code>. If full, it is cleared and starts again, so that
+	 * inspecting many distinct paths cannot exhaust memory.
+	 */
+
+	private final ConcurrentMap<String, ElementSnapshot>	mSnapshots				= CollectionUtils.newConcurrentHashMap();
+
+	private final int										mMaximumSnapshots;
+
+	private final PropertyStyle								mRestrictAgainstObject;
+
+	private final boolean									mInferInheritanceHierarchy;
 
 	//
 	// Constructor
@@ -144,6 +184,8 @@ public abstract class BaseXmlInspector
 
 	protected BaseXmlInspector( BaseXmlInspectorConfig config ) {
 
+		mMaximumSnapshots = config.getMaximumSnapshots();
+
 		try {
 			// Look up the XML file
 
@@ -157,6 +199,26 @@ public abstract class BaseXmlInspector
 				throw InspectorException.newException( "No XML input file specified" );
 			}
 
+			// Index top-level elements (the first one wins, same as
+			// XmlUtils.getChildWithAttributeValue)
+
+			String topLevelTypeAttribute = getTopLevelTypeAttribute();
+			Map<String, Element> topLevelElements = CollectionUtils.newHashMap();
+			Element topLevelElement = XmlUtils.getFirstChildElement( mRoot );
+
+			while ( topLevelElement != null ) {
+
+				String topLevelType = topLevelElement.getAttribute( topLevelTypeAttribute );
+
+				if ( !topLevelElements.containsKey( topLevelType ) ) {
+					topLevelElements.put( topLevelType, topLevelElement );
+				}
+
+				topLevelElement = XmlUtils.getNextSiblingElement( topLevelElement );
+			}
+
+			mTopLevelElements = Collections.unmodifiableMap( topLevelElements );
+
 			// Debug
 
 			if ( mLog.isTraceEnabled() ) {
@@ -181,7 +243,6 @@ public abstract class BaseXmlInspector
 
 			if ( validateAgainstClasses != null ) {
 
-				String topLevelTypeAttribute = getTopLevelTypeAttribute();
 				String extendsAttribute = getExtendsAttribute();
 				String nameAttribute = getNameAttribute();
 				String typeAttribute = getTypeAttribute();
@@ -275,80 +336,66 @@ public abstract class BaseXmlInspector
 			return null;
 		}
 
-		try {
-			Document document;
-			Element entity;
-			ValueAndDeclaredType valueAndDeclaredType;
-			Map<String, String> parentAttributes = null;
-
-			// "There's no requirement that a DOM be thread safe, so applications need to make sure
-			// that threads are properly synchronized for concurrent access to [a shared] DOM. This
-			// is true even if you're just invoking read operations"
-			//
-			// https://issues.apache.org/jira/browse/XERCESJ-727
-
-			synchronized ( mRoot ) {
+		// Value-dependent inspection results cannot be snapshotted
 
-				// If the path has a parent...
-
-				if ( names != null && names.length > 0 ) {
-					// ...inspect its property for useful attributes...
-
-					Element propertyInParent = (Element) traverse( toInspect, type, true, names ).getValue();
-
-					if ( propertyInParent != null ) {
-						parentAttributes = inspectProperty( propertyInParent );
-					}
-				}
-
-				// ...otherwise, just start at the end point
+		if ( mMaximumSnapshots == 0 || isValueDependent( toInspect, type, names ) ) {
+			return inspectSharedDom( toInspect, type, names );
+		}
 
-				valueAndDeclaredType = traverse( toInspect, type, false, names );
+		// Snapshotted?
 
-				if ( valueAndDeclaredType.getValue() == null ) {
+		StringBuilder builder = new StringBuilder( type );
 
-					if ( parentAttributes == null || parentAttributes.isEmpty() ) {
-						return null;
-					}
+		if ( names != null ) {
+			for ( String name : names ) {
+				builder.append( StringUtils.SEPARATOR_FORWARD_SLASH_CHAR );
+				builder.append( name );
+			}
+		}
 
-					document = XmlUtils.newDocument();
-					entity = document.createElementNS( NAMESPACE, ENTITY );
+		String key = builder.toString();
+		ElementSnapshot snapshot = mSnapshots.get( key );
 
-				} else {
+		if ( snapshot == null ) {
 
-					// Inspect traits
+			// Inspect, and snapshot a copy (callers are free to modify the Element we return)
 
-					document = XmlUtils.newDocument();
-					entity = document.createElementNS( NAMESPACE, ENTITY );
-					inspectTraits( (Element) valueAndDeclaredType.getValue(), entity );
+			Element root = inspectSharedDom( toInspect, type, names );
 
-					// Nothing of consequence to return?
+			if ( root == null ) {
+				snapshot = NO_INSPECTION_RESULT;
+			} else {
+				snapshot = new ElementSnapshot( root );
+			}
 
-					if ( !entity.hasChildNodes() && entity.getAttributes().getLength() == 0 && parentAttributes == null ) {
-						return null;
-					}
-				}
+			if ( mSnapshots.size() >= mMaximumSnapshots ) {
+				mSnapshots.clear();
 			}
 
-			Element root = document.createElementNS( NAMESPACE, ROOT );
-			root.setAttribute( VERSION, "1.0" );
-			document.appendChild( root );
-			root.appendChild( entity );
+			mSnapshots.put( key, snapshot );
 
-			// Add parent attributes (if any)
+			return root;
+		}
 
-			XmlUtils.setMapAsAttributes( entity, parentAttributes );
+		if ( snapshot == NO_INSPECTION_RESULT ) {
+			return null;
+		}
 
-			// Use the declared type so as to align with other Inspectors
+		Document document = XmlUtils.newDocument();
+		Element root = snapshot.toElement( document );
+		document.appendChild( root );
 
-			entity.setAttribute( TYPE, valueAndDeclaredType.getDeclaredType() );
+		return root;
+	}
 
-			// Return the root
+	/**
+	 * XML-based inspection only depends on types, unless <code>setRestrictAgainstObject</code> is
+	 * used (which traverses the runtime object graph).
+	 */
 
-			return root;
-		} catch ( Exception e ) {
-			throw InspectorException.newException( e );
-		}
+	public boolean isValueDependent( Object toInspect, String type, String... names ) {
+
+		return ( mRestrictAgainstObject != null );
 	}
 
 	//
@@ -574,8 +621,7 @@ public abstract class BaseXmlInspector
 
 		// Validate type
 
-		String topLevelTypeAttribute = getTopLevelTypeAttribute();
-		Element topLevelElement = XmlUtils.getChildWithAttributeValue( mRoot, topLevelTypeAttribute, typeToInspect );
+		Element topLevelElement = mTopLevelElements.get( typeToInspect );
 
 		if ( topLevelElement == null ) {
 
@@ -600,7 +646,7 @@ public abstract class BaseXmlInspector
 
 			while ( topLevelElement == null && ( actualClass = actualClass.getSuperclass() ) != null ) {
 
-				topLevelElement = XmlUtils.getChildWithAttributeValue( mRoot, topLevelTypeAttribute, actualClass.getName() );
+				topLevelElement = mTopLevelElements.get( actualClass.getName() );
 			}
 
 			if ( topLevelElement == null ) {
@@ -641,7 +687,7 @@ public abstract class BaseXmlInspector
 					}
 
 					String childExtends = elementWithNamedChildren.getAttribute( extendsAttribute );
-					elementWithNamedChildren = XmlUtils.getChildWithAttributeValue( mRoot, topLevelTypeAttribute, childExtends );
+					elementWithNamedChildren = mTopLevelElements.get( childExtends );
 
 					if ( elementWithNamedChildren == null ) {
 						break;
@@ -701,7 +747,7 @@ public abstract class BaseXmlInspector
 
 			// Traverse to new top-level element of the given declaredType
 
-			topLevelElement = XmlUtils.getChildWithAttributeValue( mRoot, topLevelTypeAttribute, declaredType );
+			topLevelElement = mTopLevelElements.get( declaredType );
 
 			if ( topLevelElement == null ) {
 				return new ValueAndDeclaredType( null, declaredType );
@@ -783,4 +829,177 @@ public abstract class BaseXmlInspector
 
 		return topLevel;
 	}
+
+	//
+	// Private methods
+	//
+
+	private Element inspectSharedDom( Object toInspect, String type, String... names ) {
+
+		try {
+			Document document;
+			Element entity;
+			ValueAndDeclaredType valueAndDeclaredType;
+			Map<String, String> parentAttributes = null;
+
+			// "There's no requirement that a DOM be thread safe, so applications need to make sure
+			// that threads are properly synchronized for concurrent access to [a shared] DOM. This
+			// is true even if you're just invoking read operations"
+			//
+			// https://issues.apache.org/jira/browse/XERCESJ-727
+
+			synchronized ( mRoot ) {
+
+				// If the path has a parent...
+
+				if ( names != null && names.length > 0 ) {
+					// ...inspect its property for useful attributes...
+
+					Element propertyInParent = (Element) traverse( toInspect, type, true, names ).getValue();
+
+					if ( propertyInParent != null ) {
+						parentAttributes = inspectProperty( propertyInParent );
+					}
+				}
+
+				// ...otherwise, just start at the end point
+
+				valueAndDeclaredType = traverse( toInspect, type, false, names );
+
+				if ( valueAndDeclaredType.getValue() == null ) {
+
+					if ( parentAttributes == null || parentAttributes.isEmpty() ) {
+						return null;
+					}
+
+					document = XmlUtils.newDocument();
+					entity = document.createElementNS( NAMESPACE, ENTITY );
+
+				} else {
+
+					// Inspect traits
+
+					document = XmlUtils.newDocument();
+					entity = document.createElementNS( NAMESPACE, ENTITY );
+					inspectTraits( (Element) valueAndDeclaredType.getValue(), entity );
+
+					// Nothing of consequence to return?
+
+					if ( !entity.hasChildNodes() && entity.getAttributes().getLength() == 0 && parentAttributes == null ) {
+						return null;
+					}
+				}
+			}
+
+			Element root = document.createElementNS( NAMESPACE, ROOT );
+			root.setAttribute( VERSION, "1.0" );
+			document.appendChild( root );
+			root.appendChild( entity );
+
+			// Add parent attributes (if any)
+
+			XmlUtils.setMapAsAttributes( entity, parentAttributes );
+
+			// Use the declared type so as to align with other Inspectors
+
+			entity.setAttribute( TYPE, valueAndDeclaredType.getDeclaredType() );
+
+			// Return the root
+
+			return root;
+		} catch ( Exception e ) {
+			throw InspectorException.newException( e );
+		}
+	}
+
+	//
+	// Inner class
+	//
+
+	/**
+	 * Immutable copy of an inspection result.
+	 * <p>
+	 * Unlike a DOM, can be safely read by multiple threads at once.
+	 */
+
+	private static class ElementSnapshot {
+
+		//
+		// Private members
+		//
+
+		private final String			mNamespaceUri;
+
+		private final String			mName;
+
+		private final String[]			mAttributeNames;
+
+		private final String[]			mAttributeValues;
+
+		private final ElementSnapshot[]	mChildren;
+
+		//
+		// Constructors
+		//
+
+		public ElementSnapshot() {
+
+			mNamespaceUri = null;
+			mName = null;
+			mAttributeNames = null;
+			mAttributeValues = null;
+			mChildren = null;
+		}
+
+		public ElementSnapshot( Element element ) {
+
+			mNamespaceUri = element.getNamespaceURI();
+			mName = element.getNodeName();
+
+			NamedNodeMap attributes = element.getAttributes();
+			int length = attributes.getLength();
+			mAttributeNames = new String[length];
+			mAttributeValues = new String[length];
+
+			for ( int loop = 0; loop < length; loop++ ) {
+				Node attribute = attributes.item( loop );
+				mAttributeNames[loop] = attribute.getNodeName();
+				mAttributeValues[loop] = attribute.getNodeValue();
+			}
+
+			List<ElementSnapshot> children = CollectionUtils.newArrayList();
+			Element child = XmlUtils.getFirstChildElement( element );
+
+			while ( child != null ) {
+				children.add( new ElementSnapshot( child ) );
+				child = XmlUtils.getNextSiblingElement( child );
+			}
+
+			mChildren = children.toArray( new ElementSnapshot[children.size()] );
+		}
+
+		//
+		// Public methods
+		//
+
+		/**
+		 * Recreate this snapshot as a DOM Element, owned by (but not appended to) the given
+		 * Document.
+		 */
+
+		public Element toElement( Document document ) {
+
+			Element element = document.createElementNS( mNamespaceUri, mName );
+
+			for ( int loop = 0, length = mAttributeNames.length; loop < length; loop++ ) {
+				element.setAttribute( mAttributeNames[loop], mAttributeValues[loop] );
+			}
+
+			for ( ElementSnapshot child : mChildren ) {
+				element.appendChild( child.toElement( document ) );
+			}
+
+			return element;
+		}
+	}
 }
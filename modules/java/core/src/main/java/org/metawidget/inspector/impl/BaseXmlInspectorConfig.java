@@ -42,6 +42,12 @@ import org.metawidget.util.simple.ObjectUtils;
 public class BaseXmlInspectorConfig
 	implements NeedsResourceResolver {
 
+	//
+	// Private statics
+	//
+
+	private static final int	DEFAULT_MAXIMUM_SNAPSHOTS	= 1000;
+
 	//
 	// Private members
 	//
@@ -58,6 +64,8 @@ public class BaseXmlInspectorConfig
 
 	private PropertyStyle		mValidateAgainstClasses;
 
+	private int					mMaximumSnapshots			= DEFAULT_MAXIMUM_SNAPSHOTS;
+
 	//
 	// Public methods
 	//
@@ -165,6 +173,26 @@ public class BaseXmlInspectorConfig
 		return this;
 	}
 
+	/**
+	 * Sets the maximum number of inspection results to snapshot, so that subsequent inspections of
+	 * the same type and path need not read the XML again. If exceeded, the snapshots are cleared
+	 * and start again. Defaults to 1000.
+	 * <p>
+	 * Set to 0 to disable snapshotting, for example if wrapping the Inspector in a
+	 * <code>CachingInspector</code> instead.
+	 *
+	 * @return this, as part of a fluent interface
+	 */
+
+	public BaseXmlInspectorConfig setMaximumSnapshots( int maximumSnapshots ) {
+
+		mMaximumSnapshots = maximumSnapshots;
+
+		// Fluent interface
+
+		return this;
+	}
+
 	@Override
 	public boolean equals( Object that ) {
 
@@ -200,6 +228,10 @@ public class BaseXmlInspectorConfig
 			return false;
 		}
 
+		if ( mMaximumSnapshots != ( (BaseXmlInspectorConfig) that ).mMaximumSnapshots ) {
+			return false;
+		}
+
 		return true;
 	}
 
@@ -213,6 +245,7 @@ public class BaseXmlInspectorConfig
 		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mRestrictAgainstObject );
 		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mInferInheritanceHierarchy );
 		hashCode = 31 * hashCode + ObjectUtils.nullSafeHashCode( mValidateAgainstClasses );
+		hashCode = 31 * hashCode + mMaximumSnapshots;
 
 		return hashCode;
 	}
@@ -263,4 +296,9 @@ public class BaseXmlInspectorConfig
 
 		return mValidateAgainstClasses;
 	}
+
+	protected int getMaximumSnapshots() {
+
+		return mMaximumSnapshots;
+	}
 }
@@ -49,6 +49,26 @@ public abstract class BaseActionStyle
 		return getTraits( type );
 	}
 
+	/**
+	 * Gets the Actions for the given Class.
+	 * <p>
+	 * Equivalent to <code>getActions( clazz.getName() )</code>, but for when the caller already
+	 * has the Class (eg. when inspecting an Object). By default, simply calls
+	 * <code>getActions( clazz.getName() )</code>. Only if the subclass
+	 * <code>isInspectByClass</code> does this inspect the Class directly.
+	 *
+	 * @return the actions for the given Class. Never null.
+	 */
+
+	public Map<String, Action> getActions( Class<?> clazz ) {
+
+		if ( !isInspectByClass() ) {
+			return getActions( clazz.getName() );
+		}
+
+		return getTraits( clazz );
+	}
+
 	//
 	// Protected methods
 	//
@@ -59,9 +79,28 @@ public abstract class BaseActionStyle
 		return inspectActions( type );
 	}
 
+	@Override
+	protected final Map<String, Action> getUncachedTraits( Class<?> clazz ) {
+
+		return inspectActions( clazz );
+	}
+
 	/**
 	 * @return the actions of the given class. Never null.
 	 */
 
 	protected abstract Map<String, Action> inspectActions( String type );
+
+	/**
+	 * @return the actions of the given class. Never null.
+	 *         <p>
+	 *         Only called if the subclass <code>isInspectByClass</code>. Subclasses that override
+	 *         this method should also override <code>inspectActions( String )</code> to look
+	 *         up the Class and call this method.
+	 */
+
+	protected Map<String, Action> inspectActions( Class<?> clazz ) {
+
+		return inspectActions( clazz.getName() );
+	}
 }
@@ -55,18 +55,30 @@ public abstract class MethodActionStyle
 	@Override
 	protected Map<String, Action> inspectActions( String type ) {
 
+		Class<?> clazz = ClassUtils.niceForName( type );
+
+		if ( clazz == null ) {
+			return CollectionUtils.newTreeMap( StringUtils.CASE_INSENSITIVE_COMPARATOR );
+		}
+
+		return inspectActions( clazz );
+	}
+
+	/**
+	 * @return the actions of the given class. Never null.
+	 *         <p>
+	 *         Not called for subclasses, unless they override <code>isInspectByClass</code>.
+	 */
+
+	@Override
+	protected Map<String, Action> inspectActions( Class<?> clazz ) {
+
 		// TreeMap so that returns alphabetically sorted actions
 
 		Map<String, Action> actions = CollectionUtils.newTreeMap( StringUtils.CASE_INSENSITIVE_COMPARATOR );
 
 		// For each action...
 
-		Class<?> clazz = ClassUtils.niceForName( type );
-
-		if ( clazz == null ) {
-			return actions;
-		}
-
 		for ( Method method : clazz.getMethods() ) {
 			// ...that is a match...
 
@@ -16,12 +16,24 @@
 
 package org.metawidget.inspector.impl.propertystyle;
 
+import java.lang.annotation.Annotation;
+import java.util.Collections;
+import java.util.Map;
+
 import org.metawidget.inspector.impl.BaseTrait;
+import org.metawidget.util.CollectionUtils;
 
 /**
  * Convenience implementation for Properties.
  * <p>
- * Handles construction, and returning names and types.
+ * Handles construction, and returning names, types and annotations.
+ * <p>
+ * Annotation inspectors call <code>getAnnotation</code> many times per property (for example,
+ * <code>BeanValidationInspector</code> checks for <code>Digits</code>, <code>NotNull</code>,
+ * <code>Min</code>, <code>Max</code>, <code>Size</code> and <code>Pattern</code>), and each
+ * call may otherwise have to check several underlying fields and methods. So subclasses should
+ * call <code>indexAnnotations</code> once, at the end of their constructor, after which every
+ * <code>getAnnotation</code> is a single Map lookup.
  *
  * @author Richard Kennard
  */
@@ -34,7 +46,9 @@ public abstract class BaseProperty
 	// Private methods
 	//
 
-	private String	mType;
+	private String												mType;
+
+	private Map<Class<? extends Annotation>, Annotation>	mAnnotations	= Collections.emptyMap();
 
 	//
 	// Constructor
@@ -54,4 +68,37 @@ public abstract class BaseProperty
 
 		return mType;
 	}
+
+	public <T extends Annotation> T getAnnotation( Class<T> annotationClass ) {
+
+		return annotationClass.cast( mAnnotations.get( annotationClass ) );
+	}
+
+	//
+	// Protected methods
+	//
+
+	/**
+	 * Indexes the given annotations, for later use by <code>getAnnotation</code>.
+	 * <p>
+	 * Subclasses should pass the annotations of each underlying field or method in order of
+	 * precedence. If more than one defines an annotation of the same type, the first wins.
+	 */
+
+	protected void indexAnnotations( Annotation[]... annotations ) {
+
+		Map<Class<? extends Annotation>, Annotation> index = CollectionUtils.newHashMap();
+
+		for ( Annotation[] annotationArray : annotations ) {
+			for ( Annotation annotation : annotationArray ) {
+				Class<? extends Annotation> annotationType = annotation.annotationType();
+
+				if ( !index.containsKey( annotationType ) ) {
+					index.put( annotationType, annotation );
+				}
+			}
+		}
+
+		mAnnotations = Collections.unmodifiableMap( index );
+	}
 }
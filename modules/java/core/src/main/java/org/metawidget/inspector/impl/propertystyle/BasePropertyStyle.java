@@ -54,6 +54,26 @@ public abstract class BasePropertyStyle
 		return getTraits( type );
 	}
 
+	/**
+	 * Gets the Properties for the given Class.
+	 * <p>
+	 * Equivalent to <code>getProperties( clazz.getName() )</code>, but for when the caller already
+	 * has the Class (eg. when traversing an Object). By default, simply calls
+	 * <code>getProperties( clazz.getName() )</code>. Only if the subclass
+	 * <code>isInspectByClass</code> does this inspect the Class directly.
+	 *
+	 * @return the properties for the given Class. Never null.
+	 */
+
+	public Map<String, Property> getProperties( Class<?> clazz ) {
+
+		if ( !isInspectByClass() ) {
+			return getProperties( clazz.getName() );
+		}
+
+		return getTraits( clazz );
+	}
+
 	/**
 	 * Traverses the given Object heirarchy using properties of the given names.
 	 * <p>
@@ -114,7 +134,7 @@ public abstract class BasePropertyStyle
 
 			for ( int loop = 0; loop < length; loop++ ) {
 				String name = names[loop];
-				Property property = getProperties( traverse.getClass().getName() ).get( name );
+				Property property = getProperties( traverse.getClass() ).get( name );
 
 				if ( property == null || !property.isReadable() ) {
 					return new ValueAndDeclaredType( null, null );
@@ -172,9 +192,28 @@ public abstract class BasePropertyStyle
 		return inspectProperties( type );
 	}
 
+	@Override
+	protected final Map<String, Property> getUncachedTraits( Class<?> clazz ) {
+
+		return inspectProperties( clazz );
+	}
+
 	/**
 	 * @return the properties of the given class. Never null.
 	 */
 
 	protected abstract Map<String, Property> inspectProperties( String type );
+
+	/**
+	 * @return the properties of the given class. Never null.
+	 *         <p>
+	 *         Only called if the subclass <code>isInspectByClass</code>. Subclasses that override
+	 *         this method should also override <code>inspectProperties( String )</code> to look
+	 *         up the Class and call this method.
+	 */
+
+	protected Map<String, Property> inspectProperties( Class<?> clazz ) {
+
+		return inspectProperties( clazz.getName() );
+	}
 }
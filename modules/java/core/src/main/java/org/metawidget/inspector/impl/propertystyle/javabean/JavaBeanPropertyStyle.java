@@ -17,11 +17,13 @@
 package org.metawidget.inspector.impl.propertystyle.javabean;
 
 import java.lang.annotation.Annotation;
+import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.lang.reflect.Type;
 import java.text.MessageFormat;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
 
@@ -100,32 +102,31 @@ public class JavaBeanPropertyStyle
 	@Override
 	protected Map<String, Property> inspectProperties( String type ) {
 
-		// TreeMap so that returns alphabetically sorted properties
-
-		Map<String, Property> properties = CollectionUtils.newTreeMap( StringUtils.CASE_INSENSITIVE_COMPARATOR );
-
-		// Lookup fields, getters and setters
-
 		Class<?> clazz = ClassUtils.niceForName( type, mAdditionalClassLoader );
 
 		if ( clazz == null ) {
-			return properties;
+			return CollectionUtils.newTreeMap( StringUtils.CASE_INSENSITIVE_COMPARATOR );
 		}
 
-		lookupFields( properties, clazz );
-		lookupGetters( properties, clazz );
-		lookupSetters( properties, clazz );
+		return inspectJavaBeanProperties( clazz );
+	}
 
-		// Clean up explicit excludes
+	/**
+	 * Returns properties sorted by name.
+	 * <p>
+	 * Not called for subclasses, unless they override <code>isInspectByClass</code>.
+	 */
 
-		for ( Iterator<Map.Entry<String, Property>> i = properties.entrySet().iterator(); i.hasNext(); ) {
+	@Override
+	protected Map<String, Property> inspectProperties( Class<?> clazz ) {
 
-			if ( i.next().getValue() == null ) {
-				i.remove();
-			}
-		}
+		return inspectJavaBeanProperties( clazz );
+	}
 
-		return properties;
+	@Override
+	protected boolean isInspectByClass() {
+
+		return ( getClass() == JavaBeanPropertyStyle.class );
 	}
 
 	/**
@@ -434,6 +435,78 @@ public class JavaBeanPropertyStyle
 		return null;
 	}
 
+	//
+	// Private methods
+	//
+
+	private Map<String, Property> inspectJavaBeanProperties( Class<?> clazz ) {
+
+		// TreeMap so that returns alphabetically sorted properties
+
+		Map<String, Property> properties = CollectionUtils.newTreeMap( StringUtils.CASE_INSENSITIVE_COMPARATOR );
+
+		// Lookup fields, getters and setters
+
+		lookupFields( properties, clazz );
+		lookupGetters( properties, clazz );
+		lookupSetters( properties, clazz );
+
+		// Clean up explicit excludes
+
+		for ( Iterator<Map.Entry<String, Property>> i = properties.entrySet().iterator(); i.hasNext(); ) {
+
+			if ( i.next().getValue() == null ) {
+				i.remove();
+			}
+		}
+
+		return properties;
+	}
+
+	/**
+	 * Suppresses Java language access checks on the given accessor.
+	 * <p>
+	 * Properties are read and written far more often than they are looked up (eg. on every step of
+	 * a deep path traversal, and for every bound widget), so we do this once per property rather
+	 * than have <code>Method.invoke</code> and <code>Field.get</code> repeat the check on every
+	 * call. It also allows public accessors declared by non-public classes (eg. anonymous
+	 * classes) to be invoked. If this is not allowed (eg. inside an Applet), we fall back to
+	 * regular, checked reflection.
+	 */
+
+	/* package private */static void suppressAccessChecks( AccessibleObject accessor ) {
+
+		// (do not check isAccessible first: it is deprecated, and setAccessible on an already
+		// accessible accessor is harmless)
+
+		if ( accessor == null ) {
+			return;
+		}
+
+		try {
+			accessor.setAccessible( true );
+		} catch ( RuntimeException e ) {
+			// SecurityException (or, under a module system, InaccessibleObjectException). Fall
+			// back to checked reflection
+		}
+	}
+
+	/**
+	 * Gets the original annotations of the given method (see
+	 * <code>ClassUtils.getOriginalAnnotations</code>), suitable for
+	 * <code>BaseProperty.indexAnnotations</code>.
+	 */
+
+	/* package private */static Annotation[] getOriginalAnnotations( Method method ) {
+
+		if ( method == null ) {
+			return new Annotation[0];
+		}
+
+		Collection<Annotation> annotations = ClassUtils.getOriginalAnnotations( method ).values();
+		return annotations.toArray( new Annotation[annotations.size()] );
+	}
+
 	//
 	// Inner classes
 	//
@@ -464,6 +537,15 @@ public class JavaBeanPropertyStyle
 			super( name, field.getType().getName() );
 
 			mField = field;
+
+			// Never for final fields, because suppressing access checks would allow writing to
+			// them
+
+			if ( !Modifier.isFinal( mField.getModifiers() ) ) {
+				suppressAccessChecks( mField );
+			}
+
+			indexAnnotations( mField.getAnnotations() );
 		}
 
 		//
@@ -498,11 +580,6 @@ public class JavaBeanPropertyStyle
 			}
 		}
 
-		public <T extends Annotation> T getAnnotation( Class<T> annotation ) {
-
-			return mField.getAnnotation( annotation );
-		}
-
 		public String getGenericType() {
 
 			return ClassUtils.getGenericTypeAsString( mField.getGenericType() );
@@ -553,6 +630,22 @@ public class JavaBeanPropertyStyle
 			}
 
 			mPrivateField = privateField;
+
+			suppressAccessChecks( mReadMethod );
+			suppressAccessChecks( mWriteMethod );
+
+			// Read method's annotations take precedence over write method's, which take precedence
+			// over private field's
+
+			Annotation[] privateFieldAnnotations;
+
+			if ( mPrivateField == null ) {
+				privateFieldAnnotations = new Annotation[0];
+			} else {
+				privateFieldAnnotations = mPrivateField.getAnnotations();
+			}
+
+			indexAnnotations( getOriginalAnnotations( mReadMethod ), getOriginalAnnotations( mWriteMethod ), privateFieldAnnotations );
 		}
 
 		//
@@ -593,37 +686,6 @@ public class JavaBeanPropertyStyle
 			}
 		}
 
-		public <T extends Annotation> T getAnnotation( Class<T> annotationClass ) {
-
-			if ( mReadMethod != null ) {
-				T annotation = ClassUtils.getOriginalAnnotation( mReadMethod, annotationClass );
-
-				if ( annotation != null ) {
-					return annotation;
-				}
-			}
-
-			if ( mWriteMethod != null ) {
-				T annotation = ClassUtils.getOriginalAnnotation( mWriteMethod, annotationClass );
-
-				if ( annotation != null ) {
-					return annotation;
-				}
-			}
-
-			if ( mPrivateField != null ) {
-				T annotation = mPrivateField.getAnnotation( annotationClass );
-
-				if ( annotation != null ) {
-					return annotation;
-				}
-
-				return null;
-			}
-
-			return null;
-		}
-
 		public String getGenericType() {
 
 			Type type;
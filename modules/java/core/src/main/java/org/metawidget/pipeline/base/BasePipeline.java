@@ -360,14 +360,7 @@ public abstract class BasePipeline<W, C extends W, E, M extends C> {
 			throw new NullPointerException("No inspector configured");
 		}
 
-		Object inspectionResult;
-
-		if (mInspector instanceof DomInspector<?>) {
-			inspectionResult = ((DomInspector<?>) mInspector).inspectAsDom(
-					toInspect, type, names);
-		} else {
-			inspectionResult = mInspector.inspect(toInspect, type, names);
-		}
+		Object inspectionResult = runInspector(toInspect, type, names);
 
 		if (inspectionResult == null) {
 			return null;
@@ -519,6 +512,27 @@ public abstract class BasePipeline<W, C extends W, E, M extends C> {
 	// Protected methods
 	//
 
+	/**
+	 * Runs the Inspector (but not the InspectionResultProcessors).
+	 * <p>
+	 * This is a hook for subclasses wishing to inspect more efficiently,
+	 * such as by starting from a point further along the path.
+	 * 
+	 * @return may be a String of XML, or an E, depending on whether the
+	 *         Inspector was a DomInspector
+	 */
+
+	protected Object runInspector(Object toInspect, String type,
+			String... names) {
+
+		if (mInspector instanceof DomInspector<?>) {
+			return ((DomInspector<?>) mInspector).inspectAsDom(toInspect,
+					type, names);
+		}
+
+		return mInspector.inspect(toInspect, type, names);
+	}
+
 	/**
 	 * Build a compound widget by iterating through children of the given
 	 * element, calling <code>buildWidget</code> and <code>addWidget</code> on
@@ -681,13 +695,24 @@ public abstract class BasePipeline<W, C extends W, E, M extends C> {
 
 		Object inspectionResultToProcess = inspectionResult;
 
+		// Remember the last E we converted to a String. If non-DOM
+		// InspectionResultProcessors return that String unchanged (as most
+		// do, most of the time) we can reuse the E rather than re-parse it
+
+		E lastElement = null;
+		String lastElementAsString = null;
+
 		if (mInspectionResultProcessors != null) {
 			M pipelineOwner = getPipelineOwner();
 
 			for (InspectionResultProcessor<M> inspectionResultProcessor : mInspectionResultProcessors) {
 				if (inspectionResultProcessor instanceof DomInspectionResultProcessor<?, ?>) {
 					if (inspectionResultToProcess instanceof String) {
-						inspectionResultToProcess = stringToElement((String) inspectionResultToProcess);
+						if (inspectionResultToProcess.equals(lastElementAsString)) {
+							inspectionResultToProcess = lastElement;
+						} else {
+							inspectionResultToProcess = stringToElement((String) inspectionResultToProcess);
+						}
 					}
 					@SuppressWarnings("unchecked")
 					DomInspectionResultProcessor<E, M> domInspectionResultProcessor = (DomInspectionResultProcessor<E, M>) inspectionResultProcessor;
@@ -697,11 +722,18 @@ public abstract class BasePipeline<W, C extends W, E, M extends C> {
 							.processInspectionResultAsDom(
 									inspectionResultToProcessElement,
 									pipelineOwner, toInspect, type, names);
+
+					// (DomInspectionResultProcessors may modify in place)
+
+					lastElement = null;
+					lastElementAsString = null;
 				} else {
 					if (!(inspectionResultToProcess instanceof String)) {
 						@SuppressWarnings("unchecked")
 						E inspectionResultToProcessElement = (E) inspectionResultToProcess;
-						inspectionResultToProcess = elementToString(inspectionResultToProcessElement);
+						lastElement = inspectionResultToProcessElement;
+						lastElementAsString = elementToString(inspectionResultToProcessElement);
+						inspectionResultToProcess = lastElementAsString;
 					}
 					inspectionResultToProcess = inspectionResultProcessor
 							.processInspectionResult(
@@ -719,6 +751,10 @@ public abstract class BasePipeline<W, C extends W, E, M extends C> {
 		}
 
 		if (inspectionResultToProcess instanceof String) {
+			if (inspectionResultToProcess.equals(lastElementAsString)) {
+				return lastElement;
+			}
+
 			return stringToElement((String) inspectionResultToProcess);
 		}
 
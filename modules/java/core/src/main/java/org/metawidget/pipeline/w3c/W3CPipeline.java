@@ -16,10 +16,19 @@
 
 package org.metawidget.pipeline.w3c;
 
+import java.util.List;
 import java.util.Map;
 
 import org.metawidget.config.iface.ConfigReader;
 import org.metawidget.config.impl.BaseConfigReader;
+import org.metawidget.inspectionresult.InspectionResultElement;
+import org.metawidget.inspectionresultprocessor.iface.DomInspectionResultProcessor;
+import org.metawidget.inspectionresultprocessor.iface.InspectionResultProcessor;
+import org.metawidget.inspectionresultprocessor.iface.TreeInspectionResultProcessor;
+import org.metawidget.inspector.iface.DomInspector;
+import org.metawidget.inspector.iface.IncrementalInspector;
+import org.metawidget.inspector.iface.Inspector;
+import org.metawidget.inspector.iface.TreeInspector;
 import org.metawidget.pipeline.base.BasePipeline;
 import org.metawidget.util.XmlUtils;
 import org.metawidget.widgetprocessor.iface.WidgetProcessor;
@@ -49,6 +58,18 @@ public abstract class W3CPipeline<W, C extends W, M extends C>
 
 	private Object				mConfig;
 
+	/**
+	 * Path resolved by our parent pipeline (if any), as passed by <code>initNestedPipeline</code>.
+	 */
+
+	private ResolvedPath		mParentPath;
+
+	/**
+	 * Path resolved by our last inspection (if known).
+	 */
+
+	private ResolvedPath		mResolvedPath;
+
 	//
 	// Public methods
 	//
@@ -138,14 +159,151 @@ public abstract class W3CPipeline<W, C extends W, M extends C>
 	public void initNestedPipeline(BasePipeline<W, C, Element, M> nestedPipeline, Map<String, String> attributes ) {
 
 		((W3CPipeline<W,C,M>) nestedPipeline).setConfigReader( getConfigReader() );
+		((W3CPipeline<W,C,M>) nestedPipeline).mParentPath = mResolvedPath;
 		super.initNestedPipeline( nestedPipeline, attributes );
 	}
 
+	/**
+	 * Processes an inspection result obtained by calling the Inspector directly, rather than
+	 * through <code>inspectAsDom</code> (for example, on a background Thread).
+	 * <p>
+	 * Runs the InspectionResultProcessors, and updates the path used for incremental traversal, so
+	 * must be called on the same Thread as the rest of the pipeline.
+	 *
+	 * @param inspectionResult
+	 *            may be a String of XML, an Element or an InspectionResultElement, depending on
+	 *            whether the Inspector was a DomInspector or a TreeInspector
+	 */
+
+	public Element processDetachedInspectionResult( Object inspectionResult, Object toInspect, String type, String... names ) {
+
+		mParentPath = null;
+		mResolvedPath = null;
+
+		if ( ( names == null || names.length == 0 ) && getInspector() instanceof IncrementalInspector && ( (IncrementalInspector) getInspector() ).isIncremental() ) {
+			mResolvedPath = new ResolvedPath( toInspect, type );
+		}
+
+		return processInspectionResult( inspectionResult, toInspect, type, names );
+	}
+
 
 	//
 	// Protected methods
 	//
 
+	/**
+	 * Overridden to traverse incrementally.
+	 * <p>
+	 * Nested Metawidgets inspect the same <code>toInspect</code> as their parent, with one more name
+	 * on the path. If every Inspector is an <code>IncrementalInspector</code>, rather than
+	 * re-traverse the object graph from the root, start from the value our parent pipeline
+	 * resolved. Otherwise (for example if any Inspector looks up the path itself) always inspect the
+	 * full path.
+	 * <p>
+	 * The parent's value is only used for our first inspection, so that it cannot go stale.
+	 */
+
+	@Override
+	protected Object runInspector( Object toInspect, String type, String... names ) {
+
+		ResolvedPath parentPath = mParentPath;
+		mParentPath = null;
+		mResolvedPath = null;
+
+		if ( !( getInspector() instanceof IncrementalInspector ) ) {
+			return runInspectorAsTree( toInspect, type, names );
+		}
+
+		IncrementalInspector inspector = (IncrementalInspector) getInspector();
+
+		if ( !inspector.isIncremental() ) {
+			return runInspectorAsTree( toInspect, type, names );
+		}
+
+		// Resolving the root is trivial
+
+		if ( names == null || names.length == 0 ) {
+			mResolvedPath = new ResolvedPath( toInspect, type );
+			return runInspectorAsTree( toInspect, type, names );
+		}
+
+		if ( parentPath == null || !parentPath.isParentOf( toInspect, type, names ) ) {
+			return runInspectorAsTree( toInspect, type, names );
+		}
+
+		// Resolve one step further along our parent's path
+
+		Object parentValue = parentPath.getValue();
+		String parentType = parentValue.getClass().getName();
+		String lastName = names[names.length - 1];
+		mResolvedPath = parentPath.resolveChild( inspector.traverse( parentValue, parentType, lastName ), names );
+
+		// If the path is cyclic, fall back to a full traversal (which will detect, and log, the
+		// infinite recursion)
+
+		if ( mResolvedPath == null ) {
+			return runInspectorAsTree( toInspect, type, names );
+		}
+
+		// Inspect just the last step, starting from our parent's value
+
+		return runInspectorAsTree( parentValue, parentType, lastName );
+	}
+
+	/**
+	 * Overridden to support <code>TreeInspector</code>s and
+	 * <code>TreeInspectionResultProcessor</code>s.
+	 * <p>
+	 * If neither is in use, behaves exactly as <code>BasePipeline</code>. Otherwise the inspection
+	 * result is passed between them as an <code>InspectionResultElement</code>, and only converted
+	 * (to a DOM or a String) for those InspectionResultProcessors that need it, and for building
+	 * the widgets.
+	 *
+	 * @param inspectionResult
+	 *            may be a String of XML, an Element or an InspectionResultElement, depending on
+	 *            whether the Inspector was a DomInspector or a TreeInspector
+	 */
+
+	@Override
+	protected Element processInspectionResult( Object inspectionResult, Object toInspect, String type, String... names ) {
+
+		List<InspectionResultProcessor<M>> inspectionResultProcessors = getInspectionResultProcessors();
+
+		if ( !( inspectionResult instanceof InspectionResultElement ) && !hasTreeInspectionResultProcessor( inspectionResultProcessors ) ) {
+			return super.processInspectionResult( inspectionResult, toInspect, type, names );
+		}
+
+		Object inspectionResultToProcess = inspectionResult;
+
+		if ( inspectionResultProcessors != null ) {
+			M pipelineOwner = getPipelineOwner();
+
+			for ( InspectionResultProcessor<M> inspectionResultProcessor : inspectionResultProcessors ) {
+
+				if ( inspectionResultProcessor instanceof TreeInspectionResultProcessor<?> ) {
+					@SuppressWarnings( "unchecked" )
+					TreeInspectionResultProcessor<M> treeInspectionResultProcessor = (TreeInspectionResultProcessor<M>) inspectionResultProcessor;
+					inspectionResultToProcess = treeInspectionResultProcessor.processInspectionResultAsTree( toInspectionResultElement( inspectionResultToProcess ), pipelineOwner, toInspect, type, names );
+				} else if ( inspectionResultProcessor instanceof DomInspectionResultProcessor<?, ?> ) {
+					@SuppressWarnings( "unchecked" )
+					DomInspectionResultProcessor<Element, M> domInspectionResultProcessor = (DomInspectionResultProcessor<Element, M>) inspectionResultProcessor;
+					inspectionResultToProcess = domInspectionResultProcessor.processInspectionResultAsDom( toElement( inspectionResultToProcess ), pipelineOwner, toInspect, type, names );
+				} else {
+					inspectionResultToProcess = inspectionResultProcessor.processInspectionResult( toXml( inspectionResultToProcess ), pipelineOwner, toInspect, type, names );
+				}
+
+				// An InspectionResultProcessor could return null to cancel the inspection
+
+				if ( inspectionResultToProcess == null ) {
+					return null;
+				}
+			}
+		}
+
+		return toElement( inspectionResultToProcess );
+	}
+
 	@Override
 	protected void configure() {
 
@@ -236,4 +394,198 @@ public abstract class W3CPipeline<W, C extends W, M extends C>
 
 		return XmlUtils.getAttributesAsMap( element );
 	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Runs the Inspector as a <code>TreeInspector</code> if it is one (and not also a
+	 * <code>DomInspector</code>), so that its result reaches any
+	 * <code>TreeInspectionResultProcessor</code>s without conversion.
+	 */
+
+	private Object runInspectorAsTree( Object toInspect, String type, String... names ) {
+
+		Inspector inspector = getInspector();
+
+		if ( inspector instanceof TreeInspector && !( inspector instanceof DomInspector<?> ) ) {
+			return ( (TreeInspector) inspector ).inspectAsTree( toInspect, type, names );
+		}
+
+		return super.runInspector( toInspect, type, names );
+	}
+
+	private boolean hasTreeInspectionResultProcessor( List<InspectionResultProcessor<M>> inspectionResultProcessors ) {
+
+		if ( inspectionResultProcessors == null ) {
+			return false;
+		}
+
+		for ( InspectionResultProcessor<M> inspectionResultProcessor : inspectionResultProcessors ) {
+			if ( inspectionResultProcessor instanceof TreeInspectionResultProcessor<?> ) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * @param inspectionResult
+	 *            a String of XML, an Element or an InspectionResultElement
+	 */
+
+	private InspectionResultElement toInspectionResultElement( Object inspectionResult ) {
+
+		if ( inspectionResult instanceof InspectionResultElement ) {
+			return (InspectionResultElement) inspectionResult;
+		}
+
+		return XmlUtils.elementToInspectionResult( toElement( inspectionResult ) );
+	}
+
+	/**
+	 * @param inspectionResult
+	 *            a String of XML, an Element or an InspectionResultElement
+	 */
+
+	private Element toElement( Object inspectionResult ) {
+
+		if ( inspectionResult instanceof Element ) {
+			return (Element) inspectionResult;
+		}
+
+		if ( inspectionResult instanceof InspectionResultElement ) {
+			return XmlUtils.documentFromInspectionResult( (InspectionResultElement) inspectionResult ).getDocumentElement();
+		}
+
+		return stringToElement( (String) inspectionResult );
+	}
+
+	/**
+	 * @param inspectionResult
+	 *            a String of XML, an Element or an InspectionResultElement
+	 */
+
+	private String toXml( Object inspectionResult ) {
+
+		if ( inspectionResult instanceof String ) {
+			return (String) inspectionResult;
+		}
+
+		return elementToString( toElement( inspectionResult ) );
+	}
+
+	//
+	// Inner class
+	//
+
+	/**
+	 * A path that has been resolved against a runtime object graph: the <code>toInspect</code>,
+	 * type and names, and every value found along them.
+	 */
+
+	/* package private */static class ResolvedPath {
+
+		//
+		// Private members
+		//
+
+		private final Object	mToInspect;
+
+		private final String	mType;
+
+		private final String[]	mNames;
+
+		/**
+		 * Every value along the path, starting with <code>toInspect</code>.
+		 */
+
+		private final Object[]	mValues;
+
+		//
+		// Constructor
+		//
+
+		/**
+		 * Resolves the root of a path. This is trivial: the value is <code>toInspect</code>.
+		 */
+
+		public ResolvedPath( Object toInspect, String type ) {
+
+			this( toInspect, type, new String[0], new Object[] { toInspect } );
+		}
+
+		private ResolvedPath( Object toInspect, String type, String[] names, Object[] values ) {
+
+			mToInspect = toInspect;
+			mType = type;
+			mNames = names;
+			mValues = values;
+		}
+
+		//
+		// Public methods
+		//
+
+		/**
+		 * @return the value at the end of this path
+		 */
+
+		public Object getValue() {
+
+			return mValues[mValues.length - 1];
+		}
+
+		/**
+		 * @return true if the given <code>toInspect</code>, type and names are exactly one step
+		 *         further along this path
+		 */
+
+		public boolean isParentOf( Object toInspect, String type, String... names ) {
+
+			if ( getValue() == null ) {
+				return false;
+			}
+
+			if ( toInspect != mToInspect || type == null || !type.equals( mType ) ) {
+				return false;
+			}
+
+			if ( names.length != mNames.length + 1 ) {
+				return false;
+			}
+
+			for ( int loop = 0, length = mNames.length; loop < length; loop++ ) {
+				if ( !mNames[loop].equals( names[loop] ) ) {
+					return false;
+				}
+			}
+
+			return true;
+		}
+
+		/**
+		 * Extends this path by one step.
+		 *
+		 * @return the full path to the child, or null if the child's value already appears earlier
+		 *         along this path (ie. the path is cyclic)
+		 */
+
+		public ResolvedPath resolveChild( Object childValue, String... names ) {
+
+			for ( Object value : mValues ) {
+				if ( value == null ? childValue == null : value.equals( childValue ) ) {
+					return null;
+				}
+			}
+
+			Object[] values = new Object[mValues.length + 1];
+			System.arraycopy( mValues, 0, values, 0, mValues.length );
+			values[mValues.length] = childValue;
+
+			return new ResolvedPath( mToInspect, mType, names, values );
+		}
+	}
 }
@@ -17,12 +17,20 @@
 package org.metawidget.util;
 
 import java.lang.annotation.Annotation;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.security.AccessControlException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.metawidget.util.simple.StringUtils;
 
@@ -365,11 +373,15 @@ public final class ClassUtils {
 	 * <code>Class.forName</code> will always fail. To cope with this, we
 	 * record 'alien' ClassLoaders as and when we encounter them.
 	 * <p>
-	 * This is a static Set, rather than a ThreadLocal, because we couldn't find a good place to
+	 * This is a static List, rather than a ThreadLocal, because we couldn't find a good place to
 	 * reset the ThreadLocal.
+	 * <p>
+	 * The List is copy-on-write, because it is read far more often than it is written (every
+	 * <code>registerAlienClassLoader</code> and every <code>niceForName</code> miss). It holds
+	 * the ClassLoaders weakly, so as not to pin redeployed applications.
 	 */
 
-	/* package private */static final Set<ClassLoader>	ALIEN_CLASSLOADERS	= CollectionUtils.newHashSet();
+	/* package private */static final List<WeakReference<ClassLoader>>	ALIEN_CLASSLOADERS	= new CopyOnWriteArrayList<WeakReference<ClassLoader>>();
 
 	/**
 	 * When dealing with multiple isolated ClassLoaders, sometimes the object being inspected may
@@ -396,8 +408,44 @@ public final class ClassUtils {
 			return;
 		}
 
+		// Already registered? (checked without locking, as this is the common case)
+
+		if ( isAlienClassLoader( classLoader ) ) {
+			return;
+		}
+
 		synchronized ( ALIEN_CLASSLOADERS ) {
-			ALIEN_CLASSLOADERS.add( classLoader );
+
+			if ( isAlienClassLoader( classLoader ) ) {
+				return;
+			}
+
+			// Purge any ClassLoaders that have since been garbage collected
+
+			for ( WeakReference<ClassLoader> alienClassLoader : ALIEN_CLASSLOADERS ) {
+				if ( alienClassLoader.get() == null ) {
+					ALIEN_CLASSLOADERS.remove( alienClassLoader );
+				}
+			}
+
+			ALIEN_CLASSLOADERS.add( new WeakReference<ClassLoader>( classLoader ) );
+
+			// Classes previously not found may now be found
+
+			clearNiceForNameCache();
+		}
+	}
+
+	/**
+	 * SPI for tools such as <a href="http://code.google.com/p/fakereplace">FakeReplace</a> (or
+	 * dynamic languages such as Groovy) that define new classes at runtime, and so need to clear
+	 * <code>niceForName</code>'s cache of classes not found.
+	 */
+
+	public static void clearNiceForNameCache() {
+
+		synchronized ( FOR_NAME_CACHES ) {
+			FOR_NAME_CACHES.clear();
 		}
 	}
 
@@ -429,6 +477,13 @@ public final class ClassUtils {
 	 * where, say, metawidget-core and metawidget-annotations are located in the EJB/lib and the
 	 * other modules are located in the WAR/lib). If that fails, it tries ClassUtils' ClassLoader.
 	 * If that fails, it tries our alien ClassLoader.
+	 * <p>
+	 * Results, including classes that could not be found, are cached per ClassLoader. This is
+	 * important because this method is called for nearly every type during inspection, and
+	 * searching for a missing class (eg. a symbolic type such as 'Login Screen') throws a
+	 * <code>ClassNotFoundException</code> from every ClassLoader. The cache holds both ClassLoaders
+	 * and classes weakly, and is cleared whenever a new alien ClassLoader is registered (see also
+	 * <code>clearNiceForNameCache</code>).
 	 *
 	 * @param classLoader
 	 *            the specific ClassLoader to use to try and load this class. In general clients
@@ -450,57 +505,40 @@ public final class ClassUtils {
 			classNameToUse = classNameToUse.substring( 0, indexOf );
 		}
 
-		// Try given ClassLoader (may be none)
+		// Cached?
 
-		try {
-			if ( classLoader != null ) {
-				return Class.forName( classNameToUse, false, classLoader );
-			}
-		} catch ( ClassNotFoundException e ) {
+		ClassLoader threadClassLoader = Thread.currentThread().getContextClassLoader();
+		ConcurrentMap<String, Object> cache = getNiceForNameCache( classLoader, threadClassLoader );
+		Object cached = cache.get( classNameToUse );
 
-			// Fall through and try other ClassLoaders
+		if ( cached == CLASS_NOT_FOUND ) {
+			return null;
 		}
 
-		// Try given Thread ClassLoader (may be none, such as on Android)
+		if ( cached != null ) {
+			@SuppressWarnings( "unchecked" )
+			Class<?> clazz = ( (WeakReference<Class<?>>) cached ).get();
 
-		ClassLoader threadClassLoader = Thread.currentThread().getContextClassLoader();
-
-		try {
-			if ( threadClassLoader != null && !threadClassLoader.equals( classLoader ) ) {
-				return Class.forName( classNameToUse, false, threadClassLoader );
+			if ( clazz != null ) {
+				return clazz;
 			}
-		} catch ( ClassNotFoundException e ) {
-
-			// Fall through and try other ClassLoaders
 		}
 
-		// Try our own ClassLoader (if different to threadClassLoader)
-
-		ClassLoader thisClassLoader = ClassUtils.class.getClassLoader();
+		// Lookup, and cache the result
 
-		try {
-			if ( !thisClassLoader.equals( threadClassLoader ) && !thisClassLoader.equals( classLoader ) ) {
-				return Class.forName( classNameToUse, false, thisClassLoader );
-			}
-		} catch ( ClassNotFoundException e ) {
+		Class<?> clazz = uncachedForName( classNameToUse, classLoader, threadClassLoader );
 
-			// Fall through and try other ClassLoaders
+		if ( cache.size() >= FOR_NAME_CACHE_SIZE ) {
+			cache.clear();
 		}
 
-		// Try our alien ClassLoaders
-
-		synchronized ( ALIEN_CLASSLOADERS ) {
-			for ( ClassLoader alienClassLoader : ALIEN_CLASSLOADERS ) {
-				try {
-					return Class.forName( classNameToUse, false, alienClassLoader );
-				} catch ( ClassNotFoundException e ) {
-
-					// Fall through and try other ClassLoaders
-				}
-			}
+		if ( clazz == null ) {
+			cache.put( classNameToUse, CLASS_NOT_FOUND );
+		} else {
+			cache.put( classNameToUse, new WeakReference<Class<?>>( clazz ) );
 		}
 
-		return getPrimitive( classNameToUse );
+		return clazz;
 	}
 
 	public static boolean isPrimitive( String className ) {
@@ -570,31 +608,72 @@ public final class ClassUtils {
 
 	public static <T extends Annotation> T getOriginalAnnotation( Method method, Class<T> annotationClass ) {
 
-		Map<Class<? extends Annotation>, Annotation> cache = ORIGINAL_ANNOTATION_CACHE.get( method );
+		return annotationClass.cast( getOriginalAnnotations( method ).get( annotationClass ) );
+	}
 
-		if ( cache == null ) {
-			cache = CollectionUtils.newWeakHashMap();
-			ORIGINAL_ANNOTATION_CACHE.put( method, cache );
-		}
+	/**
+	 * Gets all the original annotations defined on the given method, keyed by annotation type.
+	 * <p>
+	 * Equivalent to calling <code>getOriginalAnnotation</code> for every possible annotationClass,
+	 * but in one (cached) pass. We found <code>getOriginalAnnotation</code> to be around 10x slower
+	 * that just <code>method.getAnnotation</code>, so we cache it.
+	 *
+	 * @return an unmodifiable Map. Never null
+	 */
 
-		// Must synchronize, as WeakHashMap is not Thread safe and WeakHashMap:383 contains an
-		// infinite while: while (e != null && !(e.hash == h && eq(k, e.get())))
+	public static Map<Class<? extends Annotation>, Annotation> getOriginalAnnotations( Method method ) {
 
-		synchronized ( cache ) {
+		SoftReference<Map<Class<? extends Annotation>, Annotation>> reference = ORIGINAL_ANNOTATION_CACHE.get( new WeakMethodKey( method, null ) );
 
-			// Use 'containsKey', because we may cache it as being 'null'
+		if ( reference != null ) {
+			Map<Class<? extends Annotation>, Annotation> annotations = reference.get();
 
-			if ( cache.containsKey( annotationClass ) ) {
-				@SuppressWarnings( "unchecked" )
-				T annotation = (T) cache.get( annotationClass );
-				return annotation;
+			if ( annotations != null ) {
+				ORIGINAL_ANNOTATION_CACHE_HITS.incrementAndGet();
+				return annotations;
 			}
+		}
 
-			T annotation = internalGetOriginalAnnotation( method, annotationClass );
-			cache.put( annotationClass, annotation );
+		ORIGINAL_ANNOTATION_CACHE_MISSES.incrementAndGet();
 
-			return annotation;
+		// Expunge any Methods that have since been garbage collected
+
+		Reference<? extends Method> stale = ORIGINAL_ANNOTATION_CACHE_QUEUE.poll();
+
+		while ( stale != null ) {
+			ORIGINAL_ANNOTATION_CACHE.remove( stale );
+			stale = ORIGINAL_ANNOTATION_CACHE_QUEUE.poll();
 		}
+
+		// (two Threads may race to compute the same Method, but they will arrive at the same answer)
+
+		Map<Class<? extends Annotation>, Annotation> annotations = internalGetOriginalAnnotations( method );
+		ORIGINAL_ANNOTATION_CACHE.put( new WeakMethodKey( method, ORIGINAL_ANNOTATION_CACHE_QUEUE ), new SoftReference<Map<Class<? extends Annotation>, Annotation>>( annotations ) );
+
+		return annotations;
+	}
+
+	/**
+	 * Number of <code>getOriginalAnnotation(s)</code> calls served from the cache.
+	 * <p>
+	 * Useful for tuning and monitoring.
+	 */
+
+	public static long getOriginalAnnotationCacheHits() {
+
+		return ORIGINAL_ANNOTATION_CACHE_HITS.get();
+	}
+
+	/**
+	 * Number of <code>getOriginalAnnotation(s)</code> calls that had to (re)compute a method's
+	 * annotations.
+	 * <p>
+	 * Useful for tuning and monitoring.
+	 */
+
+	public static long getOriginalAnnotationCacheMisses() {
+
+		return ORIGINAL_ANNOTATION_CACHE_MISSES.get();
 	}
 
 	/**
@@ -744,14 +823,55 @@ public final class ClassUtils {
 	// Private statics
 	//
 
-	private static final Map<Method, Map<Class<? extends Annotation>, Annotation>>	ORIGINAL_ANNOTATION_CACHE	= CollectionUtils.newHashMap();
+	/**
+	 * Cache for <code>getOriginalAnnotations</code>.
+	 * <p>
+	 * Read without locking. Each value holds <em>all</em> the original annotations of its Method,
+	 * computed in one pass, so we never need to update a value once cached.
+	 * <p>
+	 * Keyed weakly by Method. The values reference annotation instances, and so their classes and
+	 * ClassLoaders, so strongly held values would pin a redeployed application even once its
+	 * Methods were no longer used. Instead, the values are held softly, so that they (and the
+	 * application) can still be reclaimed.
+	 */
+
+	private static final ConcurrentMap<WeakMethodKey, SoftReference<Map<Class<? extends Annotation>, Annotation>>>	ORIGINAL_ANNOTATION_CACHE			= CollectionUtils.newConcurrentHashMap();
+
+	private static final ReferenceQueue<Method>																		ORIGINAL_ANNOTATION_CACHE_QUEUE		= new ReferenceQueue<Method>();
+
+	private static final AtomicLong																					ORIGINAL_ANNOTATION_CACHE_HITS		= new AtomicLong();
+
+	private static final AtomicLong																					ORIGINAL_ANNOTATION_CACHE_MISSES	= new AtomicLong();
+
+	/**
+	 * Maximum number of class names cached by <code>niceForName</code>, per pair of ClassLoaders.
+	 * If exceeded, the cache is cleared and starts again.
+	 */
+
+	private static final int														FOR_NAME_CACHE_SIZE			= 1000;
 
 	/**
-	 * We found <code>getOriginalAnnotation</code> to be around 10x slower that just
-	 * <code>method.getAnnotation</code>, so we cache it.
+	 * Marker for classes <code>niceForName</code> could not find.
 	 */
 
-	private static <T extends Annotation> T internalGetOriginalAnnotation( Method method, Class<T> annotationClass ) {
+	private static final Object														CLASS_NOT_FOUND				= new Object();
+
+	/**
+	 * <code>niceForName</code> caches, one per pair of ClassLoaders. There will only ever be a
+	 * handful, so a copy-on-write List is simpler (and faster to read) than a Map.
+	 */
+
+	private static final List<NiceForNameCache>										FOR_NAME_CACHES				= new CopyOnWriteArrayList<NiceForNameCache>();
+
+	/**
+	 * Gets all the original annotations of the given method, in one pass.
+	 * <p>
+	 * Equivalent to calling <code>getOriginalAnnotation</code> for every possible annotationClass:
+	 * annotations on the method itself (or, if it has none, on the original version of the method
+	 * further up the class heirarchy) take precedence over those on its interfaces.
+	 */
+
+	private static Map<Class<? extends Annotation>, Annotation> internalGetOriginalAnnotations( Method method ) {
 
 		Method methodToUse = method;
 		String name = methodToUse.getName();
@@ -781,35 +901,145 @@ public final class ClassUtils {
 			}
 		}
 
-		// If this method has the annotation, return it
+		// Annotations on this method come first...
 
-		if ( methodToUse != null ) {
-			T annotation = methodToUse.getAnnotation( annotationClass );
+		Map<Class<? extends Annotation>, Annotation> annotations = CollectionUtils.newHashMap();
 
-			if ( annotation != null ) {
-				return annotation;
+		if ( methodToUse != null ) {
+			for ( Annotation annotation : methodToUse.getAnnotations() ) {
+				annotations.put( annotation.annotationType(), annotation );
 			}
 		}
 
-		// Try interfaces too, in case annotation is defined there
+		// ...then try interfaces too, in case annotations are defined there
 
 		for ( Class<?> iface : method.getDeclaringClass().getInterfaces() ) {
 
 			try {
 				methodToUse = iface.getDeclaredMethod( name, parameterTypes );
-				T annotation = methodToUse.getAnnotation( annotationClass );
 
-				if ( annotation != null ) {
-					return annotation;
+				for ( Annotation annotation : methodToUse.getAnnotations() ) {
+					if ( !annotations.containsKey( annotation.annotationType() ) ) {
+						annotations.put( annotation.annotationType(), annotation );
+					}
 				}
 			} catch ( Exception e ) {
 				// Not in this interface
 			}
 		}
 
-		// No annotation found
+		if ( annotations.isEmpty() ) {
+			return Collections.emptyMap();
+		}
+
+		return Collections.unmodifiableMap( annotations );
+	}
+
+	private static Class<?> uncachedForName( String classNameToUse, ClassLoader classLoader, ClassLoader threadClassLoader ) {
 
-		return null;
+		// Try given ClassLoader (may be none)
+
+		try {
+			if ( classLoader != null ) {
+				return Class.forName( classNameToUse, false, classLoader );
+			}
+		} catch ( ClassNotFoundException e ) {
+
+			// Fall through and try other ClassLoaders
+		}
+
+		// Try Thread ClassLoader (may be none, such as on Android)
+
+		try {
+			if ( threadClassLoader != null && !threadClassLoader.equals( classLoader ) ) {
+				return Class.forName( classNameToUse, false, threadClassLoader );
+			}
+		} catch ( ClassNotFoundException e ) {
+
+			// Fall through and try other ClassLoaders
+		}
+
+		// Try our own ClassLoader (if different to threadClassLoader)
+
+		ClassLoader thisClassLoader = ClassUtils.class.getClassLoader();
+
+		try {
+			if ( !thisClassLoader.equals( threadClassLoader ) && !thisClassLoader.equals( classLoader ) ) {
+				return Class.forName( classNameToUse, false, thisClassLoader );
+			}
+		} catch ( ClassNotFoundException e ) {
+
+			// Fall through and try other ClassLoaders
+		}
+
+		// Try our alien ClassLoaders
+
+		for ( WeakReference<ClassLoader> alienClassLoaderReference : ALIEN_CLASSLOADERS ) {
+
+			ClassLoader alienClassLoader = alienClassLoaderReference.get();
+
+			if ( alienClassLoader == null ) {
+				continue;
+			}
+
+			try {
+				return Class.forName( classNameToUse, false, alienClassLoader );
+			} catch ( ClassNotFoundException e ) {
+
+				// Fall through and try other ClassLoaders
+			}
+		}
+
+		return getPrimitive( classNameToUse );
+	}
+
+	private static boolean isAlienClassLoader( ClassLoader classLoader ) {
+
+		for ( WeakReference<ClassLoader> alienClassLoader : ALIEN_CLASSLOADERS ) {
+			if ( classLoader.equals( alienClassLoader.get() ) ) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Gets the <code>niceForName</code> cache for the given pair of ClassLoaders (either of which
+	 * may be null).
+	 */
+
+	private static ConcurrentMap<String, Object> getNiceForNameCache( ClassLoader classLoader, ClassLoader threadClassLoader ) {
+
+		// Already have one? (checked without locking, as this is the common case)
+
+		for ( NiceForNameCache cache : FOR_NAME_CACHES ) {
+			if ( cache.isFor( classLoader, threadClassLoader ) ) {
+				return cache.getClasses();
+			}
+		}
+
+		synchronized ( FOR_NAME_CACHES ) {
+
+			for ( NiceForNameCache cache : FOR_NAME_CACHES ) {
+				if ( cache.isFor( classLoader, threadClassLoader ) ) {
+					return cache.getClasses();
+				}
+			}
+
+			// Purge any caches whose ClassLoaders have since been garbage collected
+
+			for ( NiceForNameCache cache : FOR_NAME_CACHES ) {
+				if ( cache.isStale() ) {
+					FOR_NAME_CACHES.remove( cache );
+				}
+			}
+
+			NiceForNameCache cache = new NiceForNameCache( classLoader, threadClassLoader );
+			FOR_NAME_CACHES.add( cache );
+
+			return cache.getClasses();
+		}
 	}
 
 	private static Class<?> getPrimitive( String className ) {
@@ -857,4 +1087,144 @@ public final class ClassUtils {
 
 		// Can never be called
 	}
+
+	//
+	// Inner classes
+	//
+
+	/**
+	 * Cache of <code>niceForName</code> results for a given ClassLoader and Thread ClassLoader.
+	 * <p>
+	 * Holds the ClassLoaders weakly, and the classes weakly (so that they do not, in turn, pin
+	 * their ClassLoaders).
+	 */
+
+	private static class NiceForNameCache {
+
+		//
+		// Private members
+		//
+
+		private final WeakReference<ClassLoader>	mClassLoader;
+
+		private final WeakReference<ClassLoader>	mThreadClassLoader;
+
+		/**
+		 * Class names to <code>WeakReference&lt;Class&gt;</code>s, or to <code>CLASS_NOT_FOUND</code>.
+		 */
+
+		private final ConcurrentMap<String, Object>	mClasses	= CollectionUtils.newConcurrentHashMap();
+
+		//
+		// Constructor
+		//
+
+		public NiceForNameCache( ClassLoader classLoader, ClassLoader threadClassLoader ) {
+
+			mClassLoader = newWeakReference( classLoader );
+			mThreadClassLoader = newWeakReference( threadClassLoader );
+		}
+
+		//
+		// Public methods
+		//
+
+		public boolean isFor( ClassLoader classLoader, ClassLoader threadClassLoader ) {
+
+			return isFor( mClassLoader, classLoader ) && isFor( mThreadClassLoader, threadClassLoader );
+		}
+
+		/**
+		 * @return true if either of this cache's ClassLoaders has been garbage collected
+		 */
+
+		public boolean isStale() {
+
+			return ( mClassLoader != null && mClassLoader.get() == null ) || ( mThreadClassLoader != null && mThreadClassLoader.get() == null );
+		}
+
+		public ConcurrentMap<String, Object> getClasses() {
+
+			return mClasses;
+		}
+
+		//
+		// Private methods
+		//
+
+		private static WeakReference<ClassLoader> newWeakReference( ClassLoader classLoader ) {
+
+			if ( classLoader == null ) {
+				return null;
+			}
+
+			return new WeakReference<ClassLoader>( classLoader );
+		}
+
+		private static boolean isFor( WeakReference<ClassLoader> reference, ClassLoader classLoader ) {
+
+			if ( reference == null ) {
+				return ( classLoader == null );
+			}
+
+			return ( classLoader != null && reference.get() == classLoader );
+		}
+	}
+
+	/**
+	 * Weak reference to a Method, suitable for use as a key in a ConcurrentMap.
+	 * <p>
+	 * Two keys are equal if they are the same key, or if both their Methods are still reachable
+	 * and equal (so that a lookup key matches the stored key).
+	 */
+
+	private static class WeakMethodKey
+		extends WeakReference<Method> {
+
+		//
+		// Private members
+		//
+
+		private final int	mHashCode;
+
+		//
+		// Constructor
+		//
+
+		public WeakMethodKey( Method method, ReferenceQueue<Method> queue ) {
+
+			super( method, queue );
+			mHashCode = method.hashCode();
+		}
+
+		//
+		// Public methods
+		//
+
+		@Override
+		public boolean equals( Object that ) {
+
+			if ( this == that ) {
+				return true;
+			}
+
+			if ( !( that instanceof WeakMethodKey ) ) {
+				return false;
+			}
+
+			Method method = get();
+
+			if ( method == null ) {
+				return false;
+			}
+
+			return method.equals( ( (WeakMethodKey) that ).get() );
+		}
+
+		@Override
+		public int hashCode() {
+
+			return mHashCode;
+		}
+	}
 }
@@ -18,20 +18,34 @@ package org.metawidget.util;
 
 import static org.metawidget.inspector.InspectionResultConstants.*;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.StringReader;
+import java.io.Writer;
+import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
+import javax.xml.XMLConstants;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
 
+import org.metawidget.inspectionresult.InspectionResultElement;
+import org.metawidget.inspector.InspectionResultConstants;
 import org.metawidget.util.simple.StringUtils;
 import org.w3c.dom.DOMException;
 import org.w3c.dom.Document;
@@ -388,32 +402,104 @@ public final class XmlUtils {
 		}
 
 		try {
-			synchronized ( DOCUMENT_BUILDER ) {
-				return DOCUMENT_BUILDER.parse( new InputSource( new StringReader( xml ) ) );
-			}
+			return parse( new InputSource( new StringReader( xml ) ) );
 		} catch ( Exception e ) {
 			throw new RuntimeException( e );
 		}
 	}
 
 	/**
-	 * Creates a new Document built from a shared, no-external-connection-making DocumentBuilder
+	 * Creates a new Document built from a per-thread, no-external-connection-making DocumentBuilder
 	 * created by a namespace-aware, comment-ignoring, whitespace-ignoring DocumentBuilderFactory.
+	 * <p>
+	 * DocumentBuilders are not thread-safe, but are expensive to create. Rather than share a single
+	 * DocumentBuilder behind a lock (which serializes every inspection in the JVM), each thread
+	 * lazily creates and reuses its own.
 	 */
 
 	public static Document newDocument() {
 
-		synchronized ( DOCUMENT_BUILDER ) {
-			return DOCUMENT_BUILDER.newDocument();
-		}
+		return DOCUMENT_BUILDER.get().newDocument();
 	}
 
 	public static Document parse( InputStream stream )
 		throws IOException, SAXException {
 
-		synchronized ( DOCUMENT_BUILDER ) {
-			return DOCUMENT_BUILDER.parse( stream );
+		return parse( new InputSource( stream ) );
+	}
+
+	private static Document parse( InputSource inputSource )
+		throws IOException, SAXException {
+
+		DocumentBuilder documentBuilder = DOCUMENT_BUILDER.get();
+		boolean success = false;
+
+		// Only set our EntityResolver for the duration of the parse (see DocumentBuilderThreadLocal)
+
+		documentBuilder.setEntityResolver( NOP_ENTITY_RESOLVER );
+
+		try {
+			Document document = documentBuilder.parse( inputSource );
+			success = true;
+			return document;
+		} finally {
+			documentBuilder.setEntityResolver( null );
+
+			// Discard the DocumentBuilder after a failed parse, rather than rely on it being
+			// left in a reusable state (DocumentBuilder.reset is not supported everywhere)
+
+			if ( !success ) {
+				DOCUMENT_BUILDER.remove();
+			}
+		}
+	}
+
+	/**
+	 * Creates a new Document from the given <code>InspectionResultElement</code> tree. Useful for
+	 * passing the result of a <code>TreeInspector</code> to code that works with DOMs.
+	 * <p>
+	 * Elements are created in the inspection result namespace.
+	 */
+
+	public static Document documentFromInspectionResult( InspectionResultElement inspectionResult ) {
+
+		if ( inspectionResult == null ) {
+			return null;
+		}
+
+		Document document = newDocument();
+		document.appendChild( inspectionResultToElement( document, inspectionResult ) );
+
+		return document;
+	}
+
+	/**
+	 * Creates an <code>InspectionResultElement</code> tree from the given DOM Element and all its
+	 * child Elements. Useful for passing a DOM to a <code>TreeInspectionResultProcessor</code>.
+	 */
+
+	public static InspectionResultElement elementToInspectionResult( Element element ) {
+
+		// (preserve attribute order)
+
+		NamedNodeMap nodes = element.getAttributes();
+		int length = nodes.getLength();
+		Map<String, String> attributes = CollectionUtils.newLinkedHashMap();
+
+		for ( int loop = 0; loop < length; loop++ ) {
+			Node attributeNode = nodes.item( loop );
+			attributes.put( attributeNode.getNodeName(), attributeNode.getNodeValue() );
+		}
+
+		List<InspectionResultElement> children = CollectionUtils.newArrayList();
+		Element child = getFirstChildElement( element );
+
+		while ( child != null ) {
+			children.add( elementToInspectionResult( child ) );
+			child = getNextSiblingElement( child );
 		}
+
+		return new InspectionResultElement( element.getNodeName(), attributes, children.toArray( new InspectionResultElement[children.size()] ) );
 	}
 
 	/**
@@ -462,6 +548,9 @@ public final class XmlUtils {
 	 * element. The child element ordering of the first element is respected.
 	 * <p>
 	 * Child elements are matched recursively on childAttributeToCombineOn.
+	 * <p>
+	 * The master's child elements are indexed once per call, so combining is linear (rather than
+	 * quadratic) in the number of child elements.
 	 */
 
 	public static void combineElements( Element master, Element toAdd, String topLevelAttributeToCombineOn, String childAttributeToCombineOn ) {
@@ -488,15 +577,14 @@ public final class XmlUtils {
 
 		// Combine child elements: for each child...
 
-		NodeList childrenToAdd = toAdd.getChildNodes();
-		NodeList masterChildren = master.getChildNodes();
-
-		Set<String> childNamesAdded = CollectionUtils.newHashSet();
+		Map<String, Element> masterChildrenByName = null;
+		Set<String> childNamesAdded = null;
 
 		Node nodeLastMasterCombinePoint = null;
+		int addLoop = 0;
 
-		outerLoop: for ( int addLoop = 0, addLength = childrenToAdd.getLength(); addLoop < addLength; addLoop++ ) {
-			Node nodeChildToAdd = childrenToAdd.item( addLoop );
+		for ( Node nodeChildToAdd = toAdd.getFirstChild(); nodeChildToAdd != null; nodeChildToAdd = nodeChildToAdd.getNextSibling() ) {
+			addLoop++;
 
 			if ( !( nodeChildToAdd instanceof Element ) ) {
 				continue;
@@ -506,7 +594,14 @@ public final class XmlUtils {
 			String childToAddName = childToAdd.getAttribute( topLevelAttributeToCombineOn );
 
 			if ( childToAddName == null || "".equals( childToAddName ) ) {
-				throw new RuntimeException( "Child node #" + ( addLoop + 1 ) + " has no @" + topLevelAttributeToCombineOn + ": " + nodeToString( childToAdd, false ) );
+				throw new RuntimeException( "Child node #" + addLoop + " has no @" + topLevelAttributeToCombineOn + ": " + nodeToString( childToAdd, false ) );
+			}
+
+			// (index lazily, as many elements have no children)
+
+			if ( childNamesAdded == null ) {
+				childNamesAdded = CollectionUtils.newHashSet();
+				masterChildrenByName = indexChildElements( master, topLevelAttributeToCombineOn );
 			}
 
 			if ( !childNamesAdded.add( childToAddName ) ) {
@@ -515,37 +610,27 @@ public final class XmlUtils {
 
 			// ...find one with the same @name in the 'master'...
 
-			for ( int masterLoop = 0, masterLength = masterChildren.getLength(); masterLoop < masterLength; masterLoop++ ) {
-				Node nodeMasterChild = masterChildren.item( masterLoop );
-
-				if ( !( nodeMasterChild instanceof Element ) ) {
-					continue;
-				}
-
-				Element masterChild = (Element) nodeMasterChild;
-				String masterChildName = masterChild.getAttribute( topLevelAttributeToCombineOn );
+			Element masterChild = masterChildrenByName.get( childToAddName );
 
-				if ( !childToAddName.equals( masterChildName ) ) {
-					continue;
-				}
+			if ( masterChild != null ) {
 
 				String nodeNameInMaster = masterChild.getNodeName();
 				String nodeNameInAdd = childToAdd.getNodeName();
 
 				if ( !nodeNameInMaster.equals( nodeNameInAdd ) ) {
-					throw new RuntimeException( "Matching elements named '" + masterChildName + "', but existing one is a '" + nodeNameInMaster + "' whilst new one is a '" + nodeNameInAdd + "'" );
+					throw new RuntimeException( "Matching elements named '" + childToAddName + "', but existing one is a '" + nodeNameInMaster + "' whilst new one is a '" + nodeNameInAdd + "'" );
 				}
 
 				// ...and combine them
 
-				if ( masterLoop == masterLength - 1 ) {
+				if ( masterChild.getNextSibling() == null ) {
 					nodeLastMasterCombinePoint = null;
 				} else {
 					nodeLastMasterCombinePoint = masterChild;
 				}
 
 				combineElements( masterChild, childToAdd, childAttributeToCombineOn, childAttributeToCombineOn );
-				continue outerLoop;
+				continue;
 			}
 
 			// If no such child exists, add one either immediately after the
@@ -575,121 +660,256 @@ public final class XmlUtils {
 
 	public static String elementToJsonSchema( Element inspectionResult ) {
 
-		StringBuilder jsonBuilder = new StringBuilder();
+		StringBuilder builder = new StringBuilder();
+
+		try {
+			elementToJsonSchema( inspectionResult, builder );
+		} catch ( IOException e ) {
+			// Should never happen with a StringBuilder
+
+			throw new RuntimeException( e );
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Write the given Element as a JSON Schema, encoded in UTF-8, to the given OutputStream.
+	 * <p>
+	 * The OutputStream is flushed but not closed.
+	 */
+
+	public static void elementToJsonSchema( Element inspectionResult, OutputStream out )
+		throws IOException {
+
+		Writer writer = new BufferedWriter( new OutputStreamWriter( out, "UTF-8" ) );
+		elementToJsonSchema( inspectionResult, writer );
+		writer.flush();
+	}
+
+	/**
+	 * Write the given Element as a JSON Schema to the given Appendable (eg. a
+	 * <code>java.io.Writer</code>).
+	 * <p>
+	 * This is the streaming version of <code>elementToJsonSchema( Element )</code>. It writes as it
+	 * goes, rather than assembling the whole JSON Schema in memory, so is better suited to serving
+	 * JSON Schemas at high volume (eg. from a REST service).
+	 */
+
+	public static void elementToJsonSchema( Element inspectionResult, Appendable out )
+		throws IOException {
+
+		out.append( '{' );
 		Element entity = XmlUtils.getFirstChildElement( inspectionResult );
 
 		if ( entity != null ) {
 
-			// For each child property...
+			// Write out the root of the inspectionResult...
 
-			Element property = XmlUtils.getFirstChildElement( entity );
+			NamedNodeMap entityAttributes = entity.getAttributes();
+			boolean written = attributesToJsonSchema( entityAttributes, false, out );
 
-			while ( property != null ) {
+			// ...then for each child property...
 
-				if ( property.hasAttribute( NAME ) ) {
-
-					// ...and for each attribute of that property...
+			boolean writtenProperties = false;
+			Element property = XmlUtils.getFirstChildElement( entity );
 
-					String properties = attributesToJsonSchema( property.getAttributes(), true );
+			while ( property != null ) {
 
-					// ...write it out
+				// ...that has attributes other than its name...
 
-					if ( properties.length() > 0 ) {
+				if ( property.hasAttribute( NAME ) && property.getAttributes().getLength() > 1 ) {
 
-						if ( jsonBuilder.length() > 0 ) {
-							jsonBuilder.append( StringUtils.SEPARATOR_COMMA_CHAR );
+					if ( writtenProperties ) {
+						out.append( StringUtils.SEPARATOR_COMMA_CHAR );
+					} else {
+						if ( written ) {
+							out.append( StringUtils.SEPARATOR_COMMA_CHAR );
 						}
 
-						jsonBuilder.append( '\"' );
-						jsonBuilder.append( property.getAttribute( NAME ) );
-						jsonBuilder.append( "\":{" );
-						jsonBuilder.append( properties );
-						jsonBuilder.append( '}' );
+						out.append( "\"properties\":{" );
+						writtenProperties = true;
 					}
+
+					// ...write it out
+
+					stringToJson( property.getAttribute( NAME ), out );
+					out.append( ":{" );
+					attributesToJsonSchema( property.getAttributes(), true, out );
+					out.append( '}' );
 				}
 
 				property = XmlUtils.getNextSiblingElement( property );
 			}
 
-			if ( jsonBuilder.length() > 0 ) {
-				jsonBuilder.insert( 0, "\"properties\":{" );
-				jsonBuilder.append( '}' );
+			if ( writtenProperties ) {
+				out.append( '}' );
 			}
+		}
+
+		// ...all inside an Object
+
+		out.append( '}' );
+	}
 
-			// ...then write out the root of the inspectionResult...
+	//
+	// Private methods
+	//
+
+	/**
+	 * Index the child elements of the given element by the given attribute. If more than one child
+	 * element has the same attribute value, the first one wins.
+	 */
 
-			String properties = attributesToJsonSchema( entity.getAttributes(), false );
+	private static Map<String, Element> indexChildElements( Element element, String attribute ) {
 
-			if ( properties.length() > 0 ) {
+		Map<String, Element> index = CollectionUtils.newHashMap();
 
-				if ( jsonBuilder.length() > 0 ) {
-					jsonBuilder.insert( 0, "," );
-				}
+		for ( Node child = element.getFirstChild(); child != null; child = child.getNextSibling() ) {
 
-				jsonBuilder.insert( 0, properties );
+			if ( !( child instanceof Element ) ) {
+				continue;
 			}
-		}
 
-		// ...all inside an Object
+			String name = ( (Element) child ).getAttribute( attribute );
 
-		return "{" + jsonBuilder.toString() + "}";
+			if ( name == null || "".equals( name ) || index.containsKey( name ) ) {
+				continue;
+			}
+
+			index.put( name, (Element) child );
+		}
+
+		return index;
 	}
 
-	//
-	// Private methods
-	//
+	/**
+	 * @return true if any attributes were written
+	 */
 
-	private static String attributesToJsonSchema( NamedNodeMap attributes, boolean excludeName ) {
+	private static boolean attributesToJsonSchema( NamedNodeMap attributes, boolean excludeName, Appendable out )
+		throws IOException {
 
-		StringBuilder propertyBuilder = new StringBuilder();
+		boolean written = false;
 
 		for ( int loop = 0, length = attributes.getLength(); loop < length; loop++ ) {
 
 			Node attribute = attributes.item( loop );
+			String attributeName = attribute.getNodeName();
 
-			String elementName = attribute.getNodeName();
-			String nodeValue = attribute.getNodeValue();
-
-			if ( excludeName && NAME.equals( elementName ) ) {
+			if ( excludeName && NAME.equals( attributeName ) ) {
 				continue;
 			}
 
+			if ( written ) {
+				out.append( StringUtils.SEPARATOR_COMMA_CHAR );
+			}
+
+			written = true;
+
 			// Best guess element names (e.g. 'foo-bar' becomes 'fooBar')
 
-			elementName = StringUtils.camelCase( elementName, '-' );
+			String elementName = JSON_SCHEMA_NAMES.get( attributeName );
+
+			if ( elementName == null ) {
+				elementName = StringUtils.camelCase( attributeName, '-' );
 
-			if ( propertyBuilder.length() > 0 ) {
-				propertyBuilder.append( StringUtils.SEPARATOR_COMMA_CHAR );
+				if ( JSON_SCHEMA_NAMES.size() < JSON_SCHEMA_NAMES_SIZE ) {
+					JSON_SCHEMA_NAMES.put( attributeName, elementName );
+				}
 			}
 
-			propertyBuilder.append( "\"" + elementName + "\"" );
-			propertyBuilder.append( StringUtils.SEPARATOR_COLON_CHAR );
+			stringToJson( elementName, out );
+			out.append( StringUtils.SEPARATOR_COLON_CHAR );
+
+			String nodeValue = attribute.getNodeValue();
 
 			if ( "enum".equals( elementName ) || "enumTitles".equals( elementName ) || SECTION.equals( elementName ) ) {
-				propertyBuilder.append( "[" );
-				propertyBuilder.append( arrayToJsonSchema( nodeValue ) );
-				propertyBuilder.append( "]" );
+				out.append( '[' );
+				boolean first = true;
+
+				for ( String value : ArrayUtils.fromString( nodeValue ) ) {
+					if ( first ) {
+						first = false;
+					} else {
+						out.append( StringUtils.SEPARATOR_COMMA_CHAR );
+					}
+
+					stringToJson( value, out );
+				}
+
+				out.append( ']' );
 			} else {
 
 				// Always write out the value as a string, even 'true' and '0'. This is because some
 				// JSON parsers only accept strings (e.g. AngularJS)
 
-				propertyBuilder.append( "\"" );
-				propertyBuilder.append( nodeValue );
-				propertyBuilder.append( "\"" );
+				stringToJson( nodeValue, out );
 			}
 		}
 
-		return propertyBuilder.toString();
+		return written;
 	}
 
-	private static String arrayToJsonSchema( String array ) {
+	/**
+	 * Write the given String as a quoted, escaped JSON string.
+	 */
+
+	private static void stringToJson( String value, Appendable out )
+		throws IOException {
+
+		out.append( '\"' );
+
+		// Append unescaped runs in one go
+
+		int start = 0;
+
+		for ( int loop = 0, length = value.length(); loop < length; loop++ ) {
+
+			char c = value.charAt( loop );
+
+			if ( c >= ' ' && c != '\"' && c != '\\' ) {
+				continue;
+			}
+
+			out.append( value, start, loop );
+			start = loop + 1;
+
+			switch ( c ) {
+				case '\"':
+					out.append( "\\\"" );
+					break;
+
+				case '\\':
+					out.append( "\\\\" );
+					break;
+
+				case '\n':
+					out.append( "\\n" );
+					break;
+
+				case '\r':
+					out.append( "\\r" );
+					break;
 
-		String toReturn = ArrayUtils.toString( ArrayUtils.fromString( array ), "\"", true, true );
-		toReturn = toReturn.replaceAll( "([^\\\\])\"", "$1\",\"" );
-		toReturn = toReturn.substring( 0, toReturn.length() - 2 );
+				case '\t':
+					out.append( "\\t" );
+					break;
 
-		return toReturn;
+				default:
+					String hex = Integer.toHexString( c );
+					out.append( "\\u" );
+
+					for ( int pad = hex.length(); pad < 4; pad++ ) {
+						out.append( '0' );
+					}
+
+					out.append( hex );
+			}
+		}
+
+		out.append( value, start, value.length() );
+		out.append( '\"' );
 	}
 
 	//
@@ -707,11 +927,48 @@ public final class XmlUtils {
 	 * <p>
 	 * In the second mode, clients can call <code>replay</code> to replay the recorded SAX events on
 	 * a new <code>ContentHandler</code>.
+	 * <p>
+	 * The recorded SAX events can also be <code>write</code>-en to a compact binary snapshot, and
+	 * later <code>read</code> back (say, at application startup) without needing a SAX parser.
 	 */
 
 	public static class CachingContentHandler
 		extends DefaultHandler {
 
+		//
+		// Private statics
+		//
+
+		/**
+		 * Marks the start of a snapshot, and its format version.
+		 */
+
+		private static final int			SNAPSHOT_MAGIC					= 0x4D570001;
+
+		private static final byte			START_DOCUMENT					= 1;
+
+		private static final byte			PROCESSING_INSTRUCTION			= 2;
+
+		private static final byte			SKIPPED_ENTITY					= 3;
+
+		private static final byte			START_PREFIX_MAPPING			= 4;
+
+		private static final byte			END_PREFIX_MAPPING				= 5;
+
+		private static final byte			START_ELEMENT					= 6;
+
+		private static final byte			CHARACTERS						= 7;
+
+		private static final byte			IGNORABLE_WHITESPACE			= 8;
+
+		private static final byte			END_ELEMENT						= 9;
+
+		private static final byte			END_DOCUMENT					= 10;
+
+		private static final int			STRING_NULL						= -1;
+
+		private static final int			STRING_NEW						= -2;
+
 		//
 		// Private members
 		//
@@ -825,6 +1082,122 @@ public final class XmlUtils {
 			mCache.trimToSize();
 		}
 
+		/**
+		 * Write the cached events as a compact binary snapshot, suitable for <code>read</code>.
+		 * <p>
+		 * Each distinct String (element name, namespace, attribute value etc.) is written only
+		 * once, and thereafter referred to by index.
+		 */
+
+		public void write( OutputStream out )
+			throws IOException {
+
+			if ( mDelegate != null ) {
+				throw new IOException( "Not ready to write - ContentHandler delegate is non-null. Either endDocument must be triggered, or releaseDelegate must be called explicitly" );
+			}
+
+			DataOutputStream dataOut = new DataOutputStream( new BufferedOutputStream( out ) );
+			dataOut.writeInt( SNAPSHOT_MAGIC );
+			dataOut.writeInt( mCache.size() );
+
+			Map<String, Integer> strings = CollectionUtils.newHashMap();
+
+			for ( CachedCommand cachedCommand : mCache ) {
+				cachedCommand.write( dataOut, strings );
+			}
+
+			dataOut.flush();
+		}
+
+		/**
+		 * Read a snapshot previously written by <code>write</code>.
+		 *
+		 * @return a CachingContentHandler, ready to <code>replay</code>
+		 */
+
+		public static CachingContentHandler read( InputStream in )
+			throws IOException {
+
+			DataInputStream dataIn = new DataInputStream( new BufferedInputStream( in ) );
+
+			if ( dataIn.readInt() != SNAPSHOT_MAGIC ) {
+				throw new IOException( "Not a CachingContentHandler snapshot (or snapshot written by an incompatible version)" );
+			}
+
+			int size = dataIn.readInt();
+			CachingContentHandler cachingContentHandler = new CachingContentHandler( null );
+			ArrayList<CachedCommand> cache = cachingContentHandler.mCache;
+			cache.ensureCapacity( size );
+
+			List<String> strings = CollectionUtils.newArrayList();
+
+			for ( int loop = 0; loop < size; loop++ ) {
+
+				byte event = dataIn.readByte();
+
+				switch ( event ) {
+					case START_DOCUMENT:
+						cache.add( new StartDocumentCommand() );
+						break;
+
+					case PROCESSING_INSTRUCTION:
+						cache.add( new ProcessingInstructionCommand( readString( dataIn, strings ), readString( dataIn, strings ) ) );
+						break;
+
+					case SKIPPED_ENTITY:
+						cache.add( new SkippedEntityCommand( readString( dataIn, strings ) ) );
+						break;
+
+					case START_PREFIX_MAPPING:
+						cache.add( new StartPrefixMappingCommand( readString( dataIn, strings ), readString( dataIn, strings ) ) );
+						break;
+
+					case END_PREFIX_MAPPING:
+						cache.add( new EndPrefixMappingCommand( readString( dataIn, strings ) ) );
+						break;
+
+					case START_ELEMENT: {
+						String uri = readString( dataIn, strings );
+						String localName = readString( dataIn, strings );
+						String qName = readString( dataIn, strings );
+						AttributesImpl attributes = new AttributesImpl();
+
+						for ( int attribute = 0, attributesLength = dataIn.readInt(); attribute < attributesLength; attribute++ ) {
+							attributes.addAttribute( readString( dataIn, strings ), readString( dataIn, strings ), readString( dataIn, strings ), readString( dataIn, strings ), readString( dataIn, strings ) );
+						}
+
+						cache.add( new StartElementCommand( uri, localName, qName, attributes ) );
+						break;
+					}
+
+					case CHARACTERS: {
+						char[] characters = readString( dataIn, strings ).toCharArray();
+						cache.add( new CharactersCommand( characters, 0, characters.length ) );
+						break;
+					}
+
+					case IGNORABLE_WHITESPACE: {
+						char[] characters = readString( dataIn, strings ).toCharArray();
+						cache.add( new IgnorableWhitespaceCommand( characters, 0, characters.length ) );
+						break;
+					}
+
+					case END_ELEMENT:
+						cache.add( new EndElementCommand( readString( dataIn, strings ), readString( dataIn, strings ), readString( dataIn, strings ) ) );
+						break;
+
+					case END_DOCUMENT:
+						cache.add( new EndDocumentCommand() );
+						break;
+
+					default:
+						throw new IOException( "Unknown SAX event " + event + " in snapshot" );
+				}
+			}
+
+			return cachingContentHandler;
+		}
+
 		//
 		// ContentHandler implementation
 		//
@@ -975,6 +1348,53 @@ public final class XmlUtils {
 			releaseDelegate();
 		}
 
+		//
+		// Private methods
+		//
+
+		private static void writeString( DataOutputStream out, Map<String, Integer> strings, String string )
+			throws IOException {
+
+			if ( string == null ) {
+				out.writeInt( STRING_NULL );
+				return;
+			}
+
+			Integer index = strings.get( string );
+
+			if ( index != null ) {
+				out.writeInt( index );
+				return;
+			}
+
+			strings.put( string, strings.size() );
+			byte[] bytes = string.getBytes( "UTF-8" );
+			out.writeInt( STRING_NEW );
+			out.writeInt( bytes.length );
+			out.write( bytes );
+		}
+
+		private static String readString( DataInputStream in, List<String> strings )
+			throws IOException {
+
+			int index = in.readInt();
+
+			if ( index == STRING_NULL ) {
+				return null;
+			}
+
+			if ( index != STRING_NEW ) {
+				return strings.get( index );
+			}
+
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully( bytes );
+			String string = new String( bytes, "UTF-8" );
+			strings.add( string );
+
+			return string;
+		}
+
 		//
 		// Inner class
 		//
@@ -993,6 +1413,9 @@ public final class XmlUtils {
 
 			void replay( ContentHandler replayTo )
 				throws SAXException;
+
+			void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException;
 		}
 
 		private static class StartDocumentCommand
@@ -1017,6 +1440,12 @@ public final class XmlUtils {
 				replayTo.startDocument();
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( START_DOCUMENT );
+			}
+
 			@Override
 			public String toString() {
 
@@ -1055,6 +1484,14 @@ public final class XmlUtils {
 				replayTo.processingInstruction( mTarget, mData );
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( PROCESSING_INSTRUCTION );
+				writeString( out, strings, mTarget );
+				writeString( out, strings, mData );
+			}
+
 			@Override
 			public String toString() {
 
@@ -1090,6 +1527,13 @@ public final class XmlUtils {
 				replayTo.skippedEntity( mName );
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( SKIPPED_ENTITY );
+				writeString( out, strings, mName );
+			}
+
 			@Override
 			public String toString() {
 
@@ -1128,6 +1572,14 @@ public final class XmlUtils {
 				replayTo.startPrefixMapping( mPrefix, mUri );
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( START_PREFIX_MAPPING );
+				writeString( out, strings, mPrefix );
+				writeString( out, strings, mUri );
+			}
+
 			@Override
 			public String toString() {
 
@@ -1163,6 +1615,13 @@ public final class XmlUtils {
 				replayTo.endPrefixMapping( mPrefix );
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( END_PREFIX_MAPPING );
+				writeString( out, strings, mPrefix );
+			}
+
 			@Override
 			public String toString() {
 
@@ -1210,6 +1669,26 @@ public final class XmlUtils {
 				replayTo.startElement( mUri, mLocalName, mQName, mAttributes );
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( START_ELEMENT );
+				writeString( out, strings, mUri );
+				writeString( out, strings, mLocalName );
+				writeString( out, strings, mQName );
+
+				int length = mAttributes.getLength();
+				out.writeInt( length );
+
+				for ( int loop = 0; loop < length; loop++ ) {
+					writeString( out, strings, mAttributes.getURI( loop ) );
+					writeString( out, strings, mAttributes.getLocalName( loop ) );
+					writeString( out, strings, mAttributes.getQName( loop ) );
+					writeString( out, strings, mAttributes.getType( loop ) );
+					writeString( out, strings, mAttributes.getValue( loop ) );
+				}
+			}
+
 			@Override
 			public String toString() {
 
@@ -1263,6 +1742,13 @@ public final class XmlUtils {
 				replayTo.characters( mCharacters, 0, mCharacters.length );
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( CHARACTERS );
+				writeString( out, strings, String.valueOf( mCharacters ) );
+			}
+
 			@Override
 			public String toString() {
 
@@ -1303,6 +1789,13 @@ public final class XmlUtils {
 				replayTo.ignorableWhitespace( mCharacters, 0, mCharacters.length );
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( IGNORABLE_WHITESPACE );
+				writeString( out, strings, String.valueOf( mCharacters ) );
+			}
+
 			@Override
 			public String toString() {
 
@@ -1346,6 +1839,15 @@ public final class XmlUtils {
 				replayTo.endElement( mUri, mLocalName, mQName );
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( END_ELEMENT );
+				writeString( out, strings, mUri );
+				writeString( out, strings, mLocalName );
+				writeString( out, strings, mQName );
+			}
+
 			@Override
 			public String toString() {
 
@@ -1375,6 +1877,12 @@ public final class XmlUtils {
 				replayTo.endDocument();
 			}
 
+			public void write( DataOutputStream out, Map<String, Integer> strings )
+				throws IOException {
+
+				out.writeByte( END_DOCUMENT );
+			}
+
 			@Override
 			public String toString() {
 
@@ -1387,6 +1895,31 @@ public final class XmlUtils {
 	// Private statics
 	//
 
+	private static Element inspectionResultToElement( Document document, InspectionResultElement inspectionResult ) {
+
+		Element element = document.createElementNS( NAMESPACE, inspectionResult.getName() );
+
+		for ( int loop = 0, length = inspectionResult.getAttributeCount(); loop < length; loop++ ) {
+
+			String name = inspectionResult.getAttributeName( loop );
+			String value = inspectionResult.getAttributeValue( loop );
+
+			// Namespace declarations (as read by elementToInspectionResult) must be declared as such
+
+			if ( name.equals( XMLConstants.XMLNS_ATTRIBUTE ) || name.startsWith( XMLConstants.XMLNS_ATTRIBUTE + ':' ) ) {
+				element.setAttributeNS( XMLConstants.XMLNS_ATTRIBUTE_NS_URI, name, value );
+			} else {
+				element.setAttribute( name, value );
+			}
+		}
+
+		for ( int loop = 0, length = inspectionResult.getChildCount(); loop < length; loop++ ) {
+			element.appendChild( inspectionResultToElement( document, inspectionResult.getChild( loop ) ) );
+		}
+
+		return element;
+	}
+
 	/**
 	 * Convert the given Node to an XML String.
 	 * <p>
@@ -1574,34 +2107,87 @@ public final class XmlUtils {
 		}
 	}
 
+	/**
+	 * Per-thread DocumentBuilder.
+	 * <p>
+	 * DocumentBuilders (and DocumentBuilderFactories) are not thread-safe. Each Thread holds its
+	 * value strongly, so to avoid leaking our ClassLoader under hot deployment the DocumentBuilder
+	 * must not reference any of our classes between parses. In particular, our
+	 * <code>NopEntityResolver</code> is only set on it for the duration of each parse.
+	 */
+
+	/* package private */static class DocumentBuilderThreadLocal
+		extends ThreadLocal<DocumentBuilder> {
+
+		//
+		// Protected methods
+		//
+
+		@Override
+		protected DocumentBuilder initialValue() {
+
+			synchronized ( DOCUMENT_BUILDER_FACTORY ) {
+				try {
+					return DOCUMENT_BUILDER_FACTORY.newDocumentBuilder();
+				} catch ( ParserConfigurationException e ) {
+					throw new RuntimeException( e );
+				}
+			}
+		}
+	}
+
 	//
 	// Private statics
 	//
 
-	private static final DocumentBuilder	DOCUMENT_BUILDER;
+	private static final DocumentBuilderFactory		DOCUMENT_BUILDER_FACTORY;
 
 	static {
-		DocumentBuilderFactory factory = DocumentBuilderFactory.newInstance();
-		factory.setNamespaceAware( true );
-		factory.setIgnoringComments( true );
-		factory.setIgnoringElementContentWhitespace( true );
-		try {
-			DOCUMENT_BUILDER = factory.newDocumentBuilder();
-			DOCUMENT_BUILDER.setEntityResolver( new NopEntityResolver() );
-		} catch ( ParserConfigurationException e ) {
-			throw new RuntimeException( e );
-		}
+		DOCUMENT_BUILDER_FACTORY = DocumentBuilderFactory.newInstance();
+		DOCUMENT_BUILDER_FACTORY.setNamespaceAware( true );
+		DOCUMENT_BUILDER_FACTORY.setIgnoringComments( true );
+		DOCUMENT_BUILDER_FACTORY.setIgnoringElementContentWhitespace( true );
 	}
 
-	private static final Pattern			PATTERN_AMP		= Pattern.compile( "&", Pattern.LITERAL );
+	private static final ThreadLocal<DocumentBuilder>	DOCUMENT_BUILDER	= new DocumentBuilderThreadLocal();
+
+	private static final EntityResolver					NOP_ENTITY_RESOLVER	= new NopEntityResolver();
+
+	private static final Pattern						PATTERN_AMP		= Pattern.compile( "&", Pattern.LITERAL );
+
+	private static final Pattern						PATTERN_LT		= Pattern.compile( "<", Pattern.LITERAL );
 
-	private static final Pattern			PATTERN_LT		= Pattern.compile( "<", Pattern.LITERAL );
+	private static final Pattern						PATTERN_GT		= Pattern.compile( ">", Pattern.LITERAL );
 
-	private static final Pattern			PATTERN_GT		= Pattern.compile( ">", Pattern.LITERAL );
+	private static final Pattern						PATTERN_QUOT	= Pattern.compile( "\"", Pattern.LITERAL );
+
+	private static final Pattern						PATTERN_APOS	= Pattern.compile( "\'", Pattern.LITERAL );
+
+	private static final int							JSON_SCHEMA_NAMES_SIZE	= 1000;
+
+	/**
+	 * Cache of attribute names to their JSON Schema equivalents (e.g. 'foo-bar' becomes 'fooBar').
+	 * Precomputed for all <code>InspectionResultConstants</code>, and then added to (up to a
+	 * limit) for any other attribute names encountered.
+	 */
 
-	private static final Pattern			PATTERN_QUOT	= Pattern.compile( "\"", Pattern.LITERAL );
+	private static final ConcurrentMap<String, String>	JSON_SCHEMA_NAMES		= CollectionUtils.newConcurrentHashMap();
 
-	private static final Pattern			PATTERN_APOS	= Pattern.compile( "\'", Pattern.LITERAL );
+	static {
+		for ( Field field : InspectionResultConstants.class.getFields() ) {
+
+			if ( !String.class.equals( field.getType() ) ) {
+				continue;
+			}
+
+			try {
+				String attributeName = (String) field.get( null );
+				JSON_SCHEMA_NAMES.put( attributeName, StringUtils.camelCase( attributeName, '-' ) );
+			} catch ( IllegalAccessException e ) {
+				throw new RuntimeException( e );
+			}
+		}
+	}
 
 	//
 	// Private constructor
@@ -16,8 +16,15 @@
 
 package org.metawidget.config.impl;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.util.Date;
 import java.util.List;
 import java.util.Set;
@@ -34,6 +41,7 @@ import org.metawidget.inspector.composite.CompositeInspector;
 import org.metawidget.inspector.iface.Inspector;
 import org.metawidget.inspector.propertytype.PropertyTypeInspector;
 import org.metawidget.inspector.xml.XmlInspector;
+import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.IOUtils;
 import org.metawidget.util.LogUtils;
 import org.metawidget.util.LogUtilsTest;
@@ -696,12 +704,201 @@ public class ConfigReaderTest
 		}
 	}
 
+	public void testSnapshot() {
+
+		String resource = "org/metawidget/config/metawidget-test-logging.xml";
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new BaseConfigReader().writeSnapshot( resource, out );
+		byte[] snapshot = out.toByteArray();
+
+		// Configure purely from the snapshot (validateSnapshot fails if the resource is opened)
+
+		Inspector inspector = (Inspector) ConfigSnapshotWriter.validateSnapshot( resource, snapshot, Inspector.class );
+		assertTrue( inspector instanceof CompositeInspector );
+
+		Inspector parsedInspector = (Inspector) new BaseConfigReader().configure( resource, Inspector.class );
+		assertEquals( parsedInspector.inspect( null, Date.class.getName() ), inspector.inspect( null, Date.class.getName() ) );
+
+		// Snapshot should be reusable across different locations within the same resource
+
+		BaseConfigReader configReader = new BaseConfigReader();
+		configReader.readSnapshot( resource, new ByteArrayInputStream( snapshot ) );
+		assertTrue( configReader.configure( resource, CompositeInspector.class, "inspectors", "array" ) instanceof CompositeInspector );
+		assertTrue( configReader.configure( resource, Inspector.class ) instanceof CompositeInspector );
+		assertTrue( configReader.mResourceCache.size() == 2 );
+
+		// Bad snapshot
+
+		try {
+			configReader.readSnapshot( resource, new ByteArrayInputStream( "<metawidget/>".getBytes() ) );
+			fail();
+		} catch ( MetawidgetException e ) {
+			assertEquals( "java.io.IOException: Not a CachingContentHandler snapshot (or snapshot written by an incompatible version)", e.getMessage() );
+		}
+	}
+
+	public void testConcurrentConfigure()
+		throws Exception {
+
+		final String resource = "org/metawidget/config/metawidget-test-logging.xml";
+		final BaseConfigReader configReader = new BaseConfigReader();
+		final Object[] configured = new Object[20];
+		final Throwable[] failed = new Throwable[1];
+		Thread[] threads = new Thread[configured.length];
+
+		for ( int loop = 0; loop < threads.length; loop++ ) {
+
+			final int index = loop;
+
+			threads[loop] = new Thread() {
+
+				@Override
+				public void run() {
+
+					try {
+						// Alternate between two locations within the same resource
+
+						if ( index % 2 == 0 ) {
+							configured[index] = configReader.configure( resource, Inspector.class );
+						} else {
+							configured[index] = configReader.configure( resource, CompositeInspector.class, "inspectors", "array" );
+						}
+					} catch ( Throwable t ) {
+						failed[0] = t;
+					}
+				}
+			};
+		}
+
+		for ( Thread thread : threads ) {
+			thread.start();
+		}
+
+		for ( Thread thread : threads ) {
+			thread.join();
+		}
+
+		assertTrue( failed[0] == null );
+
+		// Same config should always yield the same immutable, whichever thread got there first
+
+		for ( Object object : configured ) {
+			assertTrue( object instanceof CompositeInspector );
+			assertTrue( object == configured[0] );
+		}
+
+		assertTrue( configReader.mResourceCache.size() == 2 );
+		assertTrue( configReader.mImmutableByLocationCache.size() == 2 );
+		assertTrue( configReader.mLocationLocks.isEmpty() );
+	}
+
+	/**
+	 * Compare cold start (first configure in a fresh JVM) when parsing versus when restoring from
+	 * a snapshot.
+	 * <p>
+	 * Each measurement launches a new JVM running <code>ColdStart</code>, so that class loading,
+	 * the JIT and the ConfigReader's caches all start cold.
+	 * <p>
+	 * Out of scope: the snapshot captures only the parsed <code>metawidget.xml</code>. Inspectors
+	 * such as <code>XmlInspector</code> and <code>HibernateInspector</code> still parse their own
+	 * files when they are instantiated, once per JVM.
+	 */
+
+	public static void main( String[] args )
+		throws Exception {
+
+		String resource = "org/metawidget/config/metawidget-test-logging.xml";
+		File snapshot = File.createTempFile( "metawidget", ".snapshot" );
+		snapshot.deleteOnExit();
+		OutputStream out = new FileOutputStream( snapshot );
+
+		try {
+			new BaseConfigReader().writeSnapshot( resource, out );
+		} finally {
+			out.close();
+		}
+
+		int iterations = 20;
+		long parsed = 0;
+		long restored = 0;
+
+		for ( int loop = 0; loop < iterations; loop++ ) {
+			parsed += coldStart( resource, null );
+			restored += coldStart( resource, snapshot );
+		}
+
+		System.out.println( "Parsed: " + ( parsed / iterations / 1000 ) + " microseconds per cold start" );
+		System.out.println( "Snapshot (" + snapshot.length() + " bytes): " + ( restored / iterations / 1000 ) + " microseconds per cold start" );
+	}
+
 	//
-	// Inner class
+	// Private methods
+	//
+
+	/**
+	 * Run <code>ColdStart</code> in a fresh JVM.
+	 *
+	 * @return nanoseconds taken by the first configure
+	 */
+
+	private static long coldStart( String resource, File snapshot )
+		throws Exception {
+
+		List<String> command = CollectionUtils.newArrayList( System.getProperty( "java.home" ) + File.separator + "bin" + File.separator + "java", "-cp", System.getProperty( "java.class.path" ), ColdStart.class.getName(), resource );
+
+		if ( snapshot != null ) {
+			command.add( snapshot.getPath() );
+		}
+
+		Process process = new ProcessBuilder( command ).redirectErrorStream( true ).start();
+		BufferedReader reader = new BufferedReader( new InputStreamReader( process.getInputStream() ) );
+		String lastLine = null;
+
+		for ( String line = reader.readLine(); line != null; line = reader.readLine() ) {
+			lastLine = line;
+		}
+
+		if ( process.waitFor() != 0 ) {
+			throw MetawidgetException.newException( "Cold start failed: " + lastLine );
+		}
+
+		return Long.parseLong( lastLine );
+	}
+
+	//
+	// Inner classes
 	//
 
 	static class Foo {
 
 		// Just an inner class
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Times the first configure in this JVM, optionally from a snapshot, and prints the
+	 * nanoseconds taken.
+	 */
+
+	public static class ColdStart {
+
+		public static void main( String[] args )
+			throws Exception {
+
+			long start = System.nanoTime();
+			BaseConfigReader configReader = new BaseConfigReader();
+
+			if ( args.length > 1 ) {
+				InputStream in = new FileInputStream( args[1] );
+
+				try {
+					configReader.readSnapshot( args[0], in );
+				} finally {
+					in.close();
+				}
+			}
+
+			configReader.configure( args[0], Inspector.class );
+			System.out.println( System.nanoTime() - start );
+		}
+	}
+}
\ No newline at end of file
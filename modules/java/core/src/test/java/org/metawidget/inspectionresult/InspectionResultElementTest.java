@@ -0,0 +1,125 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.inspectionresult;
+
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.metawidget.util.CollectionUtils;
+
+/**
+ * @author Richard Kennard
+ */
+
+public class InspectionResultElementTest
+	extends TestCase {
+
+	//
+	// Public methods
+	//
+
+	public void testAttributes() {
+
+		Map<String, String> attributes = CollectionUtils.newHashMap();
+		attributes.put( "name", "foo" );
+		attributes.put( "type", "bar" );
+		attributes.put( "ignored", null );
+
+		InspectionResultElement element = new InspectionResultElement( "property", attributes );
+		attributes.put( "name", "changed" );
+
+		assertEquals( "property", element.getName() );
+		assertEquals( "foo", element.getAttribute( "name" ) );
+		assertEquals( "bar", element.getAttribute( "type" ) );
+		assertTrue( null == element.getAttribute( "ignored" ) );
+		assertEquals( 2, element.getAttributeCount() );
+		assertEquals( element.getAttributeValue( 0 ), element.getAttribute( element.getAttributeName( 0 ) ) );
+		assertEquals( element.getAttributeValue( 1 ), element.getAttribute( element.getAttributeName( 1 ) ) );
+
+		Map<String, String> attributesAsMap = element.getAttributesAsMap();
+		assertEquals( "foo", attributesAsMap.get( "name" ) );
+		assertEquals( "bar", attributesAsMap.get( "type" ) );
+		assertEquals( 2, attributesAsMap.size() );
+		attributesAsMap.put( "name", "changed" );
+		assertEquals( "foo", element.getAttribute( "name" ) );
+
+		assertEquals( 0, new InspectionResultElement( "property", null ).getAttributeCount() );
+
+		// withAttribute
+
+		InspectionResultElement added = element.withAttribute( "required", "true" );
+		assertEquals( "true", added.getAttribute( "required" ) );
+		assertEquals( "foo", added.getAttribute( "name" ) );
+		assertTrue( null == element.getAttribute( "required" ) );
+
+		InspectionResultElement replaced = element.withAttribute( "name", "baz" );
+		assertEquals( "baz", replaced.getAttribute( "name" ) );
+		assertEquals( 2, replaced.getAttributeCount() );
+		assertEquals( "foo", element.getAttribute( "name" ) );
+
+		InspectionResultElement removed = element.withAttribute( "name", null );
+		assertTrue( null == removed.getAttribute( "name" ) );
+		assertEquals( "bar", removed.getAttribute( "type" ) );
+		assertEquals( 1, removed.getAttributeCount() );
+		assertEquals( "foo", element.getAttribute( "name" ) );
+
+		assertTrue( element == element.withAttribute( "missing", null ) );
+	}
+
+	public void testChildren() {
+
+		InspectionResultElement foo = new InspectionResultElement( "property", CollectionUtils.newHashMap( CollectionUtils.newArrayList( "name" ), CollectionUtils.newArrayList( "foo" ) ) );
+		InspectionResultElement bar = new InspectionResultElement( "action", CollectionUtils.newHashMap( CollectionUtils.newArrayList( "name" ), CollectionUtils.newArrayList( "bar" ) ) );
+		InspectionResultElement[] children = new InspectionResultElement[] { foo, bar };
+		InspectionResultElement entity = new InspectionResultElement( "entity", null, children );
+		children[0] = bar;
+
+		assertEquals( 2, entity.getChildCount() );
+		assertTrue( foo == entity.getChild( 0 ) );
+		assertTrue( bar == entity.getChild( 1 ) );
+		assertTrue( bar == entity.getChildWithAttributeValue( "name", "bar" ) );
+		assertTrue( null == entity.getChildWithAttributeValue( "name", "baz" ) );
+		assertEquals( 0, new InspectionResultElement( "entity", null ).getChildCount() );
+
+		// Immutable elements can be shared between trees
+
+		InspectionResultElement changed = entity.withChildren( foo.withAttribute( "hidden", "true" ), bar );
+		assertTrue( bar == changed.getChild( 1 ) );
+		assertEquals( "true", changed.getChild( 0 ).getAttribute( "hidden" ) );
+		assertTrue( null == entity.getChild( 0 ).getAttribute( "hidden" ) );
+
+		InspectionResultElement typed = entity.withAttribute( "type", "Foo" );
+		assertTrue( foo == typed.getChild( 0 ) );
+
+		// Nulls
+
+		try {
+			new InspectionResultElement( null, null );
+			fail();
+		} catch ( NullPointerException e ) {
+			assertEquals( "name", e.getMessage() );
+		}
+
+		try {
+			entity.withChildren( foo, null );
+			fail();
+		} catch ( NullPointerException e ) {
+			assertEquals( "child", e.getMessage() );
+		}
+	}
+}
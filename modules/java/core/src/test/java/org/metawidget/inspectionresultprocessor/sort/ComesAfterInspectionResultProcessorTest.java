@@ -20,6 +20,7 @@ import junit.framework.TestCase;
 
 import org.metawidget.inspectionresultprocessor.iface.InspectionResultProcessorException;
 import org.metawidget.util.XmlUtils;
+import org.w3c.dom.Element;
 
 /**
  * @author Richard Kennard
@@ -256,6 +257,75 @@ public class ComesAfterInspectionResultProcessorTest
 		}
 	}
 
+	public void testInPlaceAndCached() {
+
+		ComesAfterInspectionResultProcessor<Object> processor = new ComesAfterInspectionResultProcessor<Object>();
+
+		String inputXml = "<inspection-result xmlns=\"http://metawidget.org/inspection-result\" version=\"1.0\"><entity type=\"Foo\">";
+		inputXml += "<property name=\"foo\" comes-after=\"bar\"/>";
+		inputXml += "<property name=\"bar\"/>";
+		inputXml += "</entity></inspection-result>";
+
+		Element inspectionResult = XmlUtils.documentFromString( inputXml ).getDocumentElement();
+		Element foo = XmlUtils.getFirstChildElement( XmlUtils.getFirstChildElement( inspectionResult ) );
+		assertTrue( inspectionResult == processor.processInspectionResultAsDom( inspectionResult, null, null, null ) );
+		assertTrue( foo == XmlUtils.getNextSiblingElement( XmlUtils.getFirstChildElement( XmlUtils.getFirstChildElement( inspectionResult ) ) ) );
+
+		// Same type (cached)
+
+		inspectionResult = XmlUtils.documentFromString( inputXml ).getDocumentElement();
+		Element property = XmlUtils.getFirstChildElement( XmlUtils.getFirstChildElement( processor.processInspectionResultAsDom( inspectionResult, null, null, null ) ) );
+		assertEquals( "bar", property.getAttribute( "name" ) );
+		assertEquals( "foo", XmlUtils.getNextSiblingElement( property ).getAttribute( "name" ) );
+
+		// Same type, but different comes-after (not cached)
+
+		inputXml = "<inspection-result xmlns=\"http://metawidget.org/inspection-result\" version=\"1.0\"><entity type=\"Foo\">";
+		inputXml += "<property name=\"foo\"/>";
+		inputXml += "<property name=\"bar\" comes-after=\"\"/>";
+		inputXml += "<property name=\"baz\"/>";
+		inputXml += "</entity></inspection-result>";
+
+		inspectionResult = XmlUtils.documentFromString( inputXml ).getDocumentElement();
+		property = XmlUtils.getFirstChildElement( XmlUtils.getFirstChildElement( processor.processInspectionResultAsDom( inspectionResult, null, null, null ) ) );
+		assertEquals( "foo", property.getAttribute( "name" ) );
+		property = XmlUtils.getNextSiblingElement( property );
+		assertEquals( "baz", property.getAttribute( "name" ) );
+		assertEquals( "bar", XmlUtils.getNextSiblingElement( property ).getAttribute( "name" ) );
+	}
+
+	public void testLargeEntity() {
+
+		// Each property comes after the one listed after it
+
+		int size = 500;
+		StringBuilder inputXml = new StringBuilder( "<inspection-result xmlns=\"http://metawidget.org/inspection-result\" version=\"1.0\"><entity type=\"Foo\">" );
+
+		for ( int loop = 0; loop < size; loop++ ) {
+			inputXml.append( "<property name=\"property" + loop + "\"" );
+
+			if ( loop < size - 1 ) {
+				inputXml.append( " comes-after=\"property" + ( loop + 1 ) + "\"" );
+			}
+
+			inputXml.append( "/>" );
+		}
+
+		inputXml.append( "</entity></inspection-result>" );
+
+		Element inspectionResult = XmlUtils.documentFromString( inputXml.toString() ).getDocumentElement();
+		new ComesAfterInspectionResultProcessor<Object>().processInspectionResultAsDom( inspectionResult, null, null, null );
+
+		Element property = XmlUtils.getFirstChildElement( XmlUtils.getFirstChildElement( inspectionResult ) );
+
+		for ( int loop = size - 1; loop >= 0; loop-- ) {
+			assertEquals( "property" + loop, property.getAttribute( "name" ) );
+			property = XmlUtils.getNextSiblingElement( property );
+		}
+
+		assertEquals( null, property );
+	}
+
 	public void testPrettyXml()
 		throws Exception {
 
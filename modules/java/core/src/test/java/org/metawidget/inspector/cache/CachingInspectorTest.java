@@ -0,0 +1,240 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.inspector.cache;
+
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+import org.metawidget.inspector.composite.CompositeInspector;
+import org.metawidget.inspector.composite.CompositeInspectorConfig;
+import org.metawidget.inspector.iface.Inspector;
+import org.metawidget.inspector.iface.InspectorException;
+import org.metawidget.inspector.propertytype.PropertyTypeInspector;
+import org.metawidget.util.MetawidgetTestUtils;
+import org.metawidget.util.XmlUtils;
+import org.w3c.dom.Element;
+
+/**
+ * @author Richard Kennard
+ */
+
+public class CachingInspectorTest
+	extends TestCase {
+
+	//
+	// Public methods
+	//
+
+	public void testCaching() {
+
+		CountingInspector countingInspector = new CountingInspector();
+		CachingInspector inspector = new CachingInspector( new CachingInspectorConfig().setInspector( countingInspector ) );
+
+		Element element1 = inspector.inspectAsDom( new Date(), Date.class.getName() );
+		assertEquals( 1, countingInspector.mInspections );
+		assertEquals( "<inspection-result><entity type=\"java.util.Date\"/></inspection-result>", XmlUtils.nodeToString( element1, false ) );
+
+		// Same class, type and names should hit the cache
+
+		Element element2 = inspector.inspectAsDom( new Date(), Date.class.getName() );
+		assertEquals( 1, countingInspector.mInspections );
+		assertEquals( XmlUtils.nodeToString( element1, false ), XmlUtils.nodeToString( element2, false ) );
+
+		// Cached results should be defensive copies
+
+		assertTrue( element1 != element2 );
+		assertTrue( element1.getOwnerDocument() != element2.getOwnerDocument() );
+		assertTrue( element2 == element2.getOwnerDocument().getDocumentElement() );
+		element2.setAttribute( "foo", "bar" );
+		assertEquals( "<inspection-result><entity type=\"java.util.Date\"/></inspection-result>", XmlUtils.nodeToString( inspector.inspectAsDom( new Date(), Date.class.getName() ), false ) );
+		assertEquals( 1, countingInspector.mInspections );
+
+		// Different names, or a different class of toInspect, should not
+
+		inspector.inspectAsDom( new Date(), Date.class.getName(), "foo" );
+		assertEquals( 2, countingInspector.mInspections );
+		inspector.inspectAsDom( null, Date.class.getName() );
+		assertEquals( 3, countingInspector.mInspections );
+		inspector.inspectAsDom( new java.sql.Date( 0 ), Date.class.getName() );
+		assertEquals( 4, countingInspector.mInspections );
+		inspector.inspectAsDom( new Date(), Date.class.getName(), "foo" );
+		assertEquals( 4, countingInspector.mInspections );
+
+		// Null inspection results are not cached
+
+		assertEquals( null, inspector.inspect( null, "null" ) );
+		assertEquals( null, inspector.inspect( null, "null" ) );
+		assertEquals( 6, countingInspector.mInspections );
+
+		// clearCache
+
+		inspector.clearCache();
+		assertTrue( inspector.mCache.isEmpty() );
+		inspector.inspectAsDom( new Date(), Date.class.getName() );
+		assertEquals( 7, countingInspector.mInspections );
+	}
+
+	public void testMaximumSize() {
+
+		CountingInspector countingInspector = new CountingInspector();
+		CachingInspector inspector = new CachingInspector( new CachingInspectorConfig().setInspector( countingInspector ).setMaximumSize( 2 ) );
+
+		inspector.inspect( null, "foo" );
+		inspector.inspect( null, "bar" );
+		inspector.inspect( null, "foo" );
+		assertEquals( 2, countingInspector.mInspections );
+
+		// Least recently used ('bar') should be evicted
+
+		inspector.inspect( null, "baz" );
+		assertEquals( 3, countingInspector.mInspections );
+		assertEquals( 2, inspector.mCache.size() );
+		inspector.inspect( null, "foo" );
+		assertEquals( 3, countingInspector.mInspections );
+		inspector.inspect( null, "bar" );
+		assertEquals( 4, countingInspector.mInspections );
+
+		try {
+			new CachingInspector( new CachingInspectorConfig().setInspector( countingInspector ).setMaximumSize( 0 ) );
+			fail();
+		} catch ( InspectorException e ) {
+			assertEquals( "CachingInspector needs a maximumSize greater than 0", e.getMessage() );
+		}
+	}
+
+	public void testTimeToLive()
+		throws Exception {
+
+		CountingInspector countingInspector = new CountingInspector();
+		CachingInspector inspector = new CachingInspector( new CachingInspectorConfig().setInspector( countingInspector ).setTimeToLive( 50 ) );
+
+		inspector.inspect( null, "foo" );
+		inspector.inspect( null, "foo" );
+		assertEquals( 1, countingInspector.mInspections );
+
+		Thread.sleep( 100 );
+		inspector.inspect( null, "foo" );
+		assertEquals( 2, countingInspector.mInspections );
+	}
+
+	public void testValueDependent() {
+
+		CountingInspector countingInspector = new CountingInspector();
+		CompositeInspector compositeInspector = new CompositeInspector( new CompositeInspectorConfig().setInspectors( countingInspector, new PropertyTypeInspector() ) );
+		CachingInspector inspector = new CachingInspector( new CachingInspectorConfig().setInspector( compositeInspector ) );
+
+		// Properties of final types cannot vary by value, so should hit the cache
+
+		assertFalse( inspector.isValueDependent( new FinalFoo(), FinalFoo.class.getName() ) );
+		Element element = inspector.inspectAsDom( new FinalFoo(), FinalFoo.class.getName() );
+		assertEquals( 1, countingInspector.mInspections );
+		assertEquals( XmlUtils.nodeToString( element, false ), XmlUtils.nodeToString( inspector.inspectAsDom( new FinalFoo(), FinalFoo.class.getName() ), false ) );
+		assertEquals( 1, countingInspector.mInspections );
+		assertEquals( 1, inspector.mCache.size() );
+
+		// Properties of non-final types, and paths, may vary by value
+
+		assertTrue( inspector.isValueDependent( new PolymorphicFoo(), PolymorphicFoo.class.getName() ) );
+		inspector.inspectAsDom( new PolymorphicFoo(), PolymorphicFoo.class.getName() );
+		inspector.inspectAsDom( new PolymorphicFoo(), PolymorphicFoo.class.getName() );
+		assertEquals( 3, countingInspector.mInspections );
+
+		assertTrue( inspector.isValueDependent( new FinalFoo(), FinalFoo.class.getName(), "name" ) );
+		assertFalse( inspector.isValueDependent( null, PolymorphicFoo.class.getName() ) );
+		assertEquals( 1, inspector.mCache.size() );
+
+		inspector = new CachingInspector( new CachingInspectorConfig().setInspector( new CountingInspector() ) );
+		assertFalse( inspector.isValueDependent( new Date(), Date.class.getName(), "foo" ) );
+	}
+
+	public void testNoInspector() {
+
+		try {
+			new CachingInspector( new CachingInspectorConfig() );
+			fail();
+		} catch ( InspectorException e ) {
+			assertEquals( "CachingInspector needs an Inspector", e.getMessage() );
+		}
+	}
+
+	public void testConfig() {
+
+		MetawidgetTestUtils.testEqualsAndHashcode( CachingInspectorConfig.class, new CachingInspectorConfig() {
+			// Subclass
+		} );
+	}
+
+	//
+	// Inner classes
+	//
+
+	/**
+	 * Non-DomInspector that counts its inspections.
+	 */
+
+	/* package private */static class CountingInspector
+		implements Inspector {
+
+		//
+		// Package private members
+		//
+
+		/* package private */int	mInspections;
+
+		//
+		// Public methods
+		//
+
+		public synchronized String inspect( Object toInspect, String type, String... names ) {
+
+			mInspections++;
+
+			if ( "null".equals( type ) ) {
+				return null;
+			}
+
+			return "<inspection-result><entity type=\"" + type + "\"/></inspection-result>";
+		}
+	}
+
+	public static class FinalFoo {
+
+		public String getName() {
+
+			return "Foo";
+		}
+
+		public int getAge() {
+
+			return 42;
+		}
+
+		public Boolean getActive() {
+
+			return Boolean.TRUE;
+		}
+	}
+
+	public static class PolymorphicFoo {
+
+		public Object getValue() {
+
+			return "Foo";
+		}
+	}
+}
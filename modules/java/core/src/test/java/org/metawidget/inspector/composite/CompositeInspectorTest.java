@@ -17,17 +17,32 @@
 package org.metawidget.inspector.composite;
 
 import static org.metawidget.inspector.InspectionResultConstants.*;
+import static org.metawidget.inspector.propertytype.PropertyTypeInspectionResultConstants.*;
 
 import java.io.ByteArrayInputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 import junit.framework.TestCase;
 
+import org.metawidget.inspectionresult.InspectionResultElement;
 import org.metawidget.inspector.iface.Inspector;
 import org.metawidget.inspector.iface.InspectorException;
+import org.metawidget.inspector.iface.TreeInspector;
+import org.metawidget.inspector.impl.BaseObjectInspectorConfig;
 import org.metawidget.inspector.impl.propertystyle.javabean.JavaBeanPropertyStyle;
 import org.metawidget.inspector.propertytype.PropertyTypeInspector;
 import org.metawidget.inspector.xml.XmlInspector;
 import org.metawidget.inspector.xml.XmlInspectorConfig;
+import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.LogUtilsTest;
 import org.metawidget.util.MetawidgetTestUtils;
 import org.metawidget.util.XmlUtils;
@@ -98,6 +113,26 @@ public class CompositeInspectorTest
 		xml = inspector.inspect( null, null );
 		internalTestInspection( XmlUtils.documentFromString( xml ) );
 
+		// As a TreeInspector (converted straight to a DOM)
+
+		final InspectionResultElement inspectionResult = XmlUtils.elementToInspectionResult( domInspect );
+
+		config.setInspectors( new TreeInspector() {
+
+			public String inspect( Object inspect, String type, String... names ) {
+
+				throw new UnsupportedOperationException();
+			}
+
+			public InspectionResultElement inspectAsTree( Object inspect, String type, String... names ) {
+
+				return inspectionResult;
+			}
+		} );
+
+		inspector = new ValidatingCompositeInspector( config );
+		internalTestInspection( inspector.inspectAsDom( null, null ).getOwnerDocument() );
+
 		// As a normal Inspector (not a DomInspector) with a null result
 
 		config.setInspectors( new Inspector() {
@@ -137,6 +172,209 @@ public class CompositeInspectorTest
 		}
 	}
 
+	public void testCacheValueIndependentInspectors() {
+
+		final String xml = "<inspection-result xmlns=\"http://metawidget.org/inspection-result\" version=\"1.0\"><entity type=\"" + Foo.class.getName() + "\"><property name=\"title\" lookup=\"Mr, Mrs\"/></entity></inspection-result>";
+		final int[] inspections = new int[1];
+
+		Inspector countingInspector = new Inspector() {
+
+			public String inspect( Object toInspect, String type, String... names ) {
+
+				inspections[0]++;
+				return xml;
+			}
+		};
+
+		CompositeInspectorConfig config = new CompositeInspectorConfig().setInspectors( countingInspector, new PropertyTypeInspector() );
+
+		// Uncached
+
+		CompositeInspector inspector = new CompositeInspector( config );
+		Foo foo = new Foo();
+		String uncached = inspector.inspect( foo, Foo.class.getName() );
+		inspector.inspect( foo, Foo.class.getName() );
+		assertEquals( 2, inspections[0] );
+
+		// Cached (value-independent Inspector is only run once, value-dependent
+		// PropertyTypeInspector is always run)
+
+		inspections[0] = 0;
+		inspector = new CompositeInspector( config.setCacheValueIndependentInspectors( true ) );
+		assertEquals( uncached, inspector.inspect( foo, Foo.class.getName() ) );
+		assertEquals( uncached, inspector.inspect( foo, Foo.class.getName() ) );
+		assertEquals( 1, inspections[0] );
+
+		Element entity = (Element) inspector.inspectAsDom( new Foo$EnhancerByCGLIB$$1234(), Foo.class.getName() ).getFirstChild();
+		assertEquals( Foo.class.getName(), entity.getAttribute( TYPE ) );
+		assertEquals( Foo$EnhancerByCGLIB$$1234.class.getName(), entity.getAttribute( ACTUAL_CLASS ) );
+		assertEquals( 2, inspections[0] );
+		entity = (Element) inspector.inspectAsDom( foo, Foo.class.getName() ).getFirstChild();
+		assertFalse( entity.hasAttribute( ACTUAL_CLASS ) );
+		assertEquals( 2, inspections[0] );
+
+		// Combining into a cached result must not corrupt the cache
+
+		Document master = XmlUtils.documentFromString( "<inspection-result xmlns=\"http://metawidget.org/inspection-result\" version=\"1.0\"><entity type=\"" + Foo.class.getName() + "\"><property name=\"extra\"/></entity></inspection-result>" );
+		inspector.inspectAsDom( master, foo, Foo.class.getName() );
+		assertEquals( uncached, inspector.inspect( foo, Foo.class.getName() ) );
+		assertEquals( 2, inspections[0] );
+	}
+
+	public void testParallel()
+		throws Exception {
+
+		// Sub-Inspectors that finish in reverse order, and that override each other's attributes
+
+		Inspector[] inspectors = new Inspector[4];
+
+		for ( int loop = 0; loop < inspectors.length; loop++ ) {
+			inspectors[loop] = new SleepingInspector( loop, ( inspectors.length - loop ) * 20 );
+		}
+
+		String sequential = new CompositeInspector( new CompositeInspectorConfig().setInspectors( inspectors ) ).inspect( null, Foo.class.getName() );
+
+		ExecutorService executor = Executors.newFixedThreadPool( 4 );
+
+		try {
+			CompositeInspector inspector = new CompositeInspector( new CompositeInspectorConfig().setInspectors( inspectors ).setExecutor( executor ) );
+
+			for ( int loop = 0; loop < 5; loop++ ) {
+				assertEquals( sequential, inspector.inspect( null, Foo.class.getName() ) );
+			}
+
+			Element property = (Element) inspector.inspectAsDom( null, Foo.class.getName() ).getFirstChild().getFirstChild();
+			assertEquals( "3", property.getAttribute( LABEL ) );
+			assertEquals( "0", property.getAttribute( "inspector-0" ) );
+			assertEquals( "3", property.getAttribute( "inspector-3" ) );
+
+			// Exceptions from other threads
+
+			inspectors[2] = new Inspector() {
+
+				public String inspect( Object toInspect, String type, String... names ) {
+
+					throw InspectorException.newException( "Failed on another thread" );
+				}
+			};
+
+			inspector = new CompositeInspector( new CompositeInspectorConfig().setInspectors( inspectors ).setExecutor( executor ) );
+
+			try {
+				inspector.inspect( null, Foo.class.getName() );
+				fail();
+			} catch ( InspectorException e ) {
+				assertEquals( "Failed on another thread", e.getMessage() );
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	public void testParallelSaturatedExecutor()
+		throws Exception {
+
+		// A nested CompositeInspector, sharing a single-threaded Executor, should not wait on work
+		// queued behind itself
+
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		ExecutorService caller = Executors.newSingleThreadExecutor();
+
+		try {
+			Inspector nestedInspector = new CompositeInspector( new CompositeInspectorConfig().setInspectors( new SleepingInspector( 1, 20 ), new SleepingInspector( 2, 0 ) ).setExecutor( executor ) );
+			final CompositeInspector inspector = new CompositeInspector( new CompositeInspectorConfig().setInspectors( new SleepingInspector( 0, 20 ), nestedInspector, new SleepingInspector( 3, 0 ) ).setExecutor( executor ) );
+
+			Future<Element> future = caller.submit( new Callable<Element>() {
+
+				public Element call() {
+
+					return inspector.inspectAsDom( null, Foo.class.getName() );
+				}
+			} );
+
+			Element property = XmlUtils.getFirstChildElement( XmlUtils.getFirstChildElement( future.get( 10, TimeUnit.SECONDS ) ) );
+			assertEquals( "3", property.getAttribute( LABEL ) );
+
+			for ( int loop = 0; loop < 4; loop++ ) {
+				assertEquals( String.valueOf( loop ), property.getAttribute( "inspector-" + loop ) );
+			}
+		} finally {
+			executor.shutdownNow();
+			caller.shutdownNow();
+		}
+	}
+
+	public void testParallelContextClassLoader()
+		throws Exception {
+
+		final List<ClassLoader> contextClassLoaders = Collections.synchronizedList( CollectionUtils.<ClassLoader> newArrayList() );
+		Inspector[] inspectors = new Inspector[4];
+
+		for ( int loop = 0; loop < inspectors.length; loop++ ) {
+			inspectors[loop] = new Inspector() {
+
+				public String inspect( Object toInspect, String type, String... names ) {
+
+					contextClassLoaders.add( Thread.currentThread().getContextClassLoader() );
+					return null;
+				}
+			};
+		}
+
+		// (start the Executor's threads up front, else they inherit the custom ClassLoader when
+		// they are created)
+
+		ThreadPoolExecutor executor = (ThreadPoolExecutor) Executors.newFixedThreadPool( 4 );
+		executor.prestartAllCoreThreads();
+		Thread thread = Thread.currentThread();
+		ClassLoader contextClassLoader = thread.getContextClassLoader();
+		ClassLoader customClassLoader = new URLClassLoader( new URL[0], contextClassLoader );
+
+		try {
+			// Sub-Inspectors should see the calling thread's context ClassLoader...
+
+			thread.setContextClassLoader( customClassLoader );
+			new CompositeInspector( new CompositeInspectorConfig().setInspectors( inspectors ).setExecutor( executor ) ).inspect( null, Foo.class.getName() );
+			thread.setContextClassLoader( contextClassLoader );
+
+			assertEquals( 4, contextClassLoaders.size() );
+
+			for ( ClassLoader classLoader : contextClassLoaders ) {
+				assertTrue( customClassLoader == classLoader );
+			}
+
+			// ...and the Executor's threads should be restored afterwards
+
+			for ( int loop = 0; loop < 4; loop++ ) {
+				assertTrue( customClassLoader != executor.submit( new Callable<ClassLoader>() {
+
+					public ClassLoader call() {
+
+						return Thread.currentThread().getContextClassLoader();
+					}
+				} ).get() );
+			}
+		} finally {
+			thread.setContextClassLoader( contextClassLoader );
+			executor.shutdown();
+		}
+	}
+
+	public void testIncremental() {
+
+		// Sub-Inspectors sharing the same PropertyStyle agree on traversal...
+
+		CompositeInspector inspector = new CompositeInspector( new CompositeInspectorConfig().setInspectors( new PropertyTypeInspector(), new PropertyTypeInspector() ) );
+		assertTrue( inspector.isIncremental() );
+		assertTrue( new CompositeInspector( new CompositeInspectorConfig().setInspectors( inspector, new PropertyTypeInspector() ) ).isIncremental() );
+
+		// ...those with different PropertyStyles may not
+
+		Inspector differentPropertyStyle = new PropertyTypeInspector( new BaseObjectInspectorConfig().setPropertyStyle( new JavaBeanPropertyStyle() ) );
+		assertFalse( new CompositeInspector( new CompositeInspectorConfig().setInspectors( new PropertyTypeInspector(), differentPropertyStyle ) ).isIncremental() );
+		assertFalse( new CompositeInspector( new CompositeInspectorConfig().setInspectors( inspector, differentPropertyStyle ) ).isIncremental() );
+	}
+
 	public void testConfig() {
 
 		MetawidgetTestUtils.testEqualsAndHashcode( CompositeInspectorConfig.class, new CompositeInspectorConfig() {
@@ -322,6 +560,31 @@ public class CompositeInspectorTest
 	// Inner class
 	//
 
+	static class SleepingInspector
+		implements Inspector {
+
+		private int	mIndex;
+
+		private int	mSleep;
+
+		public SleepingInspector( int index, int sleep ) {
+
+			mIndex = index;
+			mSleep = sleep;
+		}
+
+		public String inspect( Object toInspect, String type, String... names ) {
+
+			try {
+				Thread.sleep( mSleep );
+			} catch ( InterruptedException e ) {
+				throw InspectorException.newException( e );
+			}
+
+			return "<inspection-result xmlns=\"http://metawidget.org/inspection-result\" version=\"1.0\"><entity type=\"" + type + "\"><property name=\"title\" label=\"" + mIndex + "\" inspector-" + mIndex + "=\"" + mIndex + "\"/></entity></inspection-result>";
+		}
+	}
+
 	static class Foo$EnhancerByCGLIB$$1234
 		extends Foo {
 
@@ -16,8 +16,13 @@
 
 package org.metawidget.inspector.impl;
 
+import static org.metawidget.inspector.InspectionResultConstants.*;
+
 import java.util.Date;
+import java.util.Map;
 import java.util.WeakHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
 import javax.swing.JComponent;
@@ -25,11 +30,16 @@ import javax.swing.JTextField;
 
 import junit.framework.TestCase;
 
+import org.metawidget.inspector.iface.InspectorException;
 import org.metawidget.inspector.impl.propertystyle.BasePropertyStyle;
 import org.metawidget.inspector.impl.propertystyle.Property;
 import org.metawidget.inspector.impl.propertystyle.javabean.JavaBeanPropertyStyle;
 import org.metawidget.inspector.impl.propertystyle.javabean.JavaBeanPropertyStyleConfig;
+import org.metawidget.inspector.propertytype.PropertyTypeInspector;
+import org.metawidget.util.ClassUtils;
+import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.MetawidgetTestUtils;
+import org.metawidget.util.XmlUtils;
 import org.w3c.dom.Element;
 
 /**
@@ -149,4 +159,253 @@ public class BaseTraitStyleTest
 		assertEquals( true, traitStyle.isExcludedName( "propertyChangeListeners" ));
 		assertEquals( false, traitStyle.isExcludedName( "vetoableChangeListeners" ));
 	}
+
+	public void testConcurrentCache()
+		throws Exception {
+
+		CountingPropertyStyle countingPropertyStyle = new CountingPropertyStyle();
+		final BaseTraitStyle<Property> traitStyle = countingPropertyStyle;
+		traitStyle.getTraits( "foo" );
+		final Map<String, Property> expected = traitStyle.getTraits( "foo" );
+		assertEquals( 1, countingPropertyStyle.mInspections.get() );
+
+		// Many threads hitting the same type should only inspect it once
+
+		final CountDownLatch startLatch = new CountDownLatch( 1 );
+		final AtomicInteger wrongResults = new AtomicInteger();
+		Thread[] threads = new Thread[16];
+
+		for ( int loop = 0; loop < threads.length; loop++ ) {
+			threads[loop] = new Thread() {
+
+				@Override
+				public void run() {
+
+					try {
+						startLatch.await();
+
+						if ( traitStyle.getTraits( "foo" ) != expected ) {
+							wrongResults.incrementAndGet();
+						}
+
+						traitStyle.getTraits( "bar" );
+					} catch ( InterruptedException e ) {
+						wrongResults.incrementAndGet();
+					}
+				}
+			};
+			threads[loop].start();
+		}
+
+		startLatch.countDown();
+
+		for ( Thread thread : threads ) {
+			thread.join();
+		}
+
+		assertEquals( 0, wrongResults.get() );
+		assertEquals( 2, countingPropertyStyle.mInspections.get() );
+		assertEquals( 2, traitStyle.mCache.size() );
+
+		// Failures should not be cached
+
+		try {
+			traitStyle.getTraits( "error" );
+			fail();
+		} catch ( InspectorException e ) {
+			assertEquals( "error", e.getMessage() );
+		}
+
+		assertEquals( 2, traitStyle.mCache.size() );
+
+		try {
+			traitStyle.getTraits( "error" );
+			fail();
+		} catch ( InspectorException e ) {
+			assertEquals( "error", e.getMessage() );
+		}
+
+		assertEquals( 4, countingPropertyStyle.mInspections.get() );
+
+		// clearCache
+
+		traitStyle.clearCache();
+		assertTrue( traitStyle.mCache.isEmpty() );
+		assertTrue( expected != traitStyle.getTraits( "foo" ) );
+		assertEquals( 5, countingPropertyStyle.mInspections.get() );
+	}
+
+	public void testClassLookup() {
+
+		CountingPropertyStyle countingPropertyStyle = new CountingPropertyStyle();
+		BaseTraitStyle<Property> traitStyle = countingPropertyStyle;
+
+		// Lookups by Class do not look the Class up again by name...
+
+		traitStyle.getTraits( Date.class );
+		assertEquals( 0, countingPropertyStyle.mInspections.get() );
+		assertEquals( 1, countingPropertyStyle.mClassInspections.get() );
+
+		// ...and share the same cache as lookups by name
+
+		Map<String, Property> expected = traitStyle.getTraits( Date.class );
+		assertTrue( expected == traitStyle.getTraits( Date.class.getName() ) );
+		assertEquals( 0, countingPropertyStyle.mInspections.get() );
+		assertEquals( 1, countingPropertyStyle.mClassInspections.get() );
+
+		traitStyle.getTraits( JComponent.class.getName() );
+		traitStyle.getTraits( JComponent.class );
+		assertEquals( 1, countingPropertyStyle.mInspections.get() );
+		assertEquals( 1, countingPropertyStyle.mClassInspections.get() );
+
+		// JavaBeanPropertyStyle
+
+		JavaBeanPropertyStyle propertyStyle = new JavaBeanPropertyStyle();
+		propertyStyle.getProperties( BaseTraitStyleConfig.class );
+		Map<String, Property> properties = propertyStyle.getProperties( BaseTraitStyleConfig.class );
+		assertTrue( properties.containsKey( "cacheLookups" ) );
+		assertTrue( properties == propertyStyle.getProperties( BaseTraitStyleConfig.class.getName() ) );
+
+		JavaBeanPropertyStyleConfig config = new JavaBeanPropertyStyleConfig();
+		config.setCacheLookups( false );
+		propertyStyle = new JavaBeanPropertyStyle( config );
+		assertEquals( properties.keySet(), propertyStyle.getProperties( BaseTraitStyleConfig.class ).keySet() );
+		assertEquals( properties.keySet(), propertyStyle.getProperties( BaseTraitStyleConfig.class.getName() ).keySet() );
+	}
+
+	public void testSubclassInspectingByName() {
+
+		// Subclasses that override just inspectProperties( String ) should not be bypassed...
+
+		ByNamePropertyStyle propertyStyle = new ByNamePropertyStyle();
+		assertEquals( 2, propertyStyle.getProperties( Person.class ).size() );
+		assertTrue( propertyStyle.getProperties( Person.class ).containsKey( "name" ) );
+		assertTrue( propertyStyle.getProperties( Person.class ).containsKey( "retired" ) );
+		assertEquals( 1, propertyStyle.mInspections.get() );
+
+		// ...including when inspecting an Object
+
+		PropertyTypeInspector inspector = new PropertyTypeInspector( new BaseObjectInspectorConfig().setPropertyStyle( new ByNamePropertyStyle() ) );
+		Element entity = XmlUtils.getFirstChildElement( XmlUtils.documentFromString( inspector.inspect( new Person(), Person.class.getName() ) ).getDocumentElement() );
+		assertEquals( 2, entity.getChildNodes().getLength() );
+		assertEquals( "name", ( (Element) entity.getChildNodes().item( 0 ) ).getAttribute( NAME ) );
+		assertEquals( "retired", ( (Element) entity.getChildNodes().item( 1 ) ).getAttribute( NAME ) );
+
+		// Whereas subclasses that override both can inspect by Class...
+
+		CountingPropertyStyle countingPropertyStyle = new CountingPropertyStyle();
+		countingPropertyStyle.getProperties( Person.class );
+		assertEquals( 0, countingPropertyStyle.mInspections.get() );
+		assertEquals( 1, countingPropertyStyle.mClassInspections.get() );
+
+		// ...but only for their exact class
+
+		countingPropertyStyle = new CountingPropertyStyle() {
+			// Subclass
+		};
+		countingPropertyStyle.getProperties( Person.class );
+		assertEquals( 1, countingPropertyStyle.mInspections.get() );
+		assertEquals( 0, countingPropertyStyle.mClassInspections.get() );
+
+		BaseTraitStyle<Property> traitStyle = new JavaBeanPropertyStyle();
+		assertTrue( traitStyle.isInspectByClass() );
+		traitStyle = new ByNamePropertyStyle();
+		assertFalse( traitStyle.isInspectByClass() );
+	}
+
+	//
+	// Inner classes
+	//
+
+	public static class Person {
+
+		public String	name;
+
+		public int		age;
+
+		public boolean	retired;
+	}
+
+	/* package private */static class ByNamePropertyStyle
+		extends JavaBeanPropertyStyle {
+
+		//
+		// Package private members
+		//
+
+		/* package private */final AtomicInteger	mInspections	= new AtomicInteger();
+
+		//
+		// Protected methods
+		//
+
+		@Override
+		protected Map<String, Property> inspectProperties( String type ) {
+
+			mInspections.incrementAndGet();
+
+			try {
+				Class<?> clazz = ClassUtils.niceForName( type );
+				Map<String, Property> properties = CollectionUtils.newTreeMap();
+				properties.put( "name", new FieldProperty( "name", clazz.getField( "name" ) ) );
+				properties.put( "retired", new FieldProperty( "retired", clazz.getField( "retired" ) ) );
+
+				return properties;
+			} catch ( Exception e ) {
+				throw InspectorException.newException( e );
+			}
+		}
+	}
+
+	/* package private */static class CountingPropertyStyle
+		extends BasePropertyStyle {
+
+		//
+		// Package private members
+		//
+
+		/* package private */final AtomicInteger	mInspections		= new AtomicInteger();
+
+		/* package private */final AtomicInteger	mClassInspections	= new AtomicInteger();
+
+		//
+		// Constructor
+		//
+
+		public CountingPropertyStyle() {
+
+			super( new BaseTraitStyleConfig() {
+				// Subclass
+			} );
+		}
+
+		//
+		// Protected methods
+		//
+
+		@Override
+		protected Map<String, Property> inspectProperties( String type ) {
+
+			mInspections.incrementAndGet();
+
+			if ( "error".equals( type ) ) {
+				throw InspectorException.newException( "error" );
+			}
+
+			return CollectionUtils.newHashMap();
+		}
+
+		@Override
+		protected Map<String, Property> inspectProperties( Class<?> clazz ) {
+
+			mClassInspections.incrementAndGet();
+			return CollectionUtils.newHashMap();
+		}
+
+		@Override
+		protected boolean isInspectByClass() {
+
+			return ( getClass() == CountingPropertyStyle.class );
+		}
+	}
 }
@@ -22,6 +22,7 @@ import static org.metawidget.inspector.propertytype.PropertyTypeInspectionResult
 import java.beans.PropertyChangeListener;
 import java.beans.VetoableChangeListener;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
 
@@ -29,6 +30,7 @@ import junit.framework.TestCase;
 
 import org.metawidget.inspector.iface.Inspector;
 import org.metawidget.inspector.impl.BaseObjectInspectorConfig;
+import org.metawidget.inspector.impl.propertystyle.Property;
 import org.metawidget.inspector.impl.propertystyle.javabean.JavaBeanPropertyStyle;
 import org.metawidget.inspector.impl.propertystyle.javabean.JavaBeanPropertyStyleConfig;
 import org.metawidget.util.ClassUtils;
@@ -564,6 +566,52 @@ public class PropertyTypeInspectorTest
 		}
 	}
 
+	public void testCompileInspectionPlans() {
+
+		final List<String> inspectedProperties = CollectionUtils.newArrayList();
+		JavaBeanPropertyStyle propertyStyle = new JavaBeanPropertyStyle( new JavaBeanPropertyStyleConfig().setSupportPublicFields( true ) );
+		Inspector planInspector = new PropertyTypeInspector( new BaseObjectInspectorConfig().setPropertyStyle( propertyStyle ).setCompileInspectionPlans( true ) ) {
+
+			@Override
+			protected Map<String, String> inspectProperty( Property property )
+				throws Exception {
+
+				inspectedProperties.add( property.getName() );
+				return super.inspectProperty( property );
+			}
+		};
+
+		// Same result as without a plan, including for polymorphic properties
+
+		DeclaredTypeTester tester = new DeclaredTypeTester();
+		tester.value = new PersonalContact();
+		assertEquals( mInspector.inspect( tester, DeclaredTypeTester.class.getName() ), planInspector.inspect( tester, DeclaredTypeTester.class.getName() ) );
+		assertEquals( 3, inspectedProperties.size() );
+
+		tester.value = new Contact();
+		tester.foo = Boolean.TRUE;
+		String inspectionResult = planInspector.inspect( tester, DeclaredTypeTester.class.getName() );
+		assertEquals( mInspector.inspect( tester, DeclaredTypeTester.class.getName() ), inspectionResult );
+		assertTrue( inspectionResult.contains( "actual-class=\"java.lang.Boolean\"" ) );
+		assertTrue( !inspectionResult.contains( PersonalContact.class.getName() ) );
+
+		tester.value = null;
+		tester.foo = null;
+		assertEquals( mInspector.inspect( tester, DeclaredTypeTester.class.getName() ), planInspector.inspect( tester, DeclaredTypeTester.class.getName() ) );
+		assertEquals( mInspector.inspect( null, DeclaredTypeTester.class.getName() ), planInspector.inspect( null, DeclaredTypeTester.class.getName() ) );
+		assertEquals( mInspector.inspect( new PersonalContact(), PersonalContact.class.getName() ), planInspector.inspect( new PersonalContact(), PersonalContact.class.getName() ) );
+
+		// Plan only compiled once per class
+
+		assertEquals( 5, inspectedProperties.size() );
+
+		// Recompiled if the PropertyStyle's cache is cleared
+
+		propertyStyle.clearCache();
+		planInspector.inspect( tester, DeclaredTypeTester.class.getName() );
+		assertEquals( 8, inspectedProperties.size() );
+	}
+
 	//
 	// Protected methods
 	//
@@ -20,6 +20,7 @@ import static org.metawidget.inspector.InspectionResultConstants.*;
 
 import java.io.ByteArrayInputStream;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.CountDownLatch;
 
 import junit.framework.TestCase;
@@ -632,6 +633,129 @@ public class XmlInspectorTest
 		assertTrue( concurrencyFailures.isEmpty() );
 	}
 
+	public void testSnapshots() {
+
+		String xml = "<?xml version=\"1.0\"?>";
+		xml += "<inspection-result xmlns=\"http://www.metawidget.org/inspection-result\" version=\"1.0\">";
+		xml += "<entity type=\"Foo\">";
+		xml += "<property name=\"bar\" type=\"Bar\"/>";
+		xml += "<action name=\"doAction\"/>";
+		xml += "</entity>";
+		xml += "<entity type=\"Bar\">";
+		xml += "<property name=\"baz\"/>";
+		xml += "</entity>";
+		xml += "</inspection-result>";
+
+		final List<String> inspectedProperties = CollectionUtils.newArrayList();
+
+		mInspector = new XmlInspector( new XmlInspectorConfig().setInputStream( new ByteArrayInputStream( xml.getBytes() ) ) ) {
+
+			@Override
+			protected Map<String, String> inspectProperty( Element toInspect ) {
+
+				inspectedProperties.add( toInspect.getAttribute( NAME ) );
+				return super.inspectProperty( toInspect );
+			}
+		};
+
+		// First inspection reads the shared DOM
+
+		String expected = mInspector.inspect( null, "Foo" );
+		assertEquals( CollectionUtils.newArrayList( "bar", "doAction" ), inspectedProperties );
+
+		// Subsequent inspections use the snapshot...
+
+		Element root = mInspector.inspectAsDom( null, "Foo" );
+		assertEquals( expected, XmlUtils.nodeToString( root, false ) );
+		assertEquals( 2, inspectedProperties.size() );
+		assertEquals( root, root.getOwnerDocument().getDocumentElement() );
+		assertEquals( NAMESPACE, root.getNamespaceURI() );
+		assertEquals( "1.0", root.getAttribute( VERSION ) );
+
+		// ...and return a fresh copy each time
+
+		Element entity = XmlUtils.getFirstChildElement( root );
+		entity.removeChild( XmlUtils.getFirstChildElement( entity ) );
+		entity.setAttribute( TYPE, "Modified" );
+		assertEquals( expected, mInspector.inspect( null, "Foo" ) );
+
+		// Paths are snapshotted separately
+
+		expected = mInspector.inspect( null, "Foo", "bar" );
+		assertEquals( CollectionUtils.newArrayList( "bar", "doAction", "bar", "baz" ), inspectedProperties );
+		assertEquals( expected, mInspector.inspect( null, "Foo", "bar" ) );
+		assertEquals( 4, inspectedProperties.size() );
+
+		// Missing types are snapshotted too
+
+		assertEquals( null, mInspector.inspect( null, "Missing" ) );
+		assertEquals( null, mInspector.inspect( null, "Missing" ) );
+		assertEquals( 4, inspectedProperties.size() );
+
+		// Subclasses that are value-dependent are not snapshotted
+
+		inspectedProperties.clear();
+
+		mInspector = new XmlInspector( new XmlInspectorConfig().setInputStream( new ByteArrayInputStream( xml.getBytes() ) ) ) {
+
+			@Override
+			public boolean isValueDependent( Object toInspect, String type, String... names ) {
+
+				return true;
+			}
+
+			@Override
+			protected Map<String, String> inspectProperty( Element toInspect ) {
+
+				inspectedProperties.add( toInspect.getAttribute( NAME ) );
+				return super.inspectProperty( toInspect );
+			}
+		};
+
+		assertEquals( expected, mInspector.inspect( null, "Foo", "bar" ) );
+		assertEquals( expected, mInspector.inspect( null, "Foo", "bar" ) );
+		assertEquals( CollectionUtils.newArrayList( "bar", "baz", "bar", "baz" ), inspectedProperties );
+
+		// Snapshots are cleared when full...
+
+		inspectedProperties.clear();
+
+		mInspector = new XmlInspector( (XmlInspectorConfig) new XmlInspectorConfig().setInputStream( new ByteArrayInputStream( xml.getBytes() ) ).setMaximumSnapshots( 1 ) ) {
+
+			@Override
+			protected Map<String, String> inspectProperty( Element toInspect ) {
+
+				inspectedProperties.add( toInspect.getAttribute( NAME ) );
+				return super.inspectProperty( toInspect );
+			}
+		};
+
+		mInspector.inspect( null, "Foo", "bar" );
+		mInspector.inspect( null, "Foo", "bar" );
+		assertEquals( CollectionUtils.newArrayList( "bar", "baz" ), inspectedProperties );
+		mInspector.inspect( null, "Bar" );
+		mInspector.inspect( null, "Foo", "bar" );
+		assertEquals( CollectionUtils.newArrayList( "bar", "baz", "baz", "bar", "baz" ), inspectedProperties );
+
+		// ...and can be disabled
+
+		inspectedProperties.clear();
+
+		mInspector = new XmlInspector( (XmlInspectorConfig) new XmlInspectorConfig().setInputStream( new ByteArrayInputStream( xml.getBytes() ) ).setMaximumSnapshots( 0 ) ) {
+
+			@Override
+			protected Map<String, String> inspectProperty( Element toInspect ) {
+
+				inspectedProperties.add( toInspect.getAttribute( NAME ) );
+				return super.inspectProperty( toInspect );
+			}
+		};
+
+		mInspector.inspect( null, "Bar" );
+		mInspector.inspect( null, "Bar" );
+		assertEquals( CollectionUtils.newArrayList( "baz", "baz" ), inspectedProperties );
+	}
+
 	public void testTraversalToNullTopLevelElement() {
 
 		String xml = "<?xml version=\"1.0\"?>";
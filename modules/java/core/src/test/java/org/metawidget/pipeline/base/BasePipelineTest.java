@@ -18,7 +18,9 @@ package org.metawidget.pipeline.base;
 
 import static org.metawidget.inspector.InspectionResultConstants.*;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -29,8 +31,18 @@ import junit.framework.TestCase;
 
 import org.metawidget.config.iface.ConfigReader;
 import org.metawidget.config.impl.BaseConfigReader;
+import org.metawidget.inspectionresult.InspectionResultElement;
+import org.metawidget.inspectionresultprocessor.iface.DomInspectionResultProcessor;
+import org.metawidget.inspectionresultprocessor.iface.InspectionResultProcessor;
+import org.metawidget.inspectionresultprocessor.iface.TreeInspectionResultProcessor;
 import org.metawidget.inspectionresultprocessor.sort.ComesAfterInspectionResultProcessor;
+import org.metawidget.inspector.composite.CompositeInspector;
+import org.metawidget.inspector.composite.CompositeInspectorConfig;
+import org.metawidget.inspector.iface.DomInspector;
+import org.metawidget.inspector.iface.TreeInspector;
 import org.metawidget.inspector.propertytype.PropertyTypeInspector;
+import org.metawidget.inspector.xml.XmlInspector;
+import org.metawidget.inspector.xml.XmlInspectorConfig;
 import org.metawidget.layout.iface.AdvancedLayout;
 import org.metawidget.layout.iface.Layout;
 import org.metawidget.pipeline.w3c.W3CPipeline;
@@ -41,6 +53,7 @@ import org.metawidget.widgetbuilder.iface.WidgetBuilder;
 import org.metawidget.widgetprocessor.iface.AdvancedWidgetProcessor;
 import org.metawidget.widgetprocessor.iface.WidgetProcessor;
 import org.w3c.dom.Document;
+import org.w3c.dom.Element;
 
 /**
  * @author Richard Kennard
@@ -274,10 +287,378 @@ public class BasePipelineTest
 		assertEquals( 11, events.size() );
 	}
 
+	public void testProcessInspectionResultWithoutReparsing() {
+
+		final Element inspectionResult = XmlUtils.documentFromString( "<inspection-result><entity type=\"foo\"/></inspection-result>" ).getDocumentElement();
+		final int[] stringToElement = new int[1];
+
+		W3CPipeline<JComponent, JComponent, JComponent> pipeline = new MockPipeline() {
+
+			@Override
+			protected Element stringToElement( String xml ) {
+
+				stringToElement[0]++;
+				return super.stringToElement( xml );
+			}
+		};
+
+		pipeline.setInspector( new DomInspector<Element>() {
+
+			public String inspect( Object toInspect, String type, String... names ) {
+
+				return XmlUtils.nodeToString( inspectAsDom( toInspect, type, names ), false );
+			}
+
+			public Element inspectAsDom( Object toInspect, String type, String... names ) {
+
+				return inspectionResult;
+			}
+		} );
+
+		pipeline.addInspectionResultProcessor( new InspectionResultProcessor<JComponent>() {
+
+			public String processInspectionResult( String xml, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				return xml;
+			}
+		} );
+		pipeline.addInspectionResultProcessor( new DomInspectionResultProcessor<Element, JComponent>() {
+
+			public String processInspectionResult( String xml, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				throw new UnsupportedOperationException();
+			}
+
+			public Element processInspectionResultAsDom( Element element, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				XmlUtils.getFirstChildElement( element ).setAttribute( "processed", "true" );
+				return element;
+			}
+		} );
+		pipeline.addInspectionResultProcessor( new InspectionResultProcessor<JComponent>() {
+
+			public String processInspectionResult( String xml, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				// (same String contents, but not the same String instance)
+
+				return new String( xml );
+			}
+		} );
+
+		// Non-DOM processors that return their input unchanged should not cause a re-parse
+
+		assertTrue( inspectionResult == pipeline.inspectAsDom( null, "foo" ) );
+		assertEquals( 0, stringToElement[0] );
+		assertEquals( "true", XmlUtils.getFirstChildElement( inspectionResult ).getAttribute( "processed" ) );
+
+		// Non-DOM processors that change their input should
+
+		pipeline.addInspectionResultProcessor( new InspectionResultProcessor<JComponent>() {
+
+			public String processInspectionResult( String xml, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				return xml.replace( "processed=", "reprocessed=" );
+			}
+		} );
+
+		Element element = pipeline.inspectAsDom( null, "foo" );
+		assertTrue( inspectionResult != element );
+		assertEquals( 1, stringToElement[0] );
+		assertEquals( "true", XmlUtils.getFirstChildElement( element ).getAttribute( "reprocessed" ) );
+	}
+
+	public void testTreeInspectionResult() {
+
+		final InspectionResultElement inspectionResult = new InspectionResultElement( ROOT, null, new InspectionResultElement( ENTITY, Collections.singletonMap( TYPE, "foo" ), new InspectionResultElement( PROPERTY, Collections.singletonMap( NAME, "bar" ) ) ) );
+		final int[] stringToElement = new int[1];
+
+		W3CPipeline<JComponent, JComponent, JComponent> pipeline = new MockPipeline() {
+
+			@Override
+			protected Element stringToElement( String xml ) {
+
+				stringToElement[0]++;
+				return super.stringToElement( xml );
+			}
+		};
+
+		pipeline.setInspector( new TreeInspector() {
+
+			public String inspect( Object toInspect, String type, String... names ) {
+
+				throw new UnsupportedOperationException();
+			}
+
+			public InspectionResultElement inspectAsTree( Object toInspect, String type, String... names ) {
+
+				return inspectionResult;
+			}
+		} );
+
+		pipeline.addInspectionResultProcessor( new TreeInspectionResultProcessor<JComponent>() {
+
+			public String processInspectionResult( String xml, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				throw new UnsupportedOperationException();
+			}
+
+			public InspectionResultElement processInspectionResultAsTree( InspectionResultElement root, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				// Passed straight through from the TreeInspector
+
+				assertTrue( inspectionResult == root );
+
+				InspectionResultElement entity = root.getChild( 0 );
+				return root.withChildren( entity.withChildren( entity.getChild( 0 ).withAttribute( "tree", "true" ) ) );
+			}
+		} );
+
+		// Only converted to a DOM at the end
+
+		Element element = pipeline.inspectAsDom( null, "foo" );
+		assertEquals( 0, stringToElement[0] );
+		assertEquals( ROOT, element.getNodeName() );
+		assertEquals( NAMESPACE, element.getNamespaceURI() );
+		Element entity = XmlUtils.getFirstChildElement( element );
+		assertEquals( "foo", entity.getAttribute( TYPE ) );
+		Element property = XmlUtils.getFirstChildElement( entity );
+		assertEquals( "bar", property.getAttribute( NAME ) );
+		assertEquals( "true", property.getAttribute( "tree" ) );
+		assertTrue( null == XmlUtils.getNextSiblingElement( property ) );
+
+		// Original tree is unchanged
+
+		assertTrue( null == inspectionResult.getChild( 0 ).getChild( 0 ).getAttribute( "tree" ) );
+
+		// Mixed with non-tree InspectionResultProcessors
+
+		pipeline.addInspectionResultProcessor( new InspectionResultProcessor<JComponent>() {
+
+			public String processInspectionResult( String xml, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				return xml.replace( "tree=", "string=" );
+			}
+		} );
+		pipeline.addInspectionResultProcessor( new DomInspectionResultProcessor<Element, JComponent>() {
+
+			public String processInspectionResult( String xml, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				throw new UnsupportedOperationException();
+			}
+
+			public Element processInspectionResultAsDom( Element root, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				XmlUtils.getFirstChildElement( root ).setAttribute( "dom", "true" );
+				return root;
+			}
+		} );
+		pipeline.addInspectionResultProcessor( new TreeInspectionResultProcessor<JComponent>() {
+
+			public String processInspectionResult( String xml, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				throw new UnsupportedOperationException();
+			}
+
+			public InspectionResultElement processInspectionResultAsTree( InspectionResultElement root, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				assertEquals( "true", root.getChild( 0 ).getAttribute( "dom" ) );
+				assertEquals( "true", root.getChild( 0 ).getChild( 0 ).getAttribute( "string" ) );
+				return root;
+			}
+		} );
+
+		element = pipeline.inspectAsDom( null, "foo" );
+		assertEquals( 1, stringToElement[0] );
+		entity = XmlUtils.getFirstChildElement( element );
+		assertEquals( "true", entity.getAttribute( "dom" ) );
+		assertEquals( "true", XmlUtils.getFirstChildElement( entity ).getAttribute( "string" ) );
+
+		// An InspectionResultProcessor could return null to cancel the inspection
+
+		pipeline.addInspectionResultProcessor( new TreeInspectionResultProcessor<JComponent>() {
+
+			public String processInspectionResult( String xml, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				throw new UnsupportedOperationException();
+			}
+
+			public InspectionResultElement processInspectionResultAsTree( InspectionResultElement root, JComponent metawidget, Object toInspect, String type, String... names ) {
+
+				return null;
+			}
+		} );
+
+		assertTrue( null == pipeline.inspectAsDom( null, "foo" ) );
+	}
+
+	public void testIncrementalTraversal()
+		throws Exception {
+
+		Node root = new Node();
+		Node node = root;
+
+		for ( int loop = 0; loop < 10; loop++ ) {
+			node.setChild( new Node() );
+			node = node.getChild();
+		}
+
+		// Nested pipelines start from their parent's value...
+
+		PropertyTypeInspector inspector = new PropertyTypeInspector();
+		W3CPipeline<JComponent, JComponent, JComponent> pipeline = new MockPipeline();
+		pipeline.setInspector( inspector );
+
+		String[] names = new String[0];
+		List<String> incrementalResults = CollectionUtils.newArrayList();
+		Node.READS = 0;
+
+		for ( int loop = 0; loop < 10; loop++ ) {
+			incrementalResults.add( XmlUtils.nodeToString( pipeline.inspectAsDom( root, Node.class.getName(), names ), false ) );
+
+			W3CPipeline<JComponent, JComponent, JComponent> nestedPipeline = new MockPipeline();
+			pipeline.initNestedPipeline( nestedPipeline, null );
+			pipeline = nestedPipeline;
+
+			String[] nestedNames = new String[names.length + 1];
+			System.arraycopy( names, 0, nestedNames, 0, names.length );
+			nestedNames[names.length] = "child";
+			names = nestedNames;
+		}
+
+		assertEquals( 27, Node.READS );
+
+		// ...with the same result as traversing from the root
+
+		pipeline = new MockPipeline();
+		pipeline.setInspector( inspector );
+		names = new String[0];
+		Node.READS = 0;
+
+		for ( int loop = 0; loop < 10; loop++ ) {
+			assertEquals( incrementalResults.get( loop ), XmlUtils.nodeToString( pipeline.inspectAsDom( root, Node.class.getName(), names ), false ) );
+
+			String[] nestedNames = new String[names.length + 1];
+			System.arraycopy( names, 0, nestedNames, 0, names.length );
+			nestedNames[names.length] = "child";
+			names = nestedNames;
+		}
+
+		assertEquals( 54, Node.READS );
+
+		// Cyclic paths
+
+		root.setChild( root );
+		pipeline.inspectAsDom( root, Node.class.getName() );
+		W3CPipeline<JComponent, JComponent, JComponent> nestedPipeline = new MockPipeline();
+		pipeline.initNestedPipeline( nestedPipeline, null );
+		assertEquals( null, nestedPipeline.inspectAsDom( root, Node.class.getName(), "child" ) );
+
+		// Re-initialized nested pipelines pick up their parent's new value
+
+		Node.READS = 0;
+		root.setChild( new Node() );
+		pipeline.inspectAsDom( root, Node.class.getName() );
+		pipeline.initNestedPipeline( nestedPipeline, null );
+		assertTrue( nestedPipeline.inspectAsDom( root, Node.class.getName(), "child" ) != null );
+		assertEquals( 3, Node.READS );
+	}
+
+	public void testIncrementalTraversalWithPathBasedInspector() {
+
+		String xml = "<?xml version=\"1.0\"?>";
+		xml += "<inspection-result xmlns=\"http://www.metawidget.org/inspection-result\" version=\"1.0\">";
+		xml += "<entity type=\"" + Person.class.getName() + "\">";
+		xml += "<property name=\"address\" type=\"HomeAddress\"/>";
+		xml += "</entity>";
+		xml += "<entity type=\"HomeAddress\">";
+		xml += "<property name=\"geo\" type=\"GeoLocation\"/>";
+		xml += "</entity>";
+		xml += "<entity type=\"GeoLocation\">";
+		xml += "<property name=\"lat\" label=\"Latitude!\"/>";
+		xml += "</entity>";
+		xml += "</inspection-result>";
+
+		XmlInspector xmlInspector = new XmlInspector( new XmlInspectorConfig().setInputStream( new ByteArrayInputStream( xml.getBytes() ) ) );
+		CompositeInspector inspector = new CompositeInspector( new CompositeInspectorConfig().setInspectors( new PropertyTypeInspector(), xmlInspector ) );
+		assertFalse( inspector.isIncremental() );
+
+		// XmlInspector looks up the full path, so nested pipelines must not start from their
+		// parent's value
+
+		Person person = new Person();
+		W3CPipeline<JComponent, JComponent, JComponent> pipeline = new MockPipeline();
+		pipeline.setInspector( inspector );
+		pipeline.inspectAsDom( person, Person.class.getName() );
+
+		W3CPipeline<JComponent, JComponent, JComponent> nestedPipeline = new MockPipeline();
+		pipeline.initNestedPipeline( nestedPipeline, null );
+		nestedPipeline.inspectAsDom( person, Person.class.getName(), "address" );
+
+		W3CPipeline<JComponent, JComponent, JComponent> nestedNestedPipeline = new MockPipeline();
+		nestedPipeline.initNestedPipeline( nestedNestedPipeline, null );
+		Element inspectionResult = nestedNestedPipeline.inspectAsDom( person, Person.class.getName(), "address", "geo" );
+		Element entity = XmlUtils.getChildWithAttributeValue( inspectionResult, TYPE, "GeoLocation" );
+		assertEquals( "Latitude!", XmlUtils.getChildWithAttributeValue( entity, NAME, "lat" ).getAttribute( LABEL ) );
+	}
+
 	//
 	// Inner class
 	//
 
+	public static class Person {
+
+		public Address getAddress() {
+
+			return new Address();
+		}
+	}
+
+	public static class Address {
+
+		public GeoLocation getGeo() {
+
+			return new GeoLocation();
+		}
+	}
+
+	public static class GeoLocation {
+
+		public double getLat() {
+
+			return 0;
+		}
+	}
+
+	public static final class Node {
+
+		//
+		// Public statics
+		//
+
+		public static int	READS;
+
+		//
+		// Private members
+		//
+
+		private Node		mChild;
+
+		//
+		// Public methods
+		//
+
+		public Node getChild() {
+
+			READS++;
+			return mChild;
+		}
+
+		public void setChild( Node child ) {
+
+			mChild = child;
+		}
+	}
+
 	/* package private */static class MockPipeline
 		extends W3CPipeline<JComponent, JComponent, JComponent> {
 
@@ -17,6 +17,7 @@
 package org.metawidget.util;
 
 import java.io.ByteArrayOutputStream;
+import java.lang.annotation.Documented;
 import java.lang.reflect.Method;
 import java.util.Set;
 
@@ -197,6 +198,67 @@ public class ClassUtilsTest
 		assertEquals( String.class, ClassUtils.niceForName( "[Ljava.lang.String;", null ).getComponentType() );
 	}
 
+	public void testForNameCache()
+		throws Exception {
+
+		// Found
+
+		Class<?> clazz = ClassUtils.niceForName( "org.metawidget.util.ClassUtilsTest" );
+		assertTrue( ClassUtilsTest.class == clazz );
+		assertTrue( clazz == ClassUtils.niceForName( "org.metawidget.util.ClassUtilsTest" ) );
+		assertTrue( clazz == ClassUtils.niceForName( "org.metawidget.util.ClassUtilsTest<java.lang.String>" ) );
+
+		// Not found
+
+		assertEquals( null, ClassUtils.niceForName( "Login Screen" ) );
+		assertEquals( null, ClassUtils.niceForName( "Login Screen" ) );
+
+		// Per ClassLoader
+
+		ClassLoader alienClassLoader = new AlienClassLoader();
+		assertEquals( null, ClassUtils.niceForName( "org.metawidget.util.AlienSet" ) );
+		assertEquals( null, ClassUtils.niceForName( "org.metawidget.util.AlienSet", null ) );
+		assertEquals( "org.metawidget.util.AlienSet", ClassUtils.niceForName( "org.metawidget.util.AlienSet", alienClassLoader ).getName() );
+		assertEquals( null, ClassUtils.niceForName( "org.metawidget.util.AlienSet" ) );
+
+		// Clearing
+
+		ClassUtils.clearNiceForNameCache();
+		assertTrue( clazz == ClassUtils.niceForName( "org.metawidget.util.ClassUtilsTest" ) );
+		assertEquals( null, ClassUtils.niceForName( "Login Screen" ) );
+	}
+
+	public void testGetOriginalAnnotation()
+		throws Exception {
+
+		Method method = AnnotatedFoo.class.getMethod( "getFoo" );
+		assertTrue( ClassUtils.getOriginalAnnotation( method, Deprecated.class ) != null );
+		assertEquals( null, ClassUtils.getOriginalAnnotation( method, Documented.class ) );
+
+		// Overridden without annotations
+
+		method = UnannotatedSubFoo.class.getMethod( "getFoo" );
+		assertTrue( method.getAnnotation( Deprecated.class ) == null );
+		assertTrue( ClassUtils.getOriginalAnnotation( method, Deprecated.class ) != null );
+
+		// From interface
+
+		method = AnnotatedFoo.class.getMethod( "getBar" );
+		assertTrue( method.getAnnotation( Deprecated.class ) == null );
+		assertTrue( ClassUtils.getOriginalAnnotation( method, Deprecated.class ) != null );
+
+		// Cached (using equal, but not identical, Methods)
+
+		long hits = ClassUtils.getOriginalAnnotationCacheHits();
+		long misses = ClassUtils.getOriginalAnnotationCacheMisses();
+		Method equalMethod = AnnotatedFoo.class.getMethod( "getBar" );
+		assertTrue( method != equalMethod );
+		assertTrue( ClassUtils.getOriginalAnnotation( equalMethod, Deprecated.class ) != null );
+		assertEquals( null, ClassUtils.getOriginalAnnotation( equalMethod, Documented.class ) );
+		assertEquals( hits + 2, ClassUtils.getOriginalAnnotationCacheHits() );
+		assertEquals( misses, ClassUtils.getOriginalAnnotationCacheMisses() );
+	}
+
 	public void testGetOriginalDeclaringClass()
 		throws Exception {
 
@@ -243,6 +305,8 @@ public class ClassUtilsTest
 		synchronized ( ClassUtils.ALIEN_CLASSLOADERS ) {
 			ClassUtils.ALIEN_CLASSLOADERS.clear();
 		}
+
+		ClassUtils.clearNiceForNameCache();
 	}
 
 	public static void testGetPackagesAsFolderNames() {
@@ -314,6 +378,37 @@ public class ClassUtilsTest
 		// Just a marker interface
 	}
 
+	static interface AnnotatedBar {
+
+		@Deprecated
+		Object getBar();
+	}
+
+	static class AnnotatedFoo
+		implements AnnotatedBar {
+
+		@Deprecated
+		public Object getFoo() {
+
+			return null;
+		}
+
+		public Object getBar() {
+
+			return null;
+		}
+	}
+
+	static class UnannotatedSubFoo
+		extends AnnotatedFoo {
+
+		@Override
+		public Object getFoo() {
+
+			return null;
+		}
+	}
+
 	static class Baz
 		implements Bar {
 		// Just an empty class
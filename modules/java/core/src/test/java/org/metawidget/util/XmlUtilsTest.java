@@ -16,15 +16,21 @@
 
 package org.metawidget.util;
 
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
 import java.lang.reflect.Field;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import junit.framework.TestCase;
 
+import org.metawidget.inspectionresult.InspectionResultElement;
 import org.metawidget.util.XmlUtils.CachingContentHandler;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.Node;
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.AttributesImpl;
@@ -254,6 +260,92 @@ public class XmlUtilsTest
 		assertEquals( "<foo>&lt;&apos;&quot;&amp;&gt;</foo>", XmlUtils.documentToString( document, true ) );
 	}
 
+	public void testInspectionResult() {
+
+		String xml = "<inspection-result xmlns=\"http://metawidget.org/inspection-result\" xmlns:xsi=\"http://www.w3.org/2001/XMLSchema-instance\" version=\"1.0\" xsi:schemaLocation=\"http://metawidget.org/inspection-result ../../inspector/inspection-result-1.0.xsd\"><entity type=\"foo\"><property name=\"bar\" type=\"&lt;&apos;&quot;&amp;&gt;\"/><action name=\"baz\"/></entity></inspection-result>";
+		Element element = XmlUtils.documentFromString( xml ).getDocumentElement();
+
+		InspectionResultElement inspectionResult = XmlUtils.elementToInspectionResult( element );
+		assertEquals( "inspection-result", inspectionResult.getName() );
+		assertEquals( "1.0", inspectionResult.getAttribute( "version" ) );
+		assertEquals( 1, inspectionResult.getChildCount() );
+		InspectionResultElement entity = inspectionResult.getChild( 0 );
+		assertEquals( "entity", entity.getName() );
+		assertEquals( "foo", entity.getAttribute( "type" ) );
+		assertEquals( 2, entity.getChildCount() );
+		assertEquals( "<'\"&>", entity.getChildWithAttributeValue( "name", "bar" ).getAttribute( "type" ) );
+		assertEquals( "action", entity.getChild( 1 ).getName() );
+
+		// Round trip
+
+		Document document = XmlUtils.documentFromInspectionResult( inspectionResult );
+		Element roundTrip = document.getDocumentElement();
+		assertEquals( "http://metawidget.org/inspection-result", roundTrip.getNamespaceURI() );
+		assertEquals( XmlUtils.getAttributesAsMap( element ), XmlUtils.getAttributesAsMap( roundTrip ) );
+		assertEquals( XmlUtils.nodeToString( XmlUtils.getFirstChildElement( element ), false ), XmlUtils.nodeToString( XmlUtils.getFirstChildElement( roundTrip ), false ) );
+
+		// (namespace declarations survive serialization)
+
+		roundTrip = XmlUtils.documentFromString( XmlUtils.documentToString( document, false ) ).getDocumentElement();
+		assertEquals( "http://metawidget.org/inspection-result", roundTrip.getNamespaceURI() );
+		assertEquals( XmlUtils.getAttributesAsMap( element ), XmlUtils.getAttributesAsMap( roundTrip ) );
+
+		assertTrue( null == XmlUtils.documentFromInspectionResult( null ) );
+	}
+
+	public void testConcurrentDocumentFromString()
+		throws Exception {
+
+		// Bad XML should not break subsequent parses
+
+		try {
+			XmlUtils.documentFromString( "<foo>" );
+			fail();
+		} catch ( RuntimeException e ) {
+			// Should fail
+		}
+
+		assertEquals( "<foo/>", XmlUtils.documentToString( XmlUtils.documentFromString( "<foo/>" ), false ) );
+
+		// External entities should not be resolved, on every parse
+
+		for ( int loop = 0; loop < 2; loop++ ) {
+			assertEquals( "foo", XmlUtils.documentFromString( "<!DOCTYPE foo SYSTEM \"does-not-exist.dtd\"><foo/>" ).getDocumentElement().getNodeName() );
+		}
+
+		// Concurrent parses should not interfere with each other
+
+		final AtomicInteger wrongResults = new AtomicInteger();
+		Thread[] threads = new Thread[8];
+
+		for ( int loop = 0; loop < threads.length; loop++ ) {
+			final String xml = "<foo id=\"" + loop + "\"><bar id=\"" + loop + "\"/></foo>";
+			threads[loop] = new Thread() {
+
+				@Override
+				public void run() {
+
+					for ( int parse = 0; parse < 100; parse++ ) {
+						if ( !xml.equals( XmlUtils.documentToString( XmlUtils.documentFromString( xml ), false ) ) ) {
+							wrongResults.incrementAndGet();
+						}
+
+						if ( XmlUtils.newDocument().getDocumentElement() != null ) {
+							wrongResults.incrementAndGet();
+						}
+					}
+				}
+			};
+			threads[loop].start();
+		}
+
+		for ( Thread thread : threads ) {
+			thread.join();
+		}
+
+		assertEquals( 0, wrongResults.get() );
+	}
+
 	public void testCombineElements() {
 
 		Document documentMaster = XmlUtils.documentFromString( "<inspection-result><foo fooAttr=\"1\"><bar barAttr=\"2\" data=\"bar2\"/></foo></inspection-result>" );
@@ -274,6 +366,71 @@ public class XmlUtilsTest
 		documentToAdd = XmlUtils.documentFromString( "<inspection-result><foo fooAttr=\"2\"><bar barAttr=\"3\" data=\"bar3\"/></foo></inspection-result>" );
 		XmlUtils.combineElements( documentMaster.getDocumentElement(), documentToAdd.getDocumentElement(), "fooAttr", "barAttr" );
 		assertEquals( "<inspection-result><foo fooAttr=\"1\"><bar barAttr=\"2\" data=\"bar2\"/></foo><foo fooAttr=\"2\"><bar barAttr=\"3\" data=\"bar3\"/></foo></inspection-result>", XmlUtils.documentToString( documentMaster, false ) );
+
+		// Ordering: new children go after the last combined child, or at the end
+
+		documentMaster = XmlUtils.documentFromString( "<entity type=\"Foo\"><property name=\"a\"/><property name=\"b\"/><property name=\"c\"/></entity>" );
+		documentToAdd = XmlUtils.documentFromString( "<entity type=\"Foo\"><property name=\"x\"/><property name=\"a\" required=\"true\"/><property name=\"y\"/><property name=\"z\"/><property name=\"c\"/><property name=\"w\"/></entity>" );
+		XmlUtils.combineElements( documentMaster.getDocumentElement(), documentToAdd.getDocumentElement(), "name", "name" );
+		assertEquals( "<entity type=\"Foo\"><property name=\"a\" required=\"true\"/><property name=\"y\"/><property name=\"z\"/><property name=\"b\"/><property name=\"c\"/><property name=\"w\"/><property name=\"x\"/></entity>", XmlUtils.documentToString( documentMaster, false ) );
+
+		// Duplicate children in the master (first one wins)
+
+		documentMaster = XmlUtils.documentFromString( "<entity type=\"Foo\"><property name=\"a\"/><property name=\"a\"/></entity>" );
+		documentToAdd = XmlUtils.documentFromString( "<entity type=\"Foo\"><property name=\"a\" required=\"true\"/></entity>" );
+		XmlUtils.combineElements( documentMaster.getDocumentElement(), documentToAdd.getDocumentElement(), "name", "name" );
+		assertEquals( "<entity type=\"Foo\"><property name=\"a\" required=\"true\"/><property name=\"a\"/></entity>", XmlUtils.documentToString( documentMaster, false ) );
+
+		// Duplicate children in the toAdd
+
+		documentToAdd = XmlUtils.documentFromString( "<entity type=\"Foo\"><property name=\"b\"/><property name=\"b\"/></entity>" );
+
+		try {
+			XmlUtils.combineElements( documentMaster.getDocumentElement(), documentToAdd.getDocumentElement(), "name", "name" );
+			fail();
+		} catch ( Exception e ) {
+			assertEquals( "Element has more than one child with @name 'b'", e.getMessage() );
+		}
+
+		// Mismatched elements
+
+		documentMaster = XmlUtils.documentFromString( "<entity type=\"Foo\"><property name=\"a\"/></entity>" );
+		documentToAdd = XmlUtils.documentFromString( "<entity type=\"Foo\">\n<action name=\"a\"/></entity>" );
+
+		try {
+			XmlUtils.combineElements( documentMaster.getDocumentElement(), documentToAdd.getDocumentElement(), "name", "name" );
+			fail();
+		} catch ( Exception e ) {
+			assertEquals( "Matching elements named 'a', but existing one is a 'property' whilst new one is a 'action'", e.getMessage() );
+		}
+
+		// Child numbering counts non-Elements
+
+		documentToAdd = XmlUtils.documentFromString( "<entity type=\"Foo\">\n<property/></entity>" );
+
+		try {
+			XmlUtils.combineElements( documentMaster.getDocumentElement(), documentToAdd.getDocumentElement(), "name", "name" );
+			fail();
+		} catch ( Exception e ) {
+			assertEquals( "Child node #2 has no @name: <property/>", e.getMessage() );
+		}
+	}
+
+	public void testCombineLargeElements() {
+
+		Document documentMaster = XmlUtils.documentFromString( newEntity( 1000, 0, 1 ) );
+		Document documentToAdd = XmlUtils.documentFromString( newEntity( 1000, 500, 1 ) );
+		XmlUtils.combineElements( documentMaster.getDocumentElement(), documentToAdd.getDocumentElement(), "type", "name" );
+
+		Element property = XmlUtils.getFirstChildElement( XmlUtils.getFirstChildElement( documentMaster.getDocumentElement() ) );
+
+		for ( int loop = 0; loop < 1500; loop++ ) {
+			assertEquals( "property" + loop, property.getAttribute( "name" ) );
+			assertEquals( String.valueOf( loop ), property.getAttribute( "index" ) );
+			property = XmlUtils.getNextSiblingElement( property );
+		}
+
+		assertEquals( null, property );
 	}
 
 	public void testElementToJsonSchema() {
@@ -306,12 +463,232 @@ public class XmlUtilsTest
 
 		document = XmlUtils.documentFromString( "<inspection-result><entity type=\"1\" section=\"foo\"/>></inspection-result>" );
 		assertEquals( "{\"section\":[\"foo\"],\"type\":\"1\"}", XmlUtils.elementToJsonSchema( document.getDocumentElement() ) );
+
+		// Escaping
+
+		document = XmlUtils.documentFromString( "<inspection-result><entity type=\"a\\b\" label=\"line&#10;two&#9;\"><property name=\"q&quot;\" required=\"true\"/><property name=\"noAttributes\"/></entity></inspection-result>" );
+		assertEquals( "{\"label\":\"line\\ntwo\\t\",\"type\":\"a\\\\b\",\"properties\":{\"q\\\"\":{\"required\":\"true\"}}}", XmlUtils.elementToJsonSchema( document.getDocumentElement() ) );
+
+		XmlUtils.getFirstChildElement( document.getDocumentElement() ).setAttribute( "label", "\u0001" );
+		assertEquals( "{\"label\":\"\\u0001\",\"type\":\"a\\\\b\",\"properties\":{\"q\\\"\":{\"required\":\"true\"}}}", XmlUtils.elementToJsonSchema( document.getDocumentElement() ) );
+
+		// Unknown attribute names
+
+		document = XmlUtils.documentFromString( "<inspection-result><entity><property name=\"bar\" my-custom-attribute=\"1\"/></entity></inspection-result>" );
+		assertEquals( "{\"properties\":{\"bar\":{\"myCustomAttribute\":\"1\"}}}", XmlUtils.elementToJsonSchema( document.getDocumentElement() ) );
+	}
+
+	public void testElementToJsonSchemaStreaming()
+		throws Exception {
+
+		Document document = XmlUtils.documentFromString( "<inspection-result><entity type=\"caf\u00e9\" lookup=\"a,b\"><property name=\"bar\" required=\"true\" section=\"s1,s2\"/></entity></inspection-result>" );
+		String json = XmlUtils.elementToJsonSchema( document.getDocumentElement() );
+		assertEquals( "{\"lookup\":\"a,b\",\"type\":\"caf\u00e9\",\"properties\":{\"bar\":{\"required\":\"true\",\"section\":[\"s1\",\"s2\"]}}}", json );
+
+		// Writer
+
+		StringWriter writer = new StringWriter();
+		XmlUtils.elementToJsonSchema( document.getDocumentElement(), writer );
+		assertEquals( json, writer.toString() );
+
+		// OutputStream
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		XmlUtils.elementToJsonSchema( document.getDocumentElement(), out );
+		assertEquals( json, out.toString( "UTF-8" ) );
+	}
+
+	//
+	// Public statics
+	//
+
+	/**
+	 * Simple benchmark of <code>combineElements</code> over synthetic entities. Not run as part of
+	 * the test suite.
+	 */
+
+	public static void main( String[] args ) {
+
+		for ( int size : new int[] { 10, 100, 1000 } ) {
+
+			Document documentMaster = XmlUtils.documentFromString( newEntity( size, 0, 1 ) );
+			Document documentToAdd = XmlUtils.documentFromString( newEntity( size, size / 2, -1 ) );
+			int iterations = 1000000 / size;
+			long total = 0;
+
+			for ( int loop = 0; loop < iterations * 2; loop++ ) {
+
+				Element master = (Element) documentMaster.getDocumentElement().cloneNode( true );
+				long start = System.nanoTime();
+				XmlUtils.combineElements( master, documentToAdd.getDocumentElement(), "type", "name" );
+
+				// (first half is warm up)
+
+				if ( loop >= iterations ) {
+					total += System.nanoTime() - start;
+				}
+			}
+
+			System.out.println( size + " properties: " + ( total / iterations / 1000 ) + " microseconds per combine" );
+		}
+
+		// elementToJsonSchema
+
+		for ( int size : new int[] { 10, 100, 1000 } ) {
+
+			Element inspectionResult = XmlUtils.documentFromString( newEntity( size, 0, 1 ) ).getDocumentElement();
+			int iterations = 1000000 / size;
+			long legacyTotal = 0;
+			long streamingTotal = 0;
+			StringBuilder builder = new StringBuilder();
+
+			for ( int loop = 0; loop < iterations * 2; loop++ ) {
+
+				long start = System.nanoTime();
+				legacyElementToJsonSchema( inspectionResult );
+				long middle = System.nanoTime();
+
+				try {
+					builder.setLength( 0 );
+					XmlUtils.elementToJsonSchema( inspectionResult, builder );
+				} catch ( Exception e ) {
+					throw new RuntimeException( e );
+				}
+
+				long end = System.nanoTime();
+
+				// (first half is warm up)
+
+				if ( loop >= iterations ) {
+					legacyTotal += middle - start;
+					streamingTotal += end - middle;
+				}
+			}
+
+			System.out.println( size + " properties: " + ( legacyTotal / iterations / 1000 ) + " microseconds per legacy JSON Schema, " + ( streamingTotal / iterations / 1000 ) + " microseconds streaming" );
+		}
 	}
 
 	//
 	// Private members
 	//
 
+	/**
+	 * @param step
+	 *            1 to list the properties in order, -1 to list them in reverse order
+	 */
+
+	/* package private */static String newEntity( int size, int offset, int step ) {
+
+		StringBuilder builder = new StringBuilder( "<inspection-result><entity type=\"Foo\">" );
+
+		for ( int loop = 0; loop < size; loop++ ) {
+			int index = offset + ( step > 0 ? loop : size - 1 - loop );
+			builder.append( "<property name=\"property" );
+			builder.append( index );
+			builder.append( "\" index=\"" );
+			builder.append( index );
+			builder.append( "\"/>" );
+		}
+
+		builder.append( "</entity></inspection-result>" );
+		return builder.toString();
+	}
+
+	/**
+	 * Previous, String-concatenating implementation of <code>elementToJsonSchema</code>, kept for
+	 * benchmarking.
+	 */
+
+	private static String legacyElementToJsonSchema( Element inspectionResult ) {
+
+		StringBuilder jsonBuilder = new StringBuilder();
+		Element entity = XmlUtils.getFirstChildElement( inspectionResult );
+
+		if ( entity != null ) {
+			Element property = XmlUtils.getFirstChildElement( entity );
+
+			while ( property != null ) {
+
+				if ( property.hasAttribute( "name" ) ) {
+					String properties = legacyAttributesToJsonSchema( property.getAttributes(), true );
+
+					if ( properties.length() > 0 ) {
+
+						if ( jsonBuilder.length() > 0 ) {
+							jsonBuilder.append( ',' );
+						}
+
+						jsonBuilder.append( '\"' );
+						jsonBuilder.append( property.getAttribute( "name" ) );
+						jsonBuilder.append( "\":{" );
+						jsonBuilder.append( properties );
+						jsonBuilder.append( '}' );
+					}
+				}
+
+				property = XmlUtils.getNextSiblingElement( property );
+			}
+
+			if ( jsonBuilder.length() > 0 ) {
+				jsonBuilder.insert( 0, "\"properties\":{" );
+				jsonBuilder.append( '}' );
+			}
+
+			String properties = legacyAttributesToJsonSchema( entity.getAttributes(), false );
+
+			if ( properties.length() > 0 ) {
+
+				if ( jsonBuilder.length() > 0 ) {
+					jsonBuilder.insert( 0, "," );
+				}
+
+				jsonBuilder.insert( 0, properties );
+			}
+		}
+
+		return "{" + jsonBuilder.toString() + "}";
+	}
+
+	private static String legacyAttributesToJsonSchema( NamedNodeMap attributes, boolean excludeName ) {
+
+		StringBuilder propertyBuilder = new StringBuilder();
+
+		for ( int loop = 0, length = attributes.getLength(); loop < length; loop++ ) {
+
+			Node attribute = attributes.item( loop );
+			String elementName = attribute.getNodeName();
+			String nodeValue = attribute.getNodeValue();
+
+			if ( excludeName && "name".equals( elementName ) ) {
+				continue;
+			}
+
+			elementName = org.metawidget.util.simple.StringUtils.camelCase( elementName, '-' );
+
+			if ( propertyBuilder.length() > 0 ) {
+				propertyBuilder.append( ',' );
+			}
+
+			propertyBuilder.append( "\"" + elementName + "\"" );
+			propertyBuilder.append( ':' );
+
+			if ( "enum".equals( elementName ) || "enumTitles".equals( elementName ) || "section".equals( elementName ) ) {
+				String array = ArrayUtils.toString( ArrayUtils.fromString( nodeValue ), "\"", true, true );
+				array = array.replaceAll( "([^\\\\])\"", "$1\",\"" );
+				propertyBuilder.append( "[" );
+				propertyBuilder.append( array.substring( 0, array.length() - 2 ) );
+				propertyBuilder.append( "]" );
+			} else {
+				propertyBuilder.append( "\"" );
+				propertyBuilder.append( nodeValue );
+				propertyBuilder.append( "\"" );
+			}
+		}
+
+		return propertyBuilder.toString();
+	}
+
 	private void assertSimpleContentHandler( SimpleContentHandler simpleContentHandler ) {
 
 		assertEquals( simpleContentHandler.mEvents.size(), 10 );
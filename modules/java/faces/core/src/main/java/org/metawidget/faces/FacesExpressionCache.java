@@ -0,0 +1,150 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.faces;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.el.ExpressionFactory;
+import javax.el.MethodExpression;
+import javax.el.ValueExpression;
+import javax.faces.context.FacesContext;
+
+import org.metawidget.util.CollectionUtils;
+
+/**
+ * Per-application cache of parsed EL expressions.
+ * <p>
+ * WidgetProcessors and InspectionResultProcessors typically create the same expressions, for the
+ * same properties, every time a Metawidget is built. Parsed <code>ValueExpression</code>s and
+ * <code>MethodExpression</code>s are immutable, so can be shared. They are cached (per
+ * application) keyed by expression string and expected type(s).
+ * <p>
+ * Expressions are always parsed against <code>FacesContext.getELContext()</code>, so this cache is
+ * not suitable for expressions that rely on a more specific <code>FunctionMapper</code> or
+ * <code>VariableMapper</code> (such as those in Facelets templates).
+ * <p>
+ * Note this class links to <code>javax.el</code>. Callers wishing to remain compatible with JSF 1.1
+ * should be prepared to catch <code>LinkageError</code>.
+ *
+ * @author Richard Kennard
+ */
+
+public final class FacesExpressionCache {
+
+	//
+	// Private statics
+	//
+
+	private static final String	APPLICATION_ATTRIBUTE_CACHE	= FacesExpressionCache.class.getName();
+
+	/**
+	 * Upper bound on the number of cached expressions (per application). Beyond this, expressions
+	 * are still created but no longer cached, so that a pathological application (say, one that
+	 * builds expressions containing literal values) cannot exhaust memory.
+	 */
+
+	private static final int	MAXIMUM_SIZE				= 10000;
+
+	//
+	// Public statics
+	//
+
+	public static ValueExpression getValueExpression( FacesContext context, String expression, Class<?> expectedType ) {
+
+		ConcurrentMap<String, Object> cache = getCache( context );
+		String key = expectedType.getName() + ':' + expression;
+		ValueExpression valueExpression = (ValueExpression) cache.get( key );
+
+		if ( valueExpression == null ) {
+			ExpressionFactory expressionFactory = context.getApplication().getExpressionFactory();
+			valueExpression = expressionFactory.createValueExpression( context.getELContext(), expression, expectedType );
+			putIfRoom( cache, key, valueExpression );
+		}
+
+		return valueExpression;
+	}
+
+	public static MethodExpression getMethodExpression( FacesContext context, String expression, Class<?> expectedReturnType, Class<?>... expectedParamTypes ) {
+
+		ConcurrentMap<String, Object> cache = getCache( context );
+
+		StringBuilder builder = new StringBuilder( expectedReturnType.getName() );
+		builder.append( '(' );
+
+		for ( Class<?> expectedParamType : expectedParamTypes ) {
+			builder.append( expectedParamType.getName() );
+			builder.append( ',' );
+		}
+
+		builder.append( "):" );
+		builder.append( expression );
+
+		String key = builder.toString();
+		MethodExpression methodExpression = (MethodExpression) cache.get( key );
+
+		if ( methodExpression == null ) {
+			ExpressionFactory expressionFactory = context.getApplication().getExpressionFactory();
+			methodExpression = expressionFactory.createMethodExpression( context.getELContext(), expression, expectedReturnType, expectedParamTypes );
+			putIfRoom( cache, key, methodExpression );
+		}
+
+		return methodExpression;
+	}
+
+	//
+	// Private statics
+	//
+
+	@SuppressWarnings( "unchecked" )
+	private static ConcurrentMap<String, Object> getCache( FacesContext context ) {
+
+		Map<String, Object> applicationMap = context.getExternalContext().getApplicationMap();
+		ConcurrentMap<String, Object> cache = (ConcurrentMap<String, Object>) applicationMap.get( APPLICATION_ATTRIBUTE_CACHE );
+
+		if ( cache == null ) {
+
+			synchronized ( FacesExpressionCache.class ) {
+
+				cache = (ConcurrentMap<String, Object>) applicationMap.get( APPLICATION_ATTRIBUTE_CACHE );
+
+				if ( cache == null ) {
+					cache = CollectionUtils.newConcurrentHashMap();
+					applicationMap.put( APPLICATION_ATTRIBUTE_CACHE, cache );
+				}
+			}
+		}
+
+		return cache;
+	}
+
+	private static void putIfRoom( ConcurrentMap<String, Object> cache, String key, Object expression ) {
+
+		if ( cache.size() < MAXIMUM_SIZE ) {
+			cache.putIfAbsent( key, expression );
+		}
+	}
+
+	//
+	// Private constructor
+	//
+
+	private FacesExpressionCache() {
+
+		// Can never be called
+	}
+}
@@ -84,11 +84,13 @@ public final class FacesUtils {
 
 	public static String wrapExpression( String value ) {
 
+		// (no need to unwrapExpression, as we know value is not a whole expression)
+
 		if ( isExpression( value ) ) {
 			return value;
 		}
 
-		return EXPRESSION_START + unwrapExpression( value ) + EXPRESSION_END;
+		return EXPRESSION_START + value + EXPRESSION_END;
 	}
 
 	public static void render( FacesContext context, UIComponent component )
@@ -0,0 +1,218 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.faces.component;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+import org.metawidget.util.CollectionUtils;
+
+/**
+ * Immutable, interned <code>COMPONENT_ATTRIBUTE_METADATA</code>.
+ * <p>
+ * <code>UIMetawidget</code> stores the inspected attributes of every widget it builds against
+ * that widget. For large forms, and particularly under server-side state saving, holding a separate
+ * <code>Map</code> per widget per view can add up. <code>SharedMetadata</code> instead interns the
+ * attributes, so that identical metadata is shared across widgets and views. Within a single
+ * serialized ViewState, shared metadata is only written once.
+ * <p>
+ * The interner is weak: metadata no longer referenced by any widget is garbage collected, so
+ * nothing is pinned beyond the lifetime of the views that use it. The full attributes are always
+ * serialized, so deserialization never depends on what happens to be in the interner (for
+ * example, client-side state restored by a different, or restarted, JVM).
+ *
+ * @author Richard Kennard
+ */
+
+public final class SharedMetadata
+	extends AbstractMap<String, String>
+	implements Serializable {
+
+	//
+	// Private statics
+	//
+
+	private static final long													serialVersionUID	= 2l;
+
+	/**
+	 * Weakly-keyed interner. Values are <code>WeakReference</code>s to the keys themselves (so
+	 * that they do not stop the keys being collected).
+	 */
+
+	private static final Map<SharedMetadata, WeakReference<SharedMetadata>>	INTERNED			= CollectionUtils.newWeakHashMap();
+
+	//
+	// Public statics
+	//
+
+	/**
+	 * Returns a shared, immutable copy of the given metadata.
+	 */
+
+	public static Map<String, String> intern( Map<String, String> metadata ) {
+
+		if ( metadata instanceof SharedMetadata ) {
+			return metadata;
+		}
+
+		synchronized ( INTERNED ) {
+
+			SharedMetadata sharedMetadata = getInterned( metadata );
+
+			if ( sharedMetadata == null ) {
+				sharedMetadata = new SharedMetadata( metadata );
+				INTERNED.put( sharedMetadata, new WeakReference<SharedMetadata>( sharedMetadata ) );
+			}
+
+			return sharedMetadata;
+		}
+	}
+
+	//
+	// Private statics
+	//
+
+	/**
+	 * @return the interned metadata equal to the given metadata, or null if none. Must be called
+	 *         while synchronized on <code>INTERNED</code>
+	 */
+
+	private static SharedMetadata getInterned( Map<String, String> metadata ) {
+
+		WeakReference<SharedMetadata> reference = INTERNED.get( metadata );
+
+		if ( reference == null ) {
+			return null;
+		}
+
+		return reference.get();
+	}
+
+	//
+	// Private members
+	//
+
+	/**
+	 * The metadata. Transient because <code>writeObject</code> writes it more compactly.
+	 */
+
+	private transient Map<String, String>	mMetadata;
+
+	private transient int					mHashCode;
+
+	//
+	// Constructor
+	//
+
+	private SharedMetadata( Map<String, String> metadata ) {
+
+		mMetadata = Collections.unmodifiableMap( CollectionUtils.newHashMap( metadata ) );
+		mHashCode = mMetadata.hashCode();
+	}
+
+	//
+	// Public methods
+	//
+
+	@Override
+	public Set<Map.Entry<String, String>> entrySet() {
+
+		return mMetadata.entrySet();
+	}
+
+	@Override
+	public String get( Object key ) {
+
+		return mMetadata.get( key );
+	}
+
+	@Override
+	public boolean containsKey( Object key ) {
+
+		return mMetadata.containsKey( key );
+	}
+
+	@Override
+	public int size() {
+
+		return mMetadata.size();
+	}
+
+	@Override
+	public int hashCode() {
+
+		return mHashCode;
+	}
+
+	//
+	// Private methods
+	//
+
+	private void writeObject( ObjectOutputStream out )
+		throws IOException {
+
+		out.defaultWriteObject();
+		out.writeInt( mMetadata.size() );
+
+		for ( Map.Entry<String, String> entry : mMetadata.entrySet() ) {
+			out.writeObject( entry.getKey() );
+			out.writeObject( entry.getValue() );
+		}
+	}
+
+	private void readObject( ObjectInputStream in )
+		throws IOException, ClassNotFoundException {
+
+		in.defaultReadObject();
+
+		Map<String, String> metadata = CollectionUtils.newHashMap();
+
+		for ( int loop = 0, size = in.readInt(); loop < size; loop++ ) {
+			metadata.put( (String) in.readObject(), (String) in.readObject() );
+		}
+
+		mMetadata = Collections.unmodifiableMap( metadata );
+		mHashCode = mMetadata.hashCode();
+	}
+
+	/**
+	 * Resolve to the shared instance (if any) upon deserialization. Otherwise, become the shared
+	 * instance.
+	 */
+
+	private Object readResolve() {
+
+		synchronized ( INTERNED ) {
+
+			SharedMetadata sharedMetadata = getInterned( mMetadata );
+
+			if ( sharedMetadata == null ) {
+				sharedMetadata = this;
+				INTERNED.put( sharedMetadata, new WeakReference<SharedMetadata>( sharedMetadata ) );
+			}
+
+			return sharedMetadata;
+		}
+	}
+}
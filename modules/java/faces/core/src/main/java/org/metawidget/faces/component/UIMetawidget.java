@@ -20,12 +20,14 @@ import static org.metawidget.inspector.InspectionResultConstants.*;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.security.MessageDigest;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.TreeMap;
 
 import javax.faces.application.Application;
 import javax.faces.component.EditableValueHolder;
@@ -177,6 +179,33 @@ public abstract class UIMetawidget
 
 	/* package private */boolean			mBuildWidgetsOnAjaxRequest;
 
+	private boolean							mIncrementalBuild;
+
+	/**
+	 * Build context and fingerprint of the last build, and a fingerprint of the metadata of the
+	 * children it left behind.
+	 * <p>
+	 * Saved in state, because JSF restores each postback into a new component instance. The
+	 * children are restored separately (for example, after failover they may come from a different
+	 * node) so their metadata is checked against <code>mLastChildrenFingerprint</code> before the
+	 * component tree is kept.
+	 */
+
+	private String							mLastBuildContext;
+
+	private String							mLastFingerprint;
+
+	private String							mLastChildrenFingerprint;
+
+	/**
+	 * Recreatable widgets from the previous build, keyed by name, that are candidates for reuse by
+	 * the current build. Only non-null during an incremental build.
+	 */
+
+	/* package private */Map<String, UIComponent>	mReusableWidgets;
+
+	/* package private */UIComponent		mReusedWidget;
+
 	private boolean							mInspectFromParent;
 
 	private boolean							mReadOnly;
@@ -400,6 +429,29 @@ public abstract class UIMetawidget
 		mBuildWidgetsOnAjaxRequest = buildWidgetsOnAjaxRequest;
 	}
 
+	/**
+	 * Instructs <code>UIMetawidget</code> to rebuild its widgets incrementally.
+	 * <p>
+	 * By default, <code>UIMetawidget</code> destroys and recreates all of its recreatable children
+	 * (and re-runs all WidgetProcessors) every time it builds widgets. In incremental mode, it
+	 * instead keeps a fingerprint of the previous inspection result:
+	 * <ul>
+	 * <li>if the inspection result (and the read-only state, locale and renderer type) is unchanged,
+	 * the existing component tree is left as-is</li>
+	 * <li>otherwise, only those widgets whose attributes have changed are rebuilt. Unchanged
+	 * widgets are reused without being rebuilt or re-processed</li>
+	 * </ul>
+	 * <p>
+	 * This can greatly reduce the cost of rendering large forms, but clients must ensure their
+	 * WidgetBuilders and WidgetProcessors produce widgets that depend <em>only</em> on the
+	 * inspected attributes (not, say, on the current value of the backing bean).
+	 */
+
+	public void setIncrementalBuild( boolean incrementalBuild ) {
+
+		mIncrementalBuild = incrementalBuild;
+	}
+
 	/**
 	 * Returns a label for the given set of attributes.
 	 * <p>
@@ -754,13 +806,17 @@ public abstract class UIMetawidget
 	@Override
 	public Object saveState( FacesContext context ) {
 
-		Object values[] = new Object[6];
+		Object values[] = new Object[10];
 		values[0] = super.saveState( context );
 		values[1] = mExplicitRendererType;
 		values[2] = mReadOnly;
 		values[3] = mPipeline.getConfig();
 		values[4] = mInspectFromParent;
 		values[5] = mBuildWidgetsOnAjaxRequest;
+		values[6] = mIncrementalBuild;
+		values[7] = mLastBuildContext;
+		values[8] = mLastFingerprint;
+		values[9] = mLastChildrenFingerprint;
 
 		return values;
 	}
@@ -776,6 +832,10 @@ public abstract class UIMetawidget
 		mPipeline.setConfig( values[3] );
 		mInspectFromParent = (Boolean) values[4];
 		mBuildWidgetsOnAjaxRequest = (Boolean) values[5];
+		mIncrementalBuild = (Boolean) values[6];
+		mLastBuildContext = (String) values[7];
+		mLastFingerprint = (String) values[8];
+		mLastChildrenFingerprint = (String) values[9];
 	}
 
 	//
@@ -890,7 +950,7 @@ public abstract class UIMetawidget
 		ValueBinding valueBinding = getValueBinding( "value" );
 
 		if ( valueBinding != null ) {
-			mPipeline.buildWidgets( inspect( valueBinding, mInspectFromParent ) );
+			buildWidgets( inspect( valueBinding, mInspectFromParent ) );
 			return;
 		}
 
@@ -899,21 +959,21 @@ public abstract class UIMetawidget
 		Object value = getValue();
 
 		if ( value instanceof String ) {
-			mPipeline.buildWidgets( mPipeline.inspectAsDom( null, (String) value ) );
+			buildWidgets( mPipeline.inspectAsDom( null, (String) value ) );
 			return;
 		}
 
 		// ...or a Class (for 'binding' attribute)...
 
 		if ( value instanceof Class<?> ) {
-			mPipeline.buildWidgets( mPipeline.inspectAsDom( null, ( (Class<?>) value ).getName() ) );
+			buildWidgets( mPipeline.inspectAsDom( null, ( (Class<?>) value ).getName() ) );
 			return;
 		}
 
 		// ...or a direct Object (for 'binding' attribute)...
 
 		if ( value != null ) {
-			mPipeline.buildWidgets( mPipeline.inspectAsDom( value, value.getClass().getName() ) );
+			buildWidgets( mPipeline.inspectAsDom( value, value.getClass().getName() ) );
 			return;
 		}
 
@@ -980,9 +1040,6 @@ public abstract class UIMetawidget
 
 	protected void layoutWidget( UIComponent component, String elementName, Map<String, String> attributes ) {
 
-		Map<String, Object> componentAttributes = component.getAttributes();
-		componentAttributes.put( COMPONENT_ATTRIBUTE_METADATA, attributes );
-
 		// If this component already exists in the list, remove it and re-add it. This
 		// enables us to sort existing, manually created components in the correct order
 		//
@@ -999,6 +1056,10 @@ public abstract class UIMetawidget
 			attributes.putAll( additionalAttributes );
 		}
 
+		// Store the metadata in its shared form, to reduce ViewState size
+
+		component.getAttributes().put( COMPONENT_ATTRIBUTE_METADATA, SharedMetadata.intern( attributes ) );
+
 		// BasePipeline will call .layoutWidget
 	}
 
@@ -1083,6 +1144,20 @@ public abstract class UIMetawidget
 			return false;
 		}
 
+		// Incremental build? Set aside named widgets (as whole subtrees) for possible reuse. Section
+		// wrappers and the like have no name, so are recursed into and discarded as usual
+
+		if ( mReusableWidgets != null ) {
+
+			@SuppressWarnings( "unchecked" )
+			Map<String, String> metadata = (Map<String, String>) attributes.get( COMPONENT_ATTRIBUTE_METADATA );
+
+			if ( metadata != null && metadata.containsKey( NAME ) && isRecreatable( component ) ) {
+				mReusableWidgets.put( metadata.get( NAME ), component );
+				return true;
+			}
+		}
+
 		// Recurse into children. We may have an auto-generated 'not recreatable' (e.g.
 		// SelectInputDate) or a manually added 'not recreatable', and we don't want to remove the
 		// top-level for it. This includes children that are nested Metawidgets, and children that
@@ -1101,6 +1176,166 @@ public abstract class UIMetawidget
 		return children.isEmpty();
 	}
 
+	/**
+	 * @return true if neither the given component nor any of its descendants are marked
+	 *         COMPONENT_ATTRIBUTE_NOT_RECREATABLE
+	 */
+
+	private boolean isRecreatable( UIComponent component ) {
+
+		if ( component.getAttributes().containsKey( COMPONENT_ATTRIBUTE_NOT_RECREATABLE ) ) {
+			return false;
+		}
+
+		for ( UIComponent componentChild : component.getChildren() ) {
+
+			if ( !isRecreatable( componentChild ) ) {
+				return false;
+			}
+		}
+
+		return true;
+	}
+
+	/**
+	 * Build widgets for the given inspection result, incrementally if
+	 * <code>setIncrementalBuild</code> is set.
+	 */
+
+	/* package private */void buildWidgets( Element inspectionResult )
+		throws Exception {
+
+		if ( !mIncrementalBuild || inspectionResult == null ) {
+			mPipeline.buildWidgets( inspectionResult );
+			return;
+		}
+
+		// Nothing has changed since the last build? Keep the existing component tree. Compare the
+		// children too, in case they have been manually added or removed, or were restored with
+		// different metadata
+
+		String buildContext = getBuildContext();
+		String fingerprint = getFingerprint( buildContext, inspectionResult );
+
+		if ( fingerprint.equals( mLastFingerprint ) && getChildrenFingerprint().equals( mLastChildrenFingerprint ) ) {
+			LOG.trace( "buildWidgets: inspection result unchanged" );
+			return;
+		}
+
+		// Otherwise rebuild, reusing individual widgets where possible (unless the build context
+		// itself has changed, in which case every widget may be affected)
+
+		if ( buildContext.equals( mLastBuildContext ) ) {
+			mReusableWidgets = CollectionUtils.newHashMap();
+		}
+
+		try {
+			mPipeline.buildWidgets( inspectionResult );
+		} finally {
+			mReusableWidgets = null;
+			mReusedWidget = null;
+		}
+
+		mLastBuildContext = buildContext;
+		mLastFingerprint = fingerprint;
+		mLastChildrenFingerprint = getChildrenFingerprint();
+	}
+
+	/**
+	 * Everything, besides the inspection result, that affects which widgets are built and how they
+	 * are bound.
+	 * <p>
+	 * Includes the value binding's expression: two expressions may point to the same type (and so
+	 * have the same inspection result) yet the widgets must be bound to the new one.
+	 */
+
+	private String getBuildContext() {
+
+		StringBuilder builder = new StringBuilder();
+		builder.append( isReadOnly() );
+		builder.append( StringUtils.SEPARATOR_COMMA );
+		builder.append( FacesContext.getCurrentInstance().getViewRoot().getLocale() );
+		builder.append( StringUtils.SEPARATOR_COMMA );
+		builder.append( getRendererType() );
+		builder.append( StringUtils.SEPARATOR_COMMA );
+		builder.append( mPipeline.getConfig() );
+		builder.append( StringUtils.SEPARATOR_COMMA );
+
+		ValueBinding valueBinding = getValueBinding( "value" );
+
+		if ( valueBinding != null ) {
+			builder.append( valueBinding.getExpressionString() );
+		}
+
+		return builder.toString();
+	}
+
+	private String getFingerprint( String buildContext, Element inspectionResult )
+		throws Exception {
+
+		MessageDigest digest = MessageDigest.getInstance( "MD5" );
+		digest.update( buildContext.getBytes( "UTF-8" ) );
+		digest.update( XmlUtils.nodeToString( inspectionResult, false ).getBytes( "UTF-8" ) );
+
+		return toHexString( digest );
+	}
+
+	/**
+	 * Fingerprint the metadata of our children (and their children, but not those of nested
+	 * Metawidgets, which build themselves) in order.
+	 */
+
+	private String getChildrenFingerprint()
+		throws Exception {
+
+		MessageDigest digest = MessageDigest.getInstance( "MD5" );
+
+		for ( UIComponent componentChild : getChildren() ) {
+			updateChildrenFingerprint( digest, componentChild );
+		}
+
+		return toHexString( digest );
+	}
+
+	private void updateChildrenFingerprint( MessageDigest digest, UIComponent component )
+		throws Exception {
+
+		// (sort the metadata, as the same attributes may iterate in a different order once restored)
+
+		@SuppressWarnings( "unchecked" )
+		Map<String, String> metadata = (Map<String, String>) component.getAttributes().get( COMPONENT_ATTRIBUTE_METADATA );
+
+		if ( metadata == null ) {
+			digest.update( (byte) 0 );
+		} else {
+			digest.update( new TreeMap<String, String>( metadata ).toString().getBytes( "UTF-8" ) );
+		}
+
+		if ( component instanceof UIMetawidget ) {
+			return;
+		}
+
+		digest.update( (byte) '[' );
+
+		for ( UIComponent componentChild : component.getChildren() ) {
+			updateChildrenFingerprint( digest, componentChild );
+		}
+
+		digest.update( (byte) ']' );
+	}
+
+	private static String toHexString( MessageDigest digest ) {
+
+		StringBuilder builder = new StringBuilder();
+
+		for ( byte b : digest.digest() ) {
+			builder.append( Character.forDigit( ( b >> 4 ) & 0xF, 16 ) );
+			builder.append( Character.forDigit( b & 0xF, 16 ) );
+		}
+
+		return builder.toString();
+	}
+
 	/**
 	 * Inspect the value binding.
 	 * <p>
@@ -1284,6 +1519,18 @@ public abstract class UIMetawidget
 		@Override
 		protected UIComponent buildWidget( String elementName, Map<String, String> attributes ) {
 
+			// Reuse an unchanged widget from the previous build, if any
+
+			if ( mReusableWidgets != null && !ENTITY.equals( elementName ) ) {
+
+				UIComponent reusableWidget = mReusableWidgets.remove( attributes.get( NAME ) );
+
+				if ( reusableWidget != null && attributes.equals( reusableWidget.getAttributes().get( COMPONENT_ATTRIBUTE_METADATA ) ) ) {
+					mReusedWidget = reusableWidget;
+					return reusableWidget;
+				}
+			}
+
 			UIComponent entityLevelWidget = super.buildWidget( elementName, attributes );
 
 			// If we manage to build an entity-level widget, move our children *inside* it
@@ -1353,6 +1600,21 @@ public abstract class UIMetawidget
 			return null;
 		}
 
+		/**
+		 * Overridden to not re-process reused widgets.
+		 */
+
+		@Override
+		protected UIComponent processWidget( UIComponent widget, String elementName, Map<String, String> attributes ) {
+
+			if ( widget != null && widget == mReusedWidget ) {
+				mReusedWidget = null;
+				return widget;
+			}
+
+			return super.processWidget( widget, elementName, attributes );
+		}
+
 		@Override
 		protected UIMetawidget buildNestedMetawidget( Map<String, String> attributes )
 			throws Exception {
@@ -1663,4 +1925,4 @@ public abstract class UIMetawidget
 			mMetawidget.buildWidgets();
 		}
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
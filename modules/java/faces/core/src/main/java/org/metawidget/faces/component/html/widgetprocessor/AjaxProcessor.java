@@ -23,7 +23,6 @@ import java.util.Collection;
 import java.util.Map;
 
 import javax.el.MethodExpression;
-import javax.faces.application.Application;
 import javax.faces.component.UIComponent;
 import javax.faces.component.behavior.AjaxBehavior;
 import javax.faces.component.behavior.ClientBehaviorHolder;
@@ -31,6 +30,7 @@ import javax.faces.context.FacesContext;
 import javax.faces.event.AjaxBehaviorEvent;
 import javax.faces.event.AjaxBehaviorListener;
 
+import org.metawidget.faces.FacesExpressionCache;
 import org.metawidget.faces.component.UIMetawidget;
 import org.metawidget.faces.component.UIStub;
 import org.metawidget.util.CollectionUtils;
@@ -152,10 +152,7 @@ public class AjaxProcessor
 
 		public AjaxBehaviorListenerImpl( String listenerExpression ) {
 
-			FacesContext context = FacesContext.getCurrentInstance();
-			Application application = context.getApplication();
-
-			mListenerMethod = application.getExpressionFactory().createMethodExpression( context.getELContext(), listenerExpression, Object.class, new Class[] { AjaxBehaviorEvent.class } );
+			mListenerMethod = FacesExpressionCache.getMethodExpression( FacesContext.getCurrentInstance(), listenerExpression, Object.class, AjaxBehaviorEvent.class );
 		}
 
 		//
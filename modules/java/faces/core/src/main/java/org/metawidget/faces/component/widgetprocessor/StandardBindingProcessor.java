@@ -24,11 +24,13 @@ import java.util.Map;
 
 import javax.faces.application.Application;
 import javax.faces.component.ActionSource;
+import javax.faces.component.ActionSource2;
 import javax.faces.component.UIComponent;
 import javax.faces.context.FacesContext;
 import javax.faces.el.MethodBinding;
 import javax.faces.el.ValueBinding;
 
+import org.metawidget.faces.FacesExpressionCache;
 import org.metawidget.faces.FacesUtils;
 import org.metawidget.faces.component.UIMetawidget;
 import org.metawidget.faces.component.UIStub;
@@ -67,28 +69,37 @@ public class StandardBindingProcessor
 			if ( methodBinding == null ) {
 				// If there is a faces-expression, use it...
 
-				if ( facesExpression != null ) {
-					methodBinding = application.createMethodBinding( facesExpression, null );
-				}
+				String actionExpression = facesExpression;
 
 				// ...otherwise try and construct a binding...
 
-				else if ( name != null && !"".equals( name ) ) {
+				if ( actionExpression == null && name != null && !"".equals( name ) ) {
 					if ( metawidgetValueBinding != null ) {
 						String facesExpressionPrefix = FacesUtils.unwrapExpression( metawidgetValueBinding.getExpressionString() );
-						facesExpression = FacesUtils.wrapExpression( facesExpressionPrefix + StringUtils.SEPARATOR_DOT_CHAR + name );
-						methodBinding = application.createMethodBinding( facesExpression, null );
+						actionExpression = FacesUtils.wrapExpression( facesExpressionPrefix + StringUtils.SEPARATOR_DOT_CHAR + name );
 					}
 
 					// ...or just use the raw value (for jBPM)
 
 					else {
-						methodBinding = application.createMethodBinding( name, null );
+						actionExpression = name;
 					}
 				}
 
-				if ( methodBinding != null ) {
-					actionSource.setAction( methodBinding );
+				if ( actionExpression != null ) {
+					try {
+						// JSF 1.2 mode: use a (cached) MethodExpression
+
+						if ( actionSource instanceof ActionSource2 ) {
+							( (ActionSource2) actionSource ).setActionExpression( FacesExpressionCache.getMethodExpression( context, actionExpression, Object.class ) );
+						} else {
+							actionSource.setAction( application.createMethodBinding( actionExpression, null ) );
+						}
+					} catch ( LinkageError e ) {
+						// JSF 1.1 mode
+
+						actionSource.setAction( application.createMethodBinding( actionExpression, null ) );
+					}
 				}
 			}
 
@@ -129,11 +140,12 @@ public class StandardBindingProcessor
 					//
 					// Note: we wrap the ValueExpression as an Object[] to stop link-time
 					// dependencies on javax.el.ValueExpression, so that we still work with
-					// JSF 1.1
+					// JSF 1.1. Parsed expressions are cached, as they are typically the same
+					// from build to build
 
-					Object[] valueExpression = new Object[] { application.getExpressionFactory().createValueExpression( context.getELContext(), valueBindingExpression, Object.class ) };
+					Object[] valueExpression = new Object[] { FacesExpressionCache.getValueExpression( context, valueBindingExpression, Object.class ) };
 					attachValueExpression( component, valueExpression[0], attributes );
-				} catch ( NoSuchMethodError e ) {
+				} catch ( LinkageError e ) {
 					// JSF 1.1 mode
 
 					attachValueBinding( component, application.createValueBinding( valueBindingExpression ), attributes );
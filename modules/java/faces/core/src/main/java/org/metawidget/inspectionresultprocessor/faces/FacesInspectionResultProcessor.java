@@ -22,6 +22,7 @@ import java.util.regex.Matcher;
 
 import javax.faces.context.FacesContext;
 
+import org.metawidget.faces.FacesExpressionCache;
 import org.metawidget.faces.FacesUtils;
 import org.metawidget.faces.component.UIMetawidget;
 import org.metawidget.inspectionresultprocessor.iface.InspectionResultProcessorException;
@@ -168,7 +169,11 @@ public class FacesInspectionResultProcessor
 				continue;
 			}
 
-			// ...that contains an EL expression...
+			// ...that contains an EL expression (check cheaply before using a regex)...
+
+			if ( value.indexOf( '{' ) == -1 ) {
+				continue;
+			}
 
 			Matcher matcher = FacesUtils.matchExpression( value );
 			int matchOffset = 0;
@@ -186,9 +191,7 @@ public class FacesInspectionResultProcessor
 				// ...evaluate it...
 
 				try {
-					FacesContext context = FacesContext.getCurrentInstance();
-					@SuppressWarnings( "deprecation" )
-					Object valueObject = context.getApplication().createValueBinding( expression ).getValue( context );
+					Object valueObject = evaluateExpression( FacesContext.getCurrentInstance(), expression );
 					String valueObjectAsString;
 
 					if ( valueObject == null ) {
@@ -238,4 +241,24 @@ public class FacesInspectionResultProcessor
 			attributes.put( key, value );
 		}
 	}
+
+	//
+	// Private methods
+	//
+
+	/**
+	 * Evaluate the given expression, using a cached <code>ValueExpression</code> where possible.
+	 */
+
+	@SuppressWarnings( "deprecation" )
+	private Object evaluateExpression( FacesContext context, String expression ) {
+
+		try {
+			return FacesExpressionCache.getValueExpression( context, expression, Object.class ).getValue( context.getELContext() );
+		} catch ( LinkageError e ) {
+			// JSF 1.1 mode
+
+			return context.getApplication().createValueBinding( expression ).getValue( context );
+		}
+	}
 }
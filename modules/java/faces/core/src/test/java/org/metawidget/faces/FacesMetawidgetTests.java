@@ -19,6 +19,7 @@ package org.metawidget.faces;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.io.Serializable;
 import java.io.StringWriter;
 import java.io.Writer;
 import java.lang.reflect.Field;
@@ -1219,13 +1220,20 @@ public class FacesMetawidgetTests {
 	}
 
 	public static class MockValueBinding
-		extends ValueBinding {
+		extends ValueBinding
+		implements Serializable {
+
+		//
+		// Private statics
+		//
+
+		private static final long	serialVersionUID	= 1l;
 
 		//
 		// Private members
 		//
 
-		private String	mExpressionString;
+		private String				mExpressionString;
 
 		//
 		// Constructor
@@ -16,10 +16,14 @@
 
 package org.metawidget.faces;
 
+import javax.el.MethodExpression;
 import javax.faces.component.html.HtmlInputText;
+import javax.faces.event.AjaxBehaviorEvent;
 
 import junit.framework.TestCase;
 
+import org.metawidget.faces.FacesMetawidgetTests.MockFacesContext;
+
 /**
  * @author Richard Kennard
  */
@@ -50,6 +54,31 @@ public class FacesUtilsTest
 		assertEquals( "#{foo}}", FacesUtils.wrapExpression( "foo}" ) );
 	}
 
+	public void testExpressionCache()
+		throws Exception {
+
+		MockFacesContext context = new MockFacesContext();
+
+		try {
+			MethodExpression methodExpression = FacesExpressionCache.getMethodExpression( context, "#{foo.bar}", Object.class );
+			assertEquals( "#{foo.bar}", methodExpression.getExpressionString() );
+			assertTrue( methodExpression == FacesExpressionCache.getMethodExpression( context, "#{foo.bar}", Object.class ) );
+			assertTrue( methodExpression != FacesExpressionCache.getMethodExpression( context, "#{foo.baz}", Object.class ) );
+			assertTrue( methodExpression != FacesExpressionCache.getMethodExpression( context, "#{foo.bar}", Object.class, AjaxBehaviorEvent.class ) );
+
+			// MockFacesContext mimics JSF 1.1 for ValueExpressions
+
+			try {
+				FacesExpressionCache.getValueExpression( context, "#{foo.bar}", Object.class );
+				fail();
+			} catch ( LinkageError e ) {
+				assertEquals( "MockFacesContext mimics JSF 1.1", e.getMessage() );
+			}
+		} finally {
+			context.unregisterCurrentInstance();
+		}
+	}
+
 	public void testSetStyleAndStyleClass()
 		throws Exception {
 
@@ -0,0 +1,152 @@
+// Metawidget (licensed under LGPL)
+//
+// This library is free software; you can redistribute it and/or
+// modify it under the terms of the GNU Lesser General Public
+// License as published by the Free Software Foundation; either
+// version 2.1 of the License, or (at your option) any later version.
+//
+// This library is distributed in the hope that it will be useful,
+// but WITHOUT ANY WARRANTY; without even the implied warranty of
+// MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+// Lesser General Public License for more details.
+//
+// You should have received a copy of the GNU Lesser General Public
+// License along with this library; if not, write to the Free Software
+// Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA
+
+package org.metawidget.faces.component;
+
+import static org.metawidget.inspector.InspectionResultConstants.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import org.metawidget.util.CollectionUtils;
+
+/**
+ * @author Richard Kennard
+ */
+
+public class SharedMetadataTest
+	extends TestCase {
+
+	//
+	// Public methods
+	//
+
+	public void testIntern() {
+
+		Map<String, String> metadata = newMetadata( "foo" );
+		Map<String, String> shared = SharedMetadata.intern( metadata );
+
+		assertEquals( metadata, shared );
+		assertEquals( shared, metadata );
+		assertEquals( metadata.hashCode(), shared.hashCode() );
+		assertTrue( shared == SharedMetadata.intern( newMetadata( "foo" ) ) );
+		assertTrue( shared == SharedMetadata.intern( shared ) );
+		assertTrue( shared != SharedMetadata.intern( newMetadata( "bar" ) ) );
+
+		// Should be a copy
+
+		metadata.put( REQUIRED, TRUE );
+		assertFalse( shared.containsKey( REQUIRED ) );
+		assertTrue( shared != SharedMetadata.intern( metadata ) );
+
+		// Should be immutable
+
+		try {
+			shared.put( REQUIRED, TRUE );
+			fail();
+		} catch ( UnsupportedOperationException e ) {
+			// Should fail
+		}
+	}
+
+	public void testSerialization()
+		throws Exception {
+
+		Map<String, String> shared = SharedMetadata.intern( newMetadata( "foo" ) );
+
+		// Should deserialize to the same instance
+
+		assertTrue( shared == deserialize( serialize( shared ) ) );
+
+		// Should deserialize in full even if not already interned (eg. client-side state restored
+		// by a different JVM)
+
+		byte[] serialized = serialize( SharedMetadata.intern( newMetadata( "notInterned" ) ) );
+		System.gc();
+
+		@SuppressWarnings( "unchecked" )
+		Map<String, String> deserialized = (Map<String, String>) deserialize( serialized );
+		assertEquals( newMetadata( "notInterned" ), deserialized );
+		assertTrue( deserialized == SharedMetadata.intern( newMetadata( "notInterned" ) ) );
+
+		// Shared metadata should only be written once per stream
+
+		List<Map<String, String>> plain = CollectionUtils.newArrayList();
+		List<Map<String, String>> interned = CollectionUtils.newArrayList();
+
+		for ( int loop = 0; loop < 300; loop++ ) {
+			Map<String, String> metadata = newMetadata( "property" + ( loop % 10 ) );
+			plain.add( metadata );
+			interned.add( SharedMetadata.intern( metadata ) );
+		}
+
+		assertTrue( serialize( interned ).length * 2 < serialize( plain ).length );
+	}
+
+	public void testWeakInterning() {
+
+		// Should not pin metadata no longer referenced by any widget
+
+		WeakReference<Map<String, String>> reference = new WeakReference<Map<String, String>>( SharedMetadata.intern( newMetadata( "weak" ) ) );
+
+		for ( int loop = 0; loop < 10 && reference.get() != null; loop++ ) {
+			System.gc();
+		}
+
+		assertEquals( null, reference.get() );
+	}
+
+	//
+	// Private methods
+	//
+
+	private Map<String, String> newMetadata( String name ) {
+
+		Map<String, String> metadata = CollectionUtils.newHashMap();
+		metadata.put( NAME, name );
+		metadata.put( TYPE, String.class.getName() );
+		metadata.put( LABEL, "Label for " + name );
+		metadata.put( MAXIMUM_LENGTH, "30" );
+		metadata.put( SECTION, "Details" );
+		metadata.put( LOOKUP, "Foo,Bar,Baz" );
+
+		return metadata;
+	}
+
+	private byte[] serialize( Object object )
+		throws Exception {
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		ObjectOutputStream objectOut = new ObjectOutputStream( out );
+		objectOut.writeObject( object );
+		objectOut.close();
+
+		return out.toByteArray();
+	}
+
+	private Object deserialize( byte[] bytes )
+		throws Exception {
+
+		return new ObjectInputStream( new ByteArrayInputStream( bytes ) ).readObject();
+	}
+}
@@ -19,9 +19,11 @@ package org.metawidget.faces.component;
 import static org.metawidget.inspector.InspectionResultConstants.*;
 
 import java.io.IOException;
+import java.util.Locale;
 import java.util.Map;
 
 import javax.faces.component.UIComponent;
+import javax.faces.component.UIViewRoot;
 import javax.faces.component.html.HtmlOutputText;
 import javax.faces.context.FacesContext;
 import javax.faces.render.RenderKit;
@@ -37,7 +39,9 @@ import org.metawidget.inspector.propertytype.PropertyTypeInspector;
 import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.LogUtils;
 import org.metawidget.util.LogUtilsTest;
+import org.metawidget.util.XmlUtils;
 import org.metawidget.widgetbuilder.iface.WidgetBuilder;
+import org.w3c.dom.Element;
 
 /**
  * UIMetawidget test cases.
@@ -176,6 +180,99 @@ public class UIMetawidgetTest
 		assertEquals( notRecreatableComponent, metawidget.getChildren().get( 0 ) );
 	}
 
+	@SuppressWarnings( "deprecation" )
+	public void testIncrementalBuild()
+		throws Exception {
+
+		UIMetawidget metawidget = new HtmlMetawidget();
+		Map<String, String> metadata = CollectionUtils.newHashMap();
+		metadata.put( NAME, "foo" );
+		metadata.put( TYPE, String.class.getName() );
+		HtmlOutputText namedComponent = new HtmlOutputText();
+		namedComponent.getAttributes().put( UIMetawidget.COMPONENT_ATTRIBUTE_METADATA, metadata );
+		HtmlOutputText unnamedComponent = new HtmlOutputText();
+		unnamedComponent.getAttributes().put( UIMetawidget.COMPONENT_ATTRIBUTE_METADATA, CollectionUtils.newHashMap() );
+
+		metawidget.getChildren().add( namedComponent );
+		metawidget.getChildren().add( unnamedComponent );
+		metawidget.setValueBinding( "value", mContext.getApplication().createValueBinding( "#{foo}" ) );
+
+		// Named components should be set aside for reuse
+
+		metawidget.mReusableWidgets = CollectionUtils.newHashMap();
+		metawidget.startBuild();
+		assertEquals( 0, metawidget.getChildCount() );
+		assertEquals( 1, metawidget.mReusableWidgets.size() );
+		assertTrue( namedComponent == metawidget.mReusableWidgets.get( "foo" ) );
+
+		// Unchanged attributes should reuse the component, and skip processing
+
+		Map<String, String> attributes = CollectionUtils.newHashMap( metadata );
+		assertTrue( namedComponent == metawidget.mPipeline.buildWidget( PROPERTY, attributes ) );
+		assertTrue( metawidget.mReusableWidgets.isEmpty() );
+		assertTrue( namedComponent == metawidget.mPipeline.processWidget( namedComponent, PROPERTY, attributes ) );
+		assertTrue( metawidget.mReusedWidget == null );
+	}
+
+	public void testIncrementalBuildAfterRestore()
+		throws Exception {
+
+		final int[] builds = new int[1];
+		Element inspectionResult = XmlUtils.documentFromString( "<inspection-result><entity type=\"foo\"><property name=\"bar\"/></entity></inspection-result>" ).getDocumentElement();
+
+		MockFacesContext context = new MockFacesContext() {
+
+			@Override
+			public UIViewRoot getViewRoot() {
+
+				UIViewRoot viewRoot = new UIViewRoot();
+				viewRoot.setLocale( Locale.ENGLISH );
+				return viewRoot;
+			}
+		};
+
+		try {
+			UIMetawidget metawidget = new CountingMetawidget( builds );
+			metawidget.setIncrementalBuild( true );
+			metawidget.setValueBinding( "value", context.getApplication().createValueBinding( "#{foo}" ) );
+			metawidget.getChildren().add( newWidget( "bar" ) );
+
+			// Unchanged inspection results should not rebuild...
+
+			metawidget.buildWidgets( inspectionResult );
+			metawidget.buildWidgets( inspectionResult );
+			assertEquals( 1, builds[0] );
+
+			// ...including after being restored into a new instance (as on every postback)...
+
+			Object state = metawidget.saveState( context );
+			UIMetawidget restoredMetawidget = new CountingMetawidget( builds );
+			restoredMetawidget.getChildren().add( newWidget( "bar" ) );
+			restoredMetawidget.restoreState( context, state );
+			restoredMetawidget.buildWidgets( inspectionResult );
+			assertEquals( 1, builds[0] );
+
+			// ...unless the restored children's metadata differs (eg. after failover)...
+
+			restoredMetawidget = new CountingMetawidget( builds );
+			restoredMetawidget.getChildren().add( newWidget( "baz" ) );
+			restoredMetawidget.restoreState( context, state );
+			restoredMetawidget.buildWidgets( inspectionResult );
+			assertEquals( 2, builds[0] );
+
+			restoredMetawidget.buildWidgets( inspectionResult );
+			assertEquals( 2, builds[0] );
+
+			// ...or the value binding has changed, even if to the same type
+
+			metawidget.setValueBinding( "value", context.getApplication().createValueBinding( "#{otherFoo}" ) );
+			metawidget.buildWidgets( inspectionResult );
+			assertEquals( 3, builds[0] );
+		} finally {
+			context.unregisterCurrentInstance();
+		}
+	}
+
 	public void testStub()
 		throws Exception {
 
@@ -296,4 +393,59 @@ public class UIMetawidgetTest
 
 		mContext.release();
 	}
+
+	//
+	// Private methods
+	//
+
+	private UIComponent newWidget( String name ) {
+
+		Map<String, String> metadata = CollectionUtils.newHashMap();
+		metadata.put( NAME, name );
+
+		HtmlOutputText widget = new HtmlOutputText();
+		widget.getAttributes().put( UIMetawidget.COMPONENT_ATTRIBUTE_METADATA, metadata );
+
+		return widget;
+	}
+
+	//
+	// Inner class
+	//
+
+	/* package private */static class CountingMetawidget
+		extends HtmlMetawidget {
+
+		//
+		// Package private members
+		//
+
+		/* package private */final int[]	mBuilds;
+
+		//
+		// Constructor
+		//
+
+		public CountingMetawidget( int[] builds ) {
+
+			mBuilds = builds;
+		}
+
+		//
+		// Protected methods
+		//
+
+		@Override
+		protected Pipeline newPipeline() {
+
+			return new Pipeline() {
+
+				@Override
+				public void buildWidgets( Element inspectionResult ) {
+
+					mBuilds[0]++;
+				}
+			};
+		}
+	}
 }
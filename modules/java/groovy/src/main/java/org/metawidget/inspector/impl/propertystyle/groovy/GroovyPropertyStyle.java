@@ -76,18 +76,30 @@ public class GroovyPropertyStyle
 	@Override
 	protected Map<String, Property> inspectProperties( String type ) {
 
+		Class<?> clazz = ClassUtils.niceForName( type );
+
+		if ( clazz == null ) {
+			return CollectionUtils.newTreeMap( StringUtils.CASE_INSENSITIVE_COMPARATOR );
+		}
+
+		return inspectProperties( clazz );
+	}
+
+	/**
+	 * Returns properties sorted by name.
+	 * <p>
+	 * Not called for subclasses, unless they override <code>isInspectByClass</code>.
+	 */
+
+	@Override
+	protected Map<String, Property> inspectProperties( Class<?> clazz ) {
+
 		// TreeMap so that returns alphabetically sorted properties
 
 		Map<String, Property> propertiesToReturn = CollectionUtils.newTreeMap( StringUtils.CASE_INSENSITIVE_COMPARATOR );
 
 		// Iterate over all Groovy properties
 
-		Class<?> clazz = ClassUtils.niceForName( type );
-
-		if ( clazz == null ) {
-			return propertiesToReturn;
-		}
-		
 		List<MetaProperty> properties = GroovySystem.getMetaClassRegistry().getMetaClass( clazz ).getProperties();
 
 		for ( MetaProperty property : properties ) {
@@ -134,6 +146,12 @@ public class GroovyPropertyStyle
 		return propertiesToReturn;
 	}
 
+	@Override
+	protected boolean isInspectByClass() {
+
+		return ( getClass() == GroovyPropertyStyle.class );
+	}
+
 	/**
 	 * Whether to exclude the given base type when searching up the model inheritance chain.
 	 * <p>
@@ -240,6 +258,16 @@ public class GroovyPropertyStyle
 			} catch ( Exception e ) {
 				throw InspectorException.newException( e );
 			}
+
+			// Annotations come from the field, else the getter, else the setter
+
+			if ( mField != null ) {
+				indexAnnotations( mField.getAnnotations() );
+			} else if ( mGetterMethod != null ) {
+				indexAnnotations( mGetterMethod.getAnnotations() );
+			} else if ( mSetterMethod != null ) {
+				indexAnnotations( mSetterMethod.getAnnotations() );
+			}
 		}
 
 		//
@@ -274,21 +302,19 @@ public class GroovyPropertyStyle
 			}
 		}
 
-		public <T extends Annotation> T getAnnotation( Class<T> annotation ) {
-
-			if ( mField != null ) {
-				return mField.getAnnotation( annotation );
-			}
+		/**
+		 * Annotations are indexed at construction, but there is nothing to index them from if the
+		 * property has no field, getter or setter.
+		 */
 
-			if ( mGetterMethod != null ) {
-				return mGetterMethod.getAnnotation( annotation );
-			}
+		@Override
+		public <T extends Annotation> T getAnnotation( Class<T> annotationClass ) {
 
-			if ( mSetterMethod != null ) {
-				return mSetterMethod.getAnnotation( annotation );
+			if ( mField == null && mGetterMethod == null && mSetterMethod == null ) {
+				throw InspectorException.newException( "Don't know how to getAnnotation from " + getName() );
 			}
 
-			throw InspectorException.newException( "Don't know how to getAnnotation from " + getName() );
+			return super.getAnnotation( annotationClass );
 		}
 
 		public String getGenericType() {
@@ -16,6 +16,9 @@
 
 package org.metawidget.inspector.impl.propertystyle.groovy;
 
+import groovy.lang.MetaBeanProperty;
+
+import java.lang.reflect.Constructor;
 import java.util.Date;
 import java.util.List;
 import java.util.Map;
@@ -26,6 +29,7 @@ import junit.framework.TestCase;
 
 import org.hibernate.validator.Length;
 import org.hibernate.validator.NotNull;
+import org.metawidget.inspector.iface.InspectorException;
 import org.metawidget.inspector.impl.propertystyle.Property;
 import org.metawidget.util.CollectionUtils;
 import org.metawidget.util.simple.StringUtils;
@@ -86,4 +90,19 @@ public class GroovyPropertyStyleTest
 		Map<String, Property> properties = propertyStyle.getProperties( "invalid" );
 		assertTrue( properties.isEmpty() );
 	}
+
+	public void testNoFieldGetterOrSetter()
+		throws Exception {
+
+		Constructor<?> constructor = Class.forName( GroovyPropertyStyle.class.getName() + "$GroovyProperty" ).getDeclaredConstructor( MetaBeanProperty.class, Class.class );
+		constructor.setAccessible( true );
+		Property property = (Property) constructor.newInstance( new MetaBeanProperty( "foo", String.class, null, null ), GroovyFoo.class );
+
+		try {
+			property.getAnnotation( Column.class );
+			fail();
+		} catch ( InspectorException e ) {
+			assertEquals( "Don't know how to getAnnotation from foo", e.getMessage() );
+		}
+	}
 }
@@ -96,6 +96,34 @@ public class JavassistPropertyStyle
 	@Override
 	protected Map<String, Property> inspectProperties( String type ) {
 
+		return sortByLineNumber( type, super.inspectProperties( type ) );
+	}
+
+	/**
+	 * Javassist looks up classes by name (in its <code>ClassPool</code>), but the JavaBean
+	 * properties themselves can still be looked up by Class.
+	 * <p>
+	 * Not called for subclasses, unless they override <code>isInspectByClass</code>.
+	 */
+
+	@Override
+	protected Map<String, Property> inspectProperties( Class<?> clazz ) {
+
+		return sortByLineNumber( clazz.getName(), super.inspectProperties( clazz ) );
+	}
+
+	@Override
+	protected boolean isInspectByClass() {
+
+		return ( getClass() == JavassistPropertyStyle.class );
+	}
+
+	//
+	// Private methods
+	//
+
+	private Map<String, Property> sortByLineNumber( String type, Map<String, Property> properties ) {
+
 		try {
 			Map<ClassAndLineNumberAndName, Property> lineNumberedProperties = CollectionUtils.newTreeMap();
 
@@ -104,8 +132,6 @@ public class JavassistPropertyStyle
 
 			// For each JavaBean property...
 
-			Map<String, Property> properties = super.inspectProperties( type );
-
 			for ( Property property : properties.values() ) {
 				String propertyName = property.getName();
 
@@ -167,10 +193,6 @@ public class JavassistPropertyStyle
 		}
 	}
 
-	//
-	// Private methods
-	//
-
 	/**
 	 * Adapter method to avoid having to use <code>CtClass.getMethod</code>, which requires us to
 	 * construct a JVM signature String.
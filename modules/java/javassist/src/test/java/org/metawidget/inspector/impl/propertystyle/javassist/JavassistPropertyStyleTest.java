@@ -65,6 +65,13 @@ public class JavassistPropertyStyleTest
 		assertEquals( "methodBar", i.next().getName() );
 		assertEquals( "methodBaz", i.next().getName() );
 		assertFalse( i.hasNext() );
+
+		// Lookups by Class should sort the same
+
+		JavaBeanPropertyStyleConfig config = new JavaBeanPropertyStyleConfig().setSupportPublicFields( true );
+		config.setCacheLookups( false );
+		propertyStyle = new JavassistPropertyStyle( config );
+		assertEquals( properties.keySet().toString(), propertyStyle.getProperties( Foo.class ).keySet().toString() );
 	}
 
 	public void testSupportPublicFields() {
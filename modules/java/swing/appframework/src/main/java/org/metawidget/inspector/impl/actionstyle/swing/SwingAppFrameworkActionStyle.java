@@ -77,4 +77,10 @@ public class SwingAppFrameworkActionStyle
 
 		return true;
 	}
+
+	@Override
+	protected boolean isInspectByClass() {
+
+		return ( getClass() == SwingAppFrameworkActionStyle.class );
+	}
 }
@@ -28,17 +28,21 @@ import java.awt.LayoutManager;
 import java.awt.Rectangle;
 import java.awt.Stroke;
 import java.beans.Beans;
+import java.lang.reflect.Method;
 import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
 import java.util.ResourceBundle;
+import java.util.concurrent.Executor;
 
 import javax.swing.JComponent;
 import javax.swing.JScrollPane;
+import javax.swing.SwingUtilities;
 
 import org.metawidget.iface.Immutable;
 import org.metawidget.iface.MetawidgetException;
 import org.metawidget.inspectionresultprocessor.iface.InspectionResultProcessor;
+import org.metawidget.inspector.iface.DomInspector;
 import org.metawidget.inspector.iface.Inspector;
 import org.metawidget.layout.iface.Layout;
 import org.metawidget.pipeline.w3c.W3CPipeline;
@@ -88,6 +92,17 @@ public class SwingMetawidget
 
 	private boolean					mIgnoreAddRemove;
 
+	private Executor				mInspectionExecutor;
+
+	/**
+	 * Incremented every time the inspection result is invalidated. Used to discard superseded
+	 * asynchronous inspection results.
+	 */
+
+	private int						mInspectionRequest;
+
+	private boolean					mInspectionInFlight;
+
 	/**
 	 * List of existing, manually added components.
 	 * <p>
@@ -107,6 +122,21 @@ public class SwingMetawidget
 
 	private Map<String, Facet>		mFacets				= CollectionUtils.newHashMap();
 
+	/**
+	 * Index of the components laid out by the last build, by name. Used to speed up
+	 * <code>getComponent( String... )</code>.
+	 */
+
+	private Map<String, Component>	mComponentsByName	= CollectionUtils.newHashMap();
+
+	/**
+	 * Cache of value properties, by component class, for the current WidgetBuilder.
+	 */
+
+	private Map<Class<?>, ValueProperty>	mValueProperties	= CollectionUtils.newHashMap();
+
+	private WidgetBuilder<JComponent, SwingMetawidget>	mValuePropertiesWidgetBuilder;
+
 	/* package private */Pipeline	mPipeline;
 
 	//
@@ -194,6 +224,33 @@ public class SwingMetawidget
 		return mPath;
 	}
 
+	/**
+	 * Sets the Executor used to inspect asynchronously.
+	 * <p>
+	 * By default (<code>null</code>), <code>SwingMetawidget</code> inspects on the Event Dispatch
+	 * Thread, just-in-time, when it is first painted or sized. For expensive inspections this can
+	 * freeze the UI. If an Executor is set, inspection is instead performed by the Executor, and a
+	 * placeholder is painted in the meantime (see <code>paintInspectionPlaceholder</code>). Widgets
+	 * are then built, on the Event Dispatch Thread, once the inspection result arrives.
+	 * <p>
+	 * Successive requests (eg. rapid calls to <code>setToInspect</code>) are coalesced, so that only
+	 * one inspection is in flight at a time, and only the latest request is built.
+	 * <p>
+	 * Note:
+	 * <ul>
+	 * <li>the configured Inspectors and InspectionResultProcessors must be thread-safe (as all
+	 * Inspectors and InspectionResultProcessors should be)</li>
+	 * <li>methods such as <code>getComponent</code> and <code>getValue</code> will not find any
+	 * components until the inspection result arrives</li>
+	 * <li>nested Metawidgets are still built synchronously, as part of their parent</li>
+	 * </ul>
+	 */
+
+	public void setInspectionExecutor( Executor inspectionExecutor ) {
+
+		mInspectionExecutor = inspectionExecutor;
+	}
+
 	public void setConfig( String config ) {
 
 		mPipeline.setConfig( config );
@@ -565,7 +622,7 @@ public class SwingMetawidget
 	public <T> T getValue( String... names ) {
 
 		ComponentAndValueProperty componentAndValueProperty = getComponentAndValueProperty( names );
-		return (T) ClassUtils.getProperty( componentAndValueProperty.getComponent(), componentAndValueProperty.getValueProperty() );
+		return (T) componentAndValueProperty.getValueProperty().getValue( componentAndValueProperty.getComponent() );
 	}
 
 	/**
@@ -579,7 +636,7 @@ public class SwingMetawidget
 	public void setValue( Object value, String... names ) {
 
 		ComponentAndValueProperty componentAndValueProperty = getComponentAndValueProperty( names );
-		ClassUtils.setProperty( componentAndValueProperty.getComponent(), componentAndValueProperty.getValueProperty(), value );
+		componentAndValueProperty.getValueProperty().setValue( componentAndValueProperty.getComponent(), value );
 	}
 
 	/**
@@ -591,7 +648,13 @@ public class SwingMetawidget
 
 	public String getValueProperty( Component component ) {
 
-		return getValueProperty( component, mPipeline.getWidgetBuilder() );
+		ValueProperty valueProperty = getCachedValueProperty( component );
+
+		if ( valueProperty == null ) {
+			return null;
+		}
+
+		return valueProperty.getName();
 	}
 
 	/**
@@ -620,7 +683,11 @@ public class SwingMetawidget
 
 			// Try to find a component
 
-			topComponent = getComponent( (Container) topComponent, name );
+			if ( topComponent instanceof SwingMetawidget ) {
+				topComponent = ( (SwingMetawidget) topComponent ).getIndexedComponent( name );
+			} else {
+				topComponent = getComponent( (Container) topComponent, name );
+			}
 
 			if ( loop == length - 1 ) {
 				return (T) topComponent;
@@ -735,6 +802,12 @@ public class SwingMetawidget
 
 		super.paintComponent( graphics );
 
+		// Waiting for an asynchronous inspection?
+
+		if ( mInspectionInFlight ) {
+			paintInspectionPlaceholder( graphics );
+		}
+
 		// When used as part of an IDE builder tool, render as a dotted square so that we can see
 		// something!
 
@@ -763,6 +836,7 @@ public class SwingMetawidget
 	protected void invalidateInspection() {
 
 		mLastInspectionResult = null;
+		mInspectionRequest++;
 		invalidateWidgets();
 	}
 
@@ -781,6 +855,7 @@ public class SwingMetawidget
 		// immediate repaint which sets mNeedToBuildWidgets back to false
 
 		super.removeAll();
+		mComponentsByName.clear();
 
 		// Prepare to build widgets
 
@@ -826,12 +901,19 @@ public class SwingMetawidget
 
 		mPipeline.configureOnce();
 
+		// Inspect asynchronously? Leave mNeedToBuildWidgets set until the inspection result arrives
+
+		if ( mLastInspectionResult == null && mInspectionExecutor != null && mPath != null ) {
+			inspectAsynchronously();
+			return;
+		}
+
 		mNeedToBuildWidgets = false;
 		mIgnoreAddRemove = true;
 
 		try {
 			if ( mLastInspectionResult == null ) {
-				mLastInspectionResult = inspect();
+				mLastInspectionResult = inspect( mToInspect, mPath );
 			}
 
 			mPipeline.buildWidgets( mLastInspectionResult );
@@ -842,9 +924,29 @@ public class SwingMetawidget
 		}
 	}
 
+	/**
+	 * Paints a placeholder while waiting for an asynchronous inspection.
+	 * <p>
+	 * The placeholder text is localized using the key <code>loading</code>, if the bundle has one.
+	 * <p>
+	 * Subclasses can override this method to paint their own placeholder.
+	 */
+
+	protected void paintInspectionPlaceholder( Graphics graphics ) {
+
+		String loading = getLocalizedKey( "loading" );
+
+		if ( loading == null || loading.startsWith( StringUtils.RESOURCE_KEY_NOT_FOUND_PREFIX ) ) {
+			loading = "Loading...";
+		}
+
+		graphics.drawString( loading, 10, getHeight() / 2 );
+	}
+
 	protected void startBuild() {
 
 		mExistingUnusedComponents = CollectionUtils.newArrayList( mExistingComponents );
+		mComponentsByName.clear();
 	}
 
 	/**
@@ -864,7 +966,12 @@ public class SwingMetawidget
 		// Note: we haven't split this out into a separate WidgetProcessor, because other methods
 		// like getValue/setValue/getComponent( String... names ) rely on it
 
-		component.setName( attributes.get( NAME ) );
+		String name = attributes.get( NAME );
+		component.setName( name );
+
+		if ( name != null && !mComponentsByName.containsKey( name ) ) {
+			mComponentsByName.put( name, component );
+		}
 
 		// Remove, then re-add to layout (to re-order the component)
 
@@ -905,14 +1012,127 @@ public class SwingMetawidget
 	// Private methods
 	//
 
-	private Element inspect() {
+	private Element inspect( Object toInspect, String path ) {
 
-		if ( mPath == null ) {
+		if ( path == null ) {
 			return null;
 		}
 
-		TypeAndNames typeAndNames = PathUtils.parsePath( mPath );
-		return mPipeline.inspectAsDom( mToInspect, typeAndNames.getType(), typeAndNames.getNamesAsArray() );
+		TypeAndNames typeAndNames = PathUtils.parsePath( path );
+		return mPipeline.inspectAsDom( toInspect, typeAndNames.getType(), typeAndNames.getNamesAsArray() );
+	}
+
+	/**
+	 * Runs the Inspector using the inspection Executor, then processes the inspection result and
+	 * builds widgets on the Event Dispatch Thread.
+	 * <p>
+	 * Only the Inspector runs on the Executor's Thread. InspectionResultProcessors, like the rest of
+	 * the pipeline, are not assumed to be threadsafe.
+	 */
+
+	private void inspectAsynchronously() {
+
+		// Coalesce requests: only one inspection in flight at a time. Newer requests are started
+		// when the one in flight completes
+
+		if ( mInspectionInFlight ) {
+			return;
+		}
+
+		mInspectionInFlight = true;
+
+		final int inspectionRequest = mInspectionRequest;
+		final Object toInspect = mToInspect;
+		final TypeAndNames typeAndNames = PathUtils.parsePath( mPath );
+		final Inspector inspector = mPipeline.getInspector();
+
+		// Inspectors may load classes (or resources) using the context ClassLoader, so use the same
+		// one the synchronous case would have
+
+		final ClassLoader contextClassLoader = Thread.currentThread().getContextClassLoader();
+
+		mInspectionExecutor.execute( new Runnable() {
+
+			public void run() {
+
+				Object inspectionResult = null;
+				Throwable throwable = null;
+
+				Thread thread = Thread.currentThread();
+				ClassLoader executorClassLoader = thread.getContextClassLoader();
+				thread.setContextClassLoader( contextClassLoader );
+
+				try {
+					if ( inspector instanceof DomInspector<?> ) {
+						inspectionResult = ( (DomInspector<?>) inspector ).inspectAsDom( toInspect, typeAndNames.getType(), typeAndNames.getNamesAsArray() );
+					} else {
+						inspectionResult = inspector.inspect( toInspect, typeAndNames.getType(), typeAndNames.getNamesAsArray() );
+					}
+				} catch ( Throwable t ) {
+					throwable = t;
+				} finally {
+					thread.setContextClassLoader( executorClassLoader );
+				}
+
+				final Object finalInspectionResult = inspectionResult;
+				final Throwable finalThrowable = throwable;
+
+				SwingUtilities.invokeLater( new Runnable() {
+
+					public void run() {
+
+						inspectionComplete( inspectionRequest, toInspect, typeAndNames, finalInspectionResult, finalThrowable );
+					}
+				} );
+			}
+		} );
+	}
+
+	/**
+	 * Called on the Event Dispatch Thread when an asynchronous inspection completes.
+	 */
+
+	private void inspectionComplete( int inspectionRequest, Object toInspect, TypeAndNames typeAndNames, Object inspectionResult, Throwable throwable ) {
+
+		mInspectionInFlight = false;
+
+		// Superseded? Discard it, and start the latest request instead
+
+		if ( inspectionRequest != mInspectionRequest ) {
+			buildWidgets();
+			return;
+		}
+
+		// (mNeedToBuildWidgets may have been cleared by a synchronous build, eg. if the Executor was
+		// since set to null)
+
+		boolean needToBuildWidgets = mNeedToBuildWidgets;
+
+		// Like a synchronous build, a failed inspection is not retried until the Metawidget is
+		// next invalidated (otherwise the next paint would resubmit it, forever)
+
+		mNeedToBuildWidgets = false;
+
+		if ( throwable != null ) {
+			throw MetawidgetException.newException( throwable );
+		}
+
+		mLastInspectionResult = mPipeline.processDetachedInspectionResult( inspectionResult, toInspect, typeAndNames.getType(), typeAndNames.getNamesAsArray() );
+
+		if ( needToBuildWidgets ) {
+			mIgnoreAddRemove = true;
+
+			try {
+				mPipeline.buildWidgets( mLastInspectionResult );
+			} catch ( Exception e ) {
+				throw MetawidgetException.newException( e );
+			} finally {
+				mIgnoreAddRemove = false;
+			}
+		}
+
+		revalidate();
+		repaint();
 	}
 
 	private ComponentAndValueProperty getComponentAndValueProperty( String... names ) {
@@ -929,13 +1149,48 @@ public class SwingMetawidget
 			component = ( (JScrollPane) component ).getViewport().getView();
 		}
 
-		String componentProperty = getValueProperty( component );
+		ValueProperty valueProperty = getCachedValueProperty( component );
 
-		if ( componentProperty == null ) {
+		if ( valueProperty == null ) {
 			throw MetawidgetException.newException( "Don't know how to getValue from a " + component.getClass().getName() );
 		}
 
-		return new ComponentAndValueProperty( component, componentProperty );
+		return new ComponentAndValueProperty( component, valueProperty );
+	}
+
+	/**
+	 * Returns the value property for the given component, from cache if possible.
+	 * <p>
+	 * Value properties are cached by component class, and the cache is cleared if the WidgetBuilder
+	 * changes.
+	 *
+	 * @return the value property, or null if the component is not known
+	 */
+
+	private ValueProperty getCachedValueProperty( Component component ) {
+
+		WidgetBuilder<JComponent, SwingMetawidget> widgetBuilder = mPipeline.getWidgetBuilder();
+
+		if ( widgetBuilder != mValuePropertiesWidgetBuilder ) {
+			mValueProperties.clear();
+			mValuePropertiesWidgetBuilder = widgetBuilder;
+		}
+
+		Class<?> componentClass = component.getClass();
+		ValueProperty valueProperty = mValueProperties.get( componentClass );
+
+		if ( valueProperty == null ) {
+			String name = getValueProperty( component, widgetBuilder );
+
+			if ( name == null ) {
+				return null;
+			}
+
+			valueProperty = new ValueProperty( name );
+			mValueProperties.put( componentClass, valueProperty );
+		}
+
+		return valueProperty;
 	}
 
 	private String getValueProperty( Component component, WidgetBuilder<JComponent, SwingMetawidget> widgetBuilder ) {
@@ -967,6 +1222,24 @@ public class SwingMetawidget
 		return null;
 	}
 
+	/**
+	 * Finds the Component with the given name, using the index built during the last build.
+	 * <p>
+	 * Falls back to searching the component tree if the index is out of date (eg. if the client has
+	 * since renamed or moved the component) or does not contain the name.
+	 */
+
+	private Component getIndexedComponent( String name ) {
+
+		Component component = mComponentsByName.get( name );
+
+		if ( component != null && name.equals( component.getName() ) && SwingUtilities.isDescendingFrom( component, this ) ) {
+			return component;
+		}
+
+		return getComponent( this, name );
+	}
+
 	private Component getComponent( Container container, String name ) {
 
 		for ( Component childComponent : container.getComponents() ) {
@@ -1124,15 +1397,15 @@ public class SwingMetawidget
 		// Private members
 		//
 
-		private Component	mComponent;
+		private Component		mComponent;
 
-		private String		mValueProperty;
+		private ValueProperty	mValueProperty;
 
 		//
 		// Constructor
 		//
 
-		public ComponentAndValueProperty( Component component, String valueProperty ) {
+		public ComponentAndValueProperty( Component component, ValueProperty valueProperty ) {
 
 			mComponent = component;
 			mValueProperty = valueProperty;
@@ -1147,9 +1420,79 @@ public class SwingMetawidget
 			return mComponent;
 		}
 
-		public String getValueProperty() {
+		public ValueProperty getValueProperty() {
 
 			return mValueProperty;
 		}
 	}
+
+	/**
+	 * Value property of a component class, with its read and write methods looked up lazily and
+	 * then cached.
+	 */
+
+	private static class ValueProperty {
+
+		//
+		// Private members
+		//
+
+		private String	mName;
+
+		private Method	mReadMethod;
+
+		private Method	mWriteMethod;
+
+		//
+		// Constructor
+		//
+
+		public ValueProperty( String name ) {
+
+			mName = name;
+		}
+
+		//
+		// Public methods
+		//
+
+		public String getName() {
+
+			return mName;
+		}
+
+		public Object getValue( Component component ) {
+
+			try {
+				if ( mReadMethod == null ) {
+					mReadMethod = ClassUtils.getReadMethod( component.getClass(), mName );
+				}
+
+				return mReadMethod.invoke( component );
+			} catch ( Exception e ) {
+				throw MetawidgetException.newException( "Unable to get '" + mName + "' of '" + component + "' (" + component.getClass() + ")", e );
+			}
+		}
+
+		public void setValue( Component component, Object value ) {
+
+			try {
+				if ( mWriteMethod == null ) {
+
+					// Determine the type based on the 'read' method, not the value.getClass(),
+					// because that is unreliable for 'Integer' versus 'int'
+
+					if ( mReadMethod == null ) {
+						mReadMethod = ClassUtils.getReadMethod( component.getClass(), mName );
+					}
+
+					mWriteMethod = ClassUtils.getWriteMethod( component.getClass(), mName, mReadMethod.getReturnType() );
+				}
+
+				mWriteMethod.invoke( component, value );
+			} catch ( Exception e ) {
+				throw MetawidgetException.newException( "Unable to set '" + mName + "' of '" + component + "' to '" + value + "'", e );
+			}
+		}
+	}
 }
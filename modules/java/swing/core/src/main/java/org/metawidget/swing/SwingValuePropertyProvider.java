@@ -34,6 +34,9 @@ public interface SwingValuePropertyProvider {
 	 * Returns the property used to get/set the value of the component.
 	 * <p>
 	 * If the component is not known, returns <code>null</code>.
+	 * <p>
+	 * The returned property should depend only on the class of the component, as
+	 * <code>SwingMetawidget</code> caches it per component class.
 	 */
 
 	String getValueProperty( Component component );
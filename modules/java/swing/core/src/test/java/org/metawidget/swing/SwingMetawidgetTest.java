@@ -24,8 +24,11 @@ import java.awt.event.ActionEvent;
 import java.beans.BeanInfo;
 import java.beans.Introspector;
 import java.lang.reflect.Field;
+import java.net.URL;
+import java.net.URLClassLoader;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
 
 import javax.swing.AbstractAction;
 import javax.swing.JButton;
@@ -34,6 +37,7 @@ import javax.swing.JComboBox;
 import javax.swing.JComponent;
 import javax.swing.JPanel;
 import javax.swing.JTextField;
+import javax.swing.SwingUtilities;
 
 import junit.framework.TestCase;
 
@@ -44,6 +48,7 @@ import org.metawidget.inspector.annotation.UiAction;
 import org.metawidget.inspector.annotation.UiRequired;
 import org.metawidget.inspector.composite.CompositeInspector;
 import org.metawidget.inspector.composite.CompositeInspectorConfig;
+import org.metawidget.inspector.iface.Inspector;
 import org.metawidget.inspector.propertytype.PropertyTypeInspector;
 import org.metawidget.inspector.propertytype.PropertyTypeInspectorTest.RecursiveFoo;
 import org.metawidget.swing.layout.BoxLayout;
@@ -327,6 +332,261 @@ public class SwingMetawidgetTest
 		assertTrue( null != metawidget.getWidgetProcessor( FooActionBindingProcessor.class ) );
 	}
 
+	public void testComponentIndex() {
+
+		SwingMetawidget metawidget = new SwingMetawidget();
+		metawidget.setInspector( new PropertyTypeInspector() );
+		metawidget.setToInspect( new Foo() );
+
+		// Should find components through the index
+
+		JTextField nameField = metawidget.getComponent( "name" );
+		assertEquals( "name", nameField.getName() );
+		assertTrue( metawidget.getComponent( "foo" ) instanceof SwingMetawidget );
+		assertEquals( null, metawidget.getComponent( "bar" ) );
+
+		// Values should get/set through the (cached) value property
+
+		metawidget.setValue( "Foo", "name" );
+		assertEquals( "Foo", nameField.getText() );
+		assertEquals( "Foo", metawidget.getValue( "name" ) );
+		metawidget.setValue( "Bar", "name" );
+		assertEquals( "Bar", metawidget.getValue( "name" ) );
+		assertEquals( "text", metawidget.getValueProperty( nameField ) );
+
+		// Should fall back gracefully if the index is out of date
+
+		nameField.setName( "renamed" );
+		assertTrue( nameField == metawidget.getComponent( "renamed" ) );
+		assertEquals( null, metawidget.getComponent( "name" ) );
+
+		// Should rebuild the index when widgets are rebuilt
+
+		metawidget.setToInspect( new Foo() );
+		JTextField rebuiltNameField = metawidget.getComponent( "name" );
+		assertTrue( rebuiltNameField != nameField );
+		assertEquals( "", metawidget.getValue( "name" ) );
+	}
+
+	public void testInspectionExecutor()
+		throws Exception {
+
+		final List<Runnable> queue = CollectionUtils.newArrayList();
+		final List<Object> inspected = CollectionUtils.newArrayList();
+
+		final SwingMetawidget metawidget = new SwingMetawidget();
+		metawidget.setInspector( new Inspector() {
+
+			public String inspect( Object toInspect, String type, String... names ) {
+
+				inspected.add( toInspect );
+				return new PropertyTypeInspector().inspect( toInspect, type, names );
+			}
+		} );
+		metawidget.addInspectionResultProcessor( new InspectionResultProcessor<SwingMetawidget>() {
+
+			public String processInspectionResult( String inspectionResult, SwingMetawidget swingMetawidget, Object toInspect, String type, String... names ) {
+
+				// InspectionResultProcessors should run on the EDT
+
+				assertTrue( SwingUtilities.isEventDispatchThread() );
+				return inspectionResult;
+			}
+		} );
+		metawidget.setInspectionExecutor( new Executor() {
+
+			public void execute( Runnable runnable ) {
+
+				queue.add( runnable );
+			}
+		} );
+
+		final Foo foo1 = new Foo();
+		final Foo foo2 = new Foo();
+		final Foo foo3 = new Foo();
+
+		SwingUtilities.invokeAndWait( new Runnable() {
+
+			public void run() {
+
+				// Should not inspect on the EDT
+
+				metawidget.setToInspect( foo1 );
+				assertEquals( 0, metawidget.getComponentCount() );
+				assertEquals( 1, queue.size() );
+				assertTrue( inspected.isEmpty() );
+
+				// Should coalesce requests while an inspection is in flight
+
+				metawidget.setToInspect( foo2 );
+				metawidget.getPreferredSize();
+				metawidget.setToInspect( foo3 );
+				metawidget.getPreferredSize();
+				assertEquals( 1, queue.size() );
+			}
+		} );
+
+		// Superseded result should be discarded, and the latest request started
+
+		queue.remove( 0 ).run();
+		assertTrue( foo1 == inspected.get( 0 ) );
+
+		SwingUtilities.invokeAndWait( new Runnable() {
+
+			public void run() {
+
+				assertEquals( 0, metawidget.getComponentCount() );
+				assertEquals( 1, queue.size() );
+			}
+		} );
+
+		queue.remove( 0 ).run();
+		assertTrue( foo3 == inspected.get( 1 ) );
+
+		// Widgets should be built on the EDT (check 'inspected' here too, as building nested
+		// Metawidgets inspects synchronously on the EDT)
+
+		SwingUtilities.invokeAndWait( new Runnable() {
+
+			public void run() {
+
+				assertTrue( !inspected.contains( foo2 ) );
+				assertTrue( metawidget.getComponent( "name" ) instanceof JTextField );
+				assertTrue( queue.isEmpty() );
+				assertTrue( foo3 == metawidget.getToInspect() );
+			}
+		} );
+	}
+
+	public void testInspectionExecutorFailure()
+		throws Exception {
+
+		final List<Runnable> queue = CollectionUtils.newArrayList();
+
+		final SwingMetawidget metawidget = new SwingMetawidget();
+		metawidget.setInspector( new Inspector() {
+
+			public String inspect( Object toInspect, String type, String... names ) {
+
+				throw new RuntimeException( "Failed to inspect" );
+			}
+		} );
+		metawidget.setInspectionExecutor( new Executor() {
+
+			public void execute( Runnable runnable ) {
+
+				queue.add( runnable );
+			}
+		} );
+
+		SwingUtilities.invokeAndWait( new Runnable() {
+
+			public void run() {
+
+				metawidget.setToInspect( new Foo() );
+				metawidget.getPreferredSize();
+				assertEquals( 1, queue.size() );
+			}
+		} );
+
+		// Failure should be reported on the EDT
+
+		final List<Throwable> thrown = CollectionUtils.newArrayList();
+		final Thread.UncaughtExceptionHandler defaultHandler = Thread.getDefaultUncaughtExceptionHandler();
+		Thread.setDefaultUncaughtExceptionHandler( new Thread.UncaughtExceptionHandler() {
+
+			public void uncaughtException( Thread thread, Throwable throwable ) {
+
+				thrown.add( throwable );
+			}
+		} );
+
+		try {
+			queue.remove( 0 ).run();
+
+			SwingUtilities.invokeAndWait( new Runnable() {
+
+				public void run() {
+
+					// (flush the EDT)
+				}
+			} );
+		} finally {
+			Thread.setDefaultUncaughtExceptionHandler( defaultHandler );
+		}
+
+		assertEquals( 1, thrown.size() );
+		assertEquals( "java.lang.RuntimeException: Failed to inspect", thrown.get( 0 ).getMessage() );
+
+		// Failed inspection should not be resubmitted until the Metawidget is next invalidated
+
+		SwingUtilities.invokeAndWait( new Runnable() {
+
+			public void run() {
+
+				metawidget.getPreferredSize();
+				metawidget.getComponentCount();
+				assertTrue( queue.isEmpty() );
+
+				metawidget.setToInspect( new Foo() );
+				metawidget.getPreferredSize();
+				assertEquals( 1, queue.size() );
+			}
+		} );
+	}
+
+	public void testInspectionExecutorContextClassLoader()
+		throws Exception {
+
+		final List<Runnable> queue = CollectionUtils.newArrayList();
+		final List<ClassLoader> contextClassLoaders = CollectionUtils.newArrayList();
+		final ClassLoader classLoader = new URLClassLoader( new URL[0] );
+
+		final SwingMetawidget metawidget = new SwingMetawidget();
+		metawidget.setInspector( new Inspector() {
+
+			public String inspect( Object toInspect, String type, String... names ) {
+
+				contextClassLoaders.add( Thread.currentThread().getContextClassLoader() );
+				return null;
+			}
+		} );
+		metawidget.setInspectionExecutor( new Executor() {
+
+			public void execute( Runnable runnable ) {
+
+				queue.add( runnable );
+			}
+		} );
+
+		SwingUtilities.invokeAndWait( new Runnable() {
+
+			public void run() {
+
+				Thread thread = Thread.currentThread();
+				ClassLoader edtClassLoader = thread.getContextClassLoader();
+				thread.setContextClassLoader( classLoader );
+
+				try {
+					metawidget.setToInspect( new Foo() );
+					metawidget.getPreferredSize();
+				} finally {
+					thread.setContextClassLoader( edtClassLoader );
+				}
+			}
+		} );
+
+		// Inspector should run with the requesting Thread's context ClassLoader...
+
+		ClassLoader executorClassLoader = Thread.currentThread().getContextClassLoader();
+		queue.remove( 0 ).run();
+		assertTrue( classLoader == contextClassLoaders.get( 0 ) );
+
+		// ...and restore the Executor Thread's afterwards
+
+		assertTrue( executorClassLoader == Thread.currentThread().getContextClassLoader() );
+	}
+
 	public void testOverrideLayout() {
 
 		// Without override